@@ -0,0 +1,233 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JSON hashes that many threads may read and change at once, such as a
+ * configuration tree that request threads read while another thread
+ * reloads it. It has the same methods as JSONHash.
+ *
+ * The pairs live in a ConcurrentHashMap, so reads never lock and never
+ * wait, writes lock only the one bin they touch (or use a single
+ * compare-and-set when the bin is empty), and growing the table is shared
+ * out among writers while readers carry on. Iterators are weakly
+ * consistent: they never throw ConcurrentModificationException, they see
+ * every pair that was there when they were made and not removed since,
+ * and they may or may not see later changes. Unlike JSONHash, the order
+ * of the pairs is unspecified.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class ConcurrentJSONHash implements JSONValue {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The key/value pairs.
+   */
+  ConcurrentHashMap<JSONString, JSONValue> pairs;
+
+  /**
+   * JSONWriteCache.SHARED once we have been written through a cache, for
+   * passing changes on to cached output; null before. Another thread may
+   * change us while we are being written, so we never have a single
+   * parent: output with us inside is only good until we change.
+   */
+  volatile Object parent;
+
+  /**
+   * Our cached output, or null.
+   */
+  volatile JSONWriteCache.Entry cached;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an empty hash.
+   */
+  public ConcurrentJSONHash() {
+    this.pairs = new ConcurrentHashMap<JSONString, JSONValue>();
+  } // ConcurrentJSONHash()
+
+  /**
+   * Create a hash with the same pairs as hash. The values themselves are
+   * shared, not copied.
+   */
+  public ConcurrentJSONHash(JSONHash hash) {
+    this.pairs = new ConcurrentHashMap<JSONString, JSONValue>(Math.max(16, 2 * hash.size()));
+    Iterator<KVPair<JSONString, JSONValue>> it = hash.iterator();
+    while (it.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = it.next();
+      this.pairs.put(pair.key(), pair.value());
+    } // while
+  } // ConcurrentJSONHash(JSONHash)
+
+  // +-------------------------+-------------------------------------
+  // | Standard object methods |
+  // +-------------------------+
+
+  /**
+   * Convert to a string (e.g., for printing).
+   */
+  public String toString() {
+    StringBuilder result = new StringBuilder("{");
+    for (Map.Entry<JSONString, JSONValue> pair : this.pairs.entrySet()) {
+      if (result.length() > 1) {
+        result.append(", ");
+      } // if
+      result.append(pair.getKey()).append(": ").append(pair.getValue());
+    } // for
+    return result.append('}').toString();
+  } // toString()
+
+  /**
+   * Compare to another object. A concurrent hash equals another with
+   * the same keys and equal values.
+   */
+  public boolean equals(Object other) {
+    return (other instanceof ConcurrentJSONHash)
+        && this.pairs.equals(((ConcurrentJSONHash) other).pairs);
+  } // equals(Object)
+
+  /**
+   * Compute the hash code.
+   */
+  public int hashCode() {
+    return this.pairs.hashCode();
+  } // hashCode()
+
+  // +--------------------+------------------------------------------
+  // | Additional methods |
+  // +--------------------+
+
+  /**
+   * Write the value as JSON.
+   */
+  public void writeJSON(PrintWriter pen) {
+    JSONGenerator.write(this, pen);
+  } // writeJSON(PrintWriter)
+
+  /**
+   * Write the value through a generator.
+   */
+  public void writeJSON(JSONGenerator gen) throws IOException {
+    if (gen.writeCached(this)) {
+      return;
+    } // if
+    gen.writeStartObject();
+    for (Map.Entry<JSONString, JSONValue> pair : this.pairs.entrySet()) {
+      gen.writeFieldName(pair.getKey().getValue());
+      pair.getValue().writeJSON(gen);
+    } // for
+    gen.writeEndObject();
+    gen.written(this);
+  } // writeJSON(JSONGenerator)
+
+  /**
+   * Get the underlying value.
+   */
+  public Iterator<KVPair<JSONString, JSONValue>> getValue() {
+    return this.iterator();
+  } // getValue()
+
+  // +-------------------+-------------------------------------------
+  // | Hashtable methods |
+  // +-------------------+
+
+  /**
+   * Get the value for a particular key.
+   *
+   * @throws IndexOutOfBoundsException if there is no value for key
+   */
+  public JSONValue get(JSONString key) {
+    JSONValue value = this.pairs.get(key);
+    if (value == null) {
+      throw new IndexOutOfBoundsException("Invalid key: " + key);
+    } // if
+    return value;
+  } // get(JSONString)
+
+  /**
+   * Determine if there is a value for key.
+   */
+  public boolean containsKey(JSONString key) {
+    return this.pairs.containsKey(key);
+  } // containsKey(JSONString)
+
+  /**
+   * Get all of the key/value pairs. The iterator is weakly consistent.
+   */
+  public Iterator<KVPair<JSONString, JSONValue>> iterator() {
+    Iterator<Map.Entry<JSONString, JSONValue>> entries = this.pairs.entrySet().iterator();
+    return new Iterator<KVPair<JSONString, JSONValue>>() {
+      public boolean hasNext() {
+        return entries.hasNext();
+      } // hasNext()
+
+      public KVPair<JSONString, JSONValue> next() {
+        Map.Entry<JSONString, JSONValue> entry = entries.next();
+        return new KVPair<JSONString, JSONValue>(entry.getKey(), entry.getValue());
+      } // next()
+    }; // new Iterator
+  } // iterator()
+
+  /**
+   * Set a value associated with a key, replacing any value it had.
+   */
+  public void set(JSONString key, JSONValue value) {
+    this.pairs.put(key, value);
+    changed();
+  } // set(JSONString, JSONValue)
+
+  /**
+   * Set a value for key only if it has none, and get the value it ends
+   * up with.
+   */
+  public JSONValue setIfAbsent(JSONString key, JSONValue value) {
+    JSONValue old = this.pairs.putIfAbsent(key, value);
+    if (old != null) {
+      return old;
+    } // if
+    changed();
+    return value;
+  } // setIfAbsent(JSONString, JSONValue)
+
+  /**
+   * Remove the pair for key, if any, and get its value (or null).
+   */
+  public JSONValue remove(JSONString key) {
+    JSONValue old = this.pairs.remove(key);
+    if (old != null) {
+      changed();
+    } // if
+    return old;
+  } // remove(JSONString)
+
+  /**
+   * Find out how many key/value pairs are in the hash table. While other
+   * threads are changing the hash, this is only an estimate.
+   */
+  public int size() {
+    return this.pairs.size();
+  } // size()
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Drop any cached output of ours, and of whatever we are inside. This
+   * comes after the change, so output begun before it is dropped too.
+   */
+  void changed() {
+    if (this.cached != null || this.parent != null) {
+      JSONWriteCache.invalidate(this);
+    } // if
+  } // changed()
+} // class ConcurrentJSONHash
@@ -1,26 +1,42 @@
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.Reader;
-import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
-import javax.imageio.plugins.tiff.TIFFField;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Utilities for our simple implementation of JSON.
- * 
+ *
  * @author SamR (starter code)
  * @author Lydia Ye
  * @author Wenfei Lin
  */
 public class JSON {
-  // +---------------+-----------------------------------------------
-  // | Static fields |
-  // +---------------+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
 
   /**
-   * The current position in the input.
+   * How many batches we hand each worker thread in parseAll, so that
+   * one slow document does not leave the other threads idle.
    */
-  static int pos;
+  static final int BATCHES_PER_THREAD = 4;
 
   // +----------------+----------------------------------------------
   // | Static methods |
@@ -30,380 +46,276 @@ public class JSON {
    * Parse a string into JSON.
    */
   public static JSONValue parse(String source) throws ParseException, IOException {
-    return parse(new StringReader(source));
+    return new JSONParser(source).parse();
   } // parse(String)
 
   /**
-   * Parse a file into JSON.
+   * Parse a UTF-8 file into JSON.
    */
   public static JSONValue parseFile(String filename) throws ParseException, IOException {
-    FileReader reader = new FileReader(filename);
-    JSONValue result = parse(reader);
-    reader.close();
-    return result;
+    return parseFile(Paths.get(filename));
   } // parseFile(String)
 
+  /**
+   * Parse a UTF-8 file into JSON. The file is memory mapped and its bytes
+   * are parsed directly, so only the contents of strings get decoded.
+   */
+  public static JSONValue parseFile(Path path) throws ParseException, IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      return new JSONParser(new JSONUtf8Tokenizer(channel)).parse();
+    } finally {
+      channel.close();
+    } // try/finally
+  } // parseFile(Path)
+
+  /**
+   * Parse UTF-8 JSON from the remaining bytes of a heap or direct buffer.
+   * The buffer's position and limit are not changed.
+   */
+  public static JSONValue parse(ByteBuffer source) throws ParseException, IOException {
+    return new JSONParser(source).parse();
+  } // parse(ByteBuffer)
+
   /**
    * Parse JSON from a reader.
    */
   public static JSONValue parse(Reader source) throws ParseException, IOException {
-    pos = 0;
-    JSONValue result = parseKernel(source);
-    if (-1 != skipWhitespace(source)) {
-      throw new ParseException("Characters remain at end", pos);
-    }
-    return result;
+    return new JSONParser(source).parse();
   } // parse(Reader)
 
-  // +---------------+-----------------------------------------------
-  // | Local helpers |
-  // +---------------+
+  /**
+   * Parse a string into JSON, building only the parts that projection
+   * reaches (or null if it reaches nothing).
+   */
+  public static JSONValue parse(String source, JSONProjection projection)
+      throws ParseException, IOException {
+    return new JSONParser(source).parse(projection);
+  } // parse(String, JSONProjection)
 
   /**
-   * Determines if the inputted character is a number from 0-9.
-   * 
-   * @param input current char being read
-   * @return true if input is a number from 0-9
+   * Parse JSON from a reader, building only the parts that projection
+   * reaches (or null if it reaches nothing).
    */
-  private static boolean isNumber(int input) {
-    int num0InASCII = 48;
-    int num9InASCII = 57;
-    return num0InASCII <= input && num9InASCII >= input;
-  } // isNumber(int)
+  public static JSONValue parse(Reader source, JSONProjection projection)
+      throws ParseException, IOException {
+    return new JSONParser(source).parse(projection);
+  } // parse(Reader, JSONProjection)
 
   /**
-   * Adds the next characters read on the end of numStr as long 
-   * as they are digit characters.
-   * 
-   * @param numStr string with the value of the JSONReal or 
-   *               JSONInteger so far
-   * @param nextInput current char being read
-   * @param source reader
-   * @throws IOException I/O error (reading)
+   * Parse a string into JSON lazily. Hashes and arrays decode each child
+   * the first time it is read, so unread parts cost next to nothing.
    */
-  private static void nextNumbers(String numStr, int nextInput, Reader source) 
-      throws IOException {
-    do {
-      addAndIncrement(numStr, nextInput, source);
-    } while (isNumber(nextInput)); 
-  } // nextNumbers(String, int, Reader)
+  public static JSONValue parseLazy(String source) throws ParseException, IOException {
+    return JSONTape.parse(source);
+  } // parseLazy(String)
 
   /**
-   * Adds the next character read on the end of numStr if 
-   * the former is a digit character.
-   * 
-   * @param numStr string with the value of the JSONReal or 
-   *               JSONInteger so far
-   * @param nextInput current char being read
-   * @param source reader
-   * @return the next input
-   * @throws IOException I/O error (reading)
+   * Parse JSON from a reader lazily.
    */
-  private static int addAndIncrement(String numStr, int nextInput, Reader source) 
-      throws IOException {
-    numStr += (char) nextInput;
-    nextInput = skipWhitespace(source);
-    return nextInput;
-  } // addAndIncrement(String, int, Reader)
+  public static JSONValue parseLazy(Reader source) throws ParseException, IOException {
+    return JSONTape.parse(source);
+  } // parseLazy(Reader)
 
   /**
-   * Reads the input and determines if what is being read is a valid JSONReal 
-   * or JSONInteger and creates the corresponding JSONValue.
-   * 
-   * @param isPositive true if the number value is positive and false if not
-   * @param input current char being read
-   * @param source reader
-   * @return JSONValue parsed from reader
-   * @throws IOException I/O error (reading)
-   * @throws ParseException when end of file reached unexpectedly or 
-   *                        incorrect JSON value written in file
+   * Parse a string into an off-heap arena. Close the arena to free it.
    */
-  private static JSONValue readNum(boolean isPositive, int input, Reader source) 
-      throws IOException, ParseException {
-      
-    String numStr = "";
+  public static JSONArena parseArena(String source) throws ParseException, IOException {
+    return JSONArena.parse(source);
+  } // parseArena(String)
 
-    if (isPositive) {
-      numStr += (char) input;
-    } else {
-      numStr = "-" + (char) input;
-    } // if/else
-      
-    int nextInput = skipWhitespace(source);
-
-    while (isNumber(nextInput)) {
-      nextInput = addAndIncrement(numStr, nextInput, source);
-    } // while
-
-    if (nextInput == (int) 'e' || nextInput == (int) 'E' ) {
-      nextInput = addAndIncrement(numStr, nextInput, source);
-
-      if (nextInput == (int) '+' || nextInput == (int) '-') {
-        nextInput = addAndIncrement(numStr, nextInput, source);
-        
-        if (isNumber(nextInput)) {
-          nextNumbers(numStr, nextInput, source);
-        } else {
-          throw new ParseException("Invalid format for JSONReal", pos);
-        } // if...else
-      } else {
-        throw new ParseException("Invalid format for JSONReal", pos);
-      } // if
-
-      checkLeadingZero(isPositive, numStr);
-      return new JSONReal(numStr);
-    } else if (nextInput == (int) '.') {
-      nextInput = addAndIncrement(numStr, nextInput, source);
-      if (isNumber(nextInput)) {
-        nextNumbers(numStr, nextInput, source);
-
-        if (nextInput == (int) 'e' || nextInput == (int) 'E' ) {
-          nextInput = addAndIncrement(numStr, nextInput, source);
-
-          if (nextInput == (int) '+' || nextInput == (int) '-') {
-            nextInput = addAndIncrement(numStr, nextInput, source);
-
-            if (isNumber(nextInput)) {
-              nextNumbers(numStr, nextInput, source);
-            } else {
-              throw new ParseException("Invalid format for JSONReal", pos);
-            } // if...else
-          } else {
-            throw new ParseException("Invalid format for JSONReal", pos);
-          } // if/else
-        } // if
-      } else {
-        throw new ParseException("Invalid format for JSONReal", pos);
-      } // if...else
+  /**
+   * Parse a UTF-8 file into an off-heap arena, for documents too big (or
+   * too long-lived) to be worth keeping on the heap. Close the arena to
+   * free it.
+   */
+  public static JSONArena parseFileArena(Path path) throws ParseException, IOException {
+    return JSONArena.parseFile(path);
+  } // parseFileArena(Path)
+
+  /**
+   * Parse a string into persistent JSON, whose hashes and arrays are
+   * changed by making new versions that share structure with the old.
+   */
+  public static JSONValue parsePersistent(String source) throws ParseException, IOException {
+    return persistent(parse(source));
+  } // parsePersistent(String)
 
-      checkLeadingZero(isPositive, numStr);
-      return new JSONReal(numStr);
+  /**
+   * Get a persistent copy of a value, converting each hash and array in
+   * it. Strings, numbers, constants, and values that are already
+   * persistent are shared, not copied.
+   */
+  public static JSONValue persistent(JSONValue value) {
+    if (value instanceof JSONHash) {
+      PersistentJSONHash.Builder builder = PersistentJSONHash.builder();
+      Iterator<KVPair<JSONString, JSONValue>> it = ((JSONHash) value).iterator();
+      while (it.hasNext()) {
+        KVPair<JSONString, JSONValue> pair = it.next();
+        builder.set(pair.key(), persistent(pair.value()));
+      } // while
+      return builder.build();
+    } else if (value instanceof JSONArray) {
+      JSONArray arr = (JSONArray) value;
+      PersistentJSONArray.Builder builder = PersistentJSONArray.builder();
+      for (int i = 0; i < arr.size(); i++) {
+        builder.add(persistent(arr.get(i)));
+      } // for
+      return builder.build();
     } else {
-      checkLeadingZero(isPositive, numStr);
-      return new JSONInteger(numStr);
-    } // if...else      
-  } // readNum(boolean, int, Reader)
+      return value;
+    } // if...else
+  } // persistent(JSONValue)
 
   /**
-   * Checks that the input for JSONReal or JSONInteger does not having 
-   * leading zeroes when negative.
-   * 
-   * @param isPostive true if the number value is positive and false if not
-   * @param numStr the value of the JSONReal or JSONInteger as a string
-   * @throws ParseException when end of file reached unexpectedly or 
-   *                        incorrect JSON value written in file
+   * Write a value as JSON to a Writer, flushing it once at the end. The
+   * Writer is not closed.
    */
-  private static void checkLeadingZero(boolean isPostive, String numStr) 
-      throws ParseException {
-    if (!isPostive) {
-      if ((numStr.length() > 2) && 
-          (numStr.substring(1,3).equals("00"))) { 
-        throw new ParseException("Invalid format for JSONReal at postion " + 
-            (pos - (numStr.length() - 3)), pos - (numStr.length() -2));
-      } // if
-    } // if
-  } // checkLeadingZero(boolean, String)
+  public static void write(JSONValue value, Writer out) throws IOException {
+    JSONGenerator gen = new JSONWriterGenerator(out);
+    value.writeJSON(gen);
+    gen.flush();
+  } // write(JSONValue, Writer)
 
   /**
-   * Reads the input and determines if what is being read is a 
-   * valid JSONConstant and creates it.
-   * 
-   * @param nextInput current char being read
-   * @param booleanStr "true", "false", or "null"
-   * @param source reader
-   * @return the JSONValue (JSONConstant) written in the file
-   * @throws ParseException when end of file reached unexpectedly or 
-   *                        incorrect JSON value written in file
-   * @throws IOException I/O problem when reading
+   * Write a value as UTF-8 JSON to a stream, flushing it once at the end.
+   * The stream is not closed.
    */
-  private static JSONConstant matchJSONConstant(
-        int nextInput, 
-        String booleanStr, 
-        Reader source) throws IOException, ParseException {
-    for (int i = 1; i < booleanStr.length(); i++) {
-      nextInput = skipWhitespace(source);
-      if (nextInput != (int) booleanStr.charAt(i)) {
-        throw new ParseException("Incorrectly written JSONConstant", pos);
-      } // if
-    } // for
+  public static void write(JSONValue value, OutputStream out) throws IOException {
+    JSONGenerator gen = new JSONUtf8Generator(out);
+    value.writeJSON(gen);
+    gen.flush();
+  } // write(JSONValue, OutputStream)
 
-    return new JSONConstant(booleanStr);
-  } // matchJSONConstant(int, String, Reader)
+  /**
+   * Write a value as UTF-8 JSON into a buffer, from its position on.
+   *
+   * @throws java.nio.BufferOverflowException if the buffer fills up
+   */
+  public static void write(JSONValue value, ByteBuffer out) throws IOException {
+    JSONGenerator gen = new JSONUtf8Generator(out);
+    value.writeJSON(gen);
+    gen.flush();
+  } // write(JSONValue, ByteBuffer)
 
   /**
-   * Reads the input and determines if what is being read is a 
-   * valid JSONString and creates it.
-   * 
-   * @param nextInput current char being read
-   * @param source reader
-   * @return the JSONValue (JSONString) written in the file
-   * @throws ParseException when end of file reached unexpectedly or 
-   *                        incorrect JSON value written in file
-   * @throws IOException I/O problem when reading
+   * Write a value as UTF-8 JSON to a stream, copying the output of the
+   * parts that have not changed since they were last written this way
+   * from JSONWriteCache.DEFAULT. The stream is flushed but not closed.
    */
-  private static JSONString matchJSONString(int nextInput, Reader source) 
-      throws IOException, ParseException {
-    String strForJSONString = "";
-    nextInput = skipWhitespace(source);
-    
-    while (nextInput != (int) '"') {
-      checkEOF(nextInput);
-      strForJSONString += (char) nextInput;
-      nextInput = skipWhitespace(source);
-    } // while
-    return new JSONString(strForJSONString);
-  } // matchJSONString(int, Reader)
+  public static void writeCached(JSONValue value, OutputStream out) throws IOException {
+    writeCached(value, out, JSONWriteCache.DEFAULT);
+  } // writeCached(JSONValue, OutputStream)
 
   /**
-   * Reads the input and determines if what is being read is a 
-   * valid JSONArray and creates it.
-   * 
-   * @param input current char being read
-   * @param source reader
-   * @return the JSONValue (JSONArray) written in the file
-   * @throws ParseException when end of file reached unexpectedly 
-   *                        or incorrect JSON value written in file
-   * @throws IOException I/O problem when reading
+   * Write a value as UTF-8 JSON to a stream, copying the output of the
+   * parts that have not changed since they were last written this way
+   * from cache. The stream is flushed but not closed.
    */
-  private static JSONArray matchJSONArray(int input, Reader source) 
-      throws ParseException, IOException {
-    JSONArray arr = new JSONArray();
-       
-    while (input != (int) ']') {
-      checkEOF(input);
-
-      arr.add(parseKernel(source));
-      input = skipWhitespace(source);
-      
-      if (input != (int) ',') {
-        if (input == (int) ']') {
-          return arr;
-        } // if
-        throw new ParseException("Invalid format for JSONArray", pos);
-      } // if
-    } // while
-
-    return arr;
-  } // matchJSONArray(int, Reader)
+  public static void writeCached(JSONValue value, OutputStream out, JSONWriteCache cache)
+      throws IOException {
+    JSONGenerator gen = new JSONUtf8Generator(out, cache);
+    value.writeJSON(gen);
+    gen.flush();
+  } // writeCached(JSONValue, OutputStream, JSONWriteCache)
 
   /**
-   * Reads the input and determines if what is being read is a 
-   * valid JSONHash and creates it.
-   * 
-   * @param input current char being read
-   * @param source reader
-   * @return the JSONValue (JSONHash) written in the file
-   * @throws ParseException when end of file reached unexpectedly or 
-   *                        incorrect JSON value written in file
-   * @throws IOException I/O problem when reading
+   * Get the JSON text for a value.
    */
-  private static JSONHash matchJSONHash(int input, Reader source) 
-      throws ParseException, IOException {
-    JSONHash hashtable = new JSONHash();
-
-    while (input != (int) '}') {
-      JSONValue key = parseKernel(source);
-      if (!(key instanceof JSONString)) {
-        throw new ParseException("Invalid key for JSONHash", pos);
-      } // if
-
-      input = skipWhitespace(source);
-      if (input != ':') {
-        throw new ParseException("Invalid format for JSONHash", pos);
-      } // if
-      
-      JSONValue value = parseKernel(source);
-      hashtable.set((JSONString) key, value);
-      input = skipWhitespace(source);
-
-      if (input != (int) ',') {
-        if (input == (int) '}') {
-          return hashtable;
-        } // if 
-        throw new ParseException("Invalid format for JSONHash", pos);
-      } // if
-    } // while
-    return hashtable;
-  } // matchJSONHash(int, Reader)
+  public static String toJSON(JSONValue value) {
+    StringWriter out = new StringWriter();
+    try {
+      write(value, out);
+    } catch (IOException e) {
+      // A StringWriter never fails
+      throw new IllegalStateException(e);
+    } // try/catch
+    return out.toString();
+  } // toJSON(JSONValue)
+
+  /**
+   * Encode a value in binary (see JSONBinary) into a buffer, from its
+   * position on.
+   *
+   * @throws java.nio.BufferOverflowException if the buffer fills up
+   */
+  public static void writeBinary(JSONValue value, ByteBuffer out) {
+    JSONBinary.encode(value, out);
+  } // writeBinary(JSONValue, ByteBuffer)
 
   /**
-   * Parse JSON from a reader, keeping track of the current position.
+   * Decode a value written by writeBinary, from the buffer's position on.
    */
-  static JSONValue parseKernel(Reader source) throws ParseException, IOException {
-    int ch;
-    ch = skipWhitespace(source);
-    checkEOF(ch);
- 
-    int input = ch;
-    int nextInput = -1;
-
-    // Read postive integer/real
-    if (isNumber(input)) {
-      return readNum(true, input, source);
-    } // if
-
-    // Read negative integer/real
-    if (input == '-') {
-      input = skipWhitespace(source);
-      if (isNumber(input)) {
-        return readNum(false, input, source);
-      } // if
-    } // if
-
-    switch (input) {
-      // JSON String
-      case (int) '"':
-        return matchJSONString(nextInput, source);
-
-      // JSON Hash (Object)
-      case (int) '{': 
-        // Doesn't work for empty hashes
-        return matchJSONHash(input, source);
-
-      // JSON Array 
-      case (int) '[': 
-        // Doesn't work for empty arrs
-        return matchJSONArray(input, source);
-
-      // JSON Constants: (true, false, null)
-      case ((int) 't'):
-        return matchJSONConstant(nextInput, "true", source);
-        
-      case ((int) 'f'):
-        return matchJSONConstant(nextInput, "false", source);
-
-      case ((int) 'n'):
-        return matchJSONConstant(nextInput, "null", source);
-
-      default:
-        throw new ParseException("Invalid initial character", pos);
-    } // switch
-  } // parseKernel(Reader)
+  public static JSONValue parseBinary(ByteBuffer source) throws ParseException {
+    return JSONBinary.decode(source);
+  } // parseBinary(ByteBuffer)
 
   /**
-   * Checks to make sure the end of the file hasn't been reached
-   * unexpectedly and if it did, throws an exception.
-   * 
-   * @param ch current input being read
-   * @throws ParseException when end of file is reached unexpectedly
+   * Parse many strings into JSON, spreading the work over the common
+   * fork/join pool.
    */
-  private static void checkEOF(int ch) throws ParseException {
-    if (-1 == ch) {
-      throw new ParseException("Unexpected end of file", pos);
-    } // if
-  } // checkEOF(int)
+  public static List<JSONValue> parseAll(List<String> sources)
+      throws ParseException, IOException {
+    return parseAll(sources, ForkJoinPool.commonPool());
+  } // parseAll(List<String>)
 
   /**
-   * Get the next character from source, skipping over whitespace.
+   * Parse many strings into JSON, spreading the work over executor.
+   * The results are in the same order as the sources.
+   *
+   * @param sources the strings to parse
+   * @param executor the executor that runs the parsers
+   * @return the parsed values, one per source
+   * @throws ParseException when any of the sources is invalid JSON
+   * @throws IOException when interrupted while waiting for the results
    */
-  static int skipWhitespace(Reader source) throws IOException {
-    int ch;
-    do {
-      ch = source.read();
-      ++pos;
-    } while (isWhitespace(ch));
-    return ch;
-  } // skipWhitespace(Reader)
+  public static List<JSONValue> parseAll(List<String> sources, ExecutorService executor)
+      throws ParseException, IOException {
+    int threads = (executor instanceof ForkJoinPool)
+        ? ((ForkJoinPool) executor).getParallelism()
+        : Runtime.getRuntime().availableProcessors();
+    int batches = Math.min(sources.size(), threads * BATCHES_PER_THREAD);
+    JSONValue[] results = new JSONValue[sources.size()];
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(batches);
+
+    // Split the sources into contiguous batches of roughly equal size
+    for (int b = 0; b < batches; b++) {
+      int lo = (int) ((long) sources.size() * b / batches);
+      int hi = (int) ((long) sources.size() * (b + 1) / batches);
+      tasks.add(() -> {
+        for (int i = lo; i < hi; i++) {
+          results[i] = new JSONParser(sources.get(i)).parse();
+        } // for
+        return null;
+      });
+    } // for
+
+    try {
+      for (Future<Void> future : executor.invokeAll(tasks)) {
+        future.get();
+      } // for
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while parsing");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof ParseException) {
+        throw (ParseException) cause;
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else {
+        throw new IOException(cause);
+      } // if...else
+    } // try/catch
+
+    return Arrays.asList(results);
+  } // parseAll(List<String>, ExecutorService)
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
 
   /**
    * Determine if a character is JSON whitespace (newline, carriage return,
@@ -413,4 +325,4 @@ public class JSON {
     return (' ' == ch) || ('\n' == ch) || ('\r' == ch) || ('\t' == ch);
   } // isWhiteSpace(int)
 
-} // class JSON
\ No newline at end of file
+} // class JSON
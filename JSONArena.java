@@ -0,0 +1,985 @@
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A parsed document kept outside the Java heap. Parsing writes each value
+ * as a compact node in off-heap memory, and the values are read back in
+ * place through JSONArenaValue facades, which hold nothing but the arena
+ * and an address. A document of any size thus puts only a handful of
+ * objects on the heap, and the garbage collector never has to trace it.
+ * Closing the arena frees the memory at once; no value from it may be
+ * used afterwards.
+ *
+ * Every node starts with a tag byte, followed by
+ * <ul>
+ * <li>nothing, for NULL, FALSE, and TRUE;</li>
+ * <li>the integer in 1, 2, 4, or 8 bytes, for INT8, INT16, INT32, and
+ * INTEGER, and the real in 4 or 8, for FLOAT (when a float holds it
+ * exactly) and REAL;</li>
+ * <li>a varint length and that many bytes of UTF-8, for STRING and for
+ * numbers too big for a long or double (BIG_INTEGER, BIG_REAL);</li>
+ * <li>a byte of widths and a 4-byte count, for ARRAY and HASH. The
+ * children come before the node, so it is written once they are done,
+ * and a table follows: for each element, its distance back from the
+ * node; for each pair, the number of its key and the distance back to
+ * its value. Each container uses the fewest bytes its largest distance
+ * and key number need. An array of numbers, constants or strings that
+ * all take (or can be widened to take) the same room keeps just that
+ * stride instead of a table, when that is smaller.</li>
+ * </ul>
+ * Each distinct key is stored once per arena, as a STRING node that a key
+ * table (hash code and address, by number) points to, so the keys of an
+ * array of records cost a byte or two each.
+ *
+ * Addresses are longs: the top bits pick one of the segments, each at
+ * most SEGMENT_SIZE bytes, and a node never straddles two. A new segment
+ * is added when one fills up, so nothing is ever copied to grow, and an
+ * arena can hold a document of any size that fits in memory, as long as
+ * no single string or table needs more than a segment.
+ *
+ * An arena may be read by many threads at once, but must not be closed
+ * while any of them is still reading it.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONArena implements AutoCloseable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The tags of the nodes.
+   */
+  static final byte NULL = 0;
+  static final byte FALSE = 1;
+  static final byte TRUE = 2;
+  static final byte INT8 = 3;
+  static final byte INT16 = 4;
+  static final byte INT32 = 5;
+  static final byte INTEGER = 6;
+  static final byte FLOAT = 7;
+  static final byte REAL = 8;
+  static final byte BIG_INTEGER = 9;
+  static final byte BIG_REAL = 10;
+  static final byte STRING = 11;
+  static final byte ARRAY = 12;
+  static final byte HASH = 13;
+
+  /**
+   * The size of the node of an array or hash, before its table: the
+   * tag, the widths, and the count.
+   */
+  static final int HEADER = 6;
+
+  /**
+   * The bits of an address that give the offset in its segment.
+   */
+  static final int SEGMENT_BITS = 30;
+
+  /**
+   * The most bytes a segment may hold.
+   */
+  static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+  /**
+   * The fewest bytes we give a segment.
+   */
+  static final int INITIAL_SIZE = 1 << 16;
+
+  /**
+   * The size of an entry of the key table: the hash code of the key and
+   * the address of its text.
+   */
+  static final int KEY_ENTRY = 12;
+
+  /**
+   * The most keys an arena may have.
+   */
+  static final int MAX_KEYS = (Integer.MAX_VALUE - 8) / KEY_ENTRY;
+
+  /**
+   * The most distinct keys we look for again while parsing. Keys first
+   * seen after that many are stored once per use, so that a document
+   * with millions of different keys does not fill the heap with them.
+   */
+  static final int MAX_SHARED_KEYS = 1 << 16;
+
+  /**
+   * The JDK's Unsafe, which can free a direct buffer right away, or null
+   * if we cannot get at it (and leave the buffer to the collector).
+   */
+  static final Object UNSAFE = findUnsafe();
+
+  /**
+   * Unsafe.invokeCleaner, or null.
+   */
+  static final Method INVOKE_CLEANER = findCleaner();
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The segments that hold the nodes, or null once the arena is closed.
+   */
+  volatile ByteBuffer[] segments;
+
+  /**
+   * The key table.
+   */
+  ByteBuffer keys;
+
+  /**
+   * The number of keys in the table.
+   */
+  int keyCount;
+
+  /**
+   * The address of the node of the whole document.
+   */
+  long root;
+
+  /**
+   * The number of bytes the nodes and key table use.
+   */
+  long size;
+
+  /**
+   * While parsing, the segment we are writing.
+   */
+  int current;
+
+  /**
+   * While parsing, the address of the next free byte.
+   */
+  long used;
+
+  /**
+   * While parsing, the bytes given to segments so far.
+   */
+  long allocated;
+
+  /**
+   * While parsing, how many bytes we guess the nodes will need.
+   */
+  long guess;
+
+  /**
+   * While parsing, the addresses of the children (and the numbers of
+   * the keys) of the containers still open, innermost last, as longs.
+   * They are off the heap too, since a big document's outermost array
+   * may have hundreds of millions of elements.
+   */
+  ByteBuffer pending;
+
+  /**
+   * The number of entries in pending.
+   */
+  int pendingLen;
+
+  /**
+   * While parsing, the numbers of the keys seen so far.
+   */
+  HashMap<String, Integer> keyNumbers;
+
+  /**
+   * While parsing, where the text comes from.
+   */
+  JSONTokenizer tokens;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Parse the text from tokens into a new arena, guessing that the nodes
+   * need about guess bytes.
+   */
+  JSONArena(JSONTokenizer tokens, long guess) throws ParseException, IOException {
+    this.segments = new ByteBuffer[4];
+    this.keys = ByteBuffer.allocateDirect(64 * KEY_ENTRY).order(ByteOrder.nativeOrder());
+    this.keyCount = 0;
+    this.size = 0;
+    this.current = -1;
+    this.allocated = 0;
+    this.guess = guess;
+    this.pending = ByteBuffer.allocateDirect(64 * 8).order(ByteOrder.nativeOrder());
+    this.pendingLen = 0;
+    this.keyNumbers = new HashMap<String, Integer>();
+    this.tokens = tokens;
+    try {
+      newSegment(0);
+      this.root = writeValue(tokens.skipWhitespace());
+      if (-1 != tokens.skipWhitespace()) {
+        throw new ParseException("Characters remain at end", tokens.position() - 1);
+      } // if
+    } catch (ParseException | IOException | RuntimeException e) {
+      free(this.pending);
+      this.close();
+      throw e;
+    } // try/catch
+    this.size += (long) KEY_ENTRY * this.keyCount;
+    free(this.pending);
+    this.pending = null;
+    this.keyNumbers = null;
+    this.tokens = null;
+    // Publish the finished nodes to whoever reads them
+    this.segments = Arrays.copyOf(this.segments, this.current + 1);
+  } // JSONArena(JSONTokenizer, long)
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Parse a string into a new arena.
+   */
+  public static JSONArena parse(String source) throws ParseException, IOException {
+    return new JSONArena(new JSONReaderTokenizer(source.toCharArray(), 0, source.length()),
+        guessSize(source.length()));
+  } // parse(String)
+
+  /**
+   * Parse UTF-8 JSON from the remaining bytes of a buffer into a new
+   * arena. The buffer's position and limit are not changed.
+   */
+  public static JSONArena parse(ByteBuffer source) throws ParseException, IOException {
+    return new JSONArena(new JSONUtf8Tokenizer(source), guessSize(source.remaining()));
+  } // parse(ByteBuffer)
+
+  /**
+   * Parse a UTF-8 file into a new arena. The file is memory mapped, so
+   * neither its text nor its values pass through the heap.
+   */
+  public static JSONArena parseFile(Path path) throws ParseException, IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      return new JSONArena(new JSONUtf8Tokenizer(channel), guessSize(channel.size()));
+    } finally {
+      channel.close();
+    } // try/finally
+  } // parseFile(Path)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the value of the whole document.
+   */
+  public JSONArenaValue root() {
+    memory();
+    return new JSONArenaValue(this, this.root);
+  } // root()
+
+  /**
+   * Find out how many bytes of memory the document takes.
+   */
+  public long bytes() {
+    return this.size;
+  } // bytes()
+
+  /**
+   * Determine if the arena can still be read.
+   */
+  public boolean isOpen() {
+    return this.segments != null;
+  } // isOpen()
+
+  /**
+   * Free the memory. Closing an arena twice does nothing.
+   */
+  public void close() {
+    ByteBuffer[] buffers = this.segments;
+    this.segments = null;
+    if (buffers != null) {
+      for (ByteBuffer buffer : buffers) {
+        if (buffer != null) {
+          free(buffer);
+        } // if
+      } // for
+      free(this.keys);
+    } // if
+  } // close()
+
+  // +-------------+-------------------------------------------------
+  // | Node access |
+  // +-------------+
+
+  /**
+   * Get the segments, making sure the arena is still open.
+   */
+  ByteBuffer[] memory() {
+    ByteBuffer[] buffers = this.segments;
+    if (buffers == null) {
+      throw new IllegalStateException("Arena is closed");
+    } // if
+    return buffers;
+  } // memory()
+
+  /**
+   * Get the segment that holds address at.
+   */
+  ByteBuffer segment(long at) {
+    return memory()[(int) (at >>> SEGMENT_BITS)];
+  } // segment(long)
+
+  /**
+   * Get the tag of the node at at.
+   */
+  byte tag(long at) {
+    return segment(at).get(offset(at));
+  } // tag(long)
+
+  /**
+   * Get the number of elements (or pairs) of the container at at.
+   */
+  int count(long at) {
+    return segment(at).getInt(offset(at) + 2);
+  } // count(long)
+
+  /**
+   * Get the integer of the INT8, INT16, INT32, or INTEGER node at at.
+   */
+  long integerAt(long at) {
+    return integerAt(segment(at), offset(at));
+  } // integerAt(long)
+
+  /**
+   * Get the real of the FLOAT or REAL node at at.
+   */
+  double realAt(long at) {
+    ByteBuffer segment = segment(at);
+    int off = offset(at);
+    return (segment.get(off) == FLOAT) ? segment.getFloat(off + 1) : segment.getDouble(off + 1);
+  } // realAt(long)
+
+  /**
+   * Get the text of the string (or big number) node at at.
+   */
+  String textAt(long at) {
+    ByteBuffer segment = segment(at);
+    int off = offset(at) + 1;
+    int len = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = segment.get(off++);
+      len |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        break;
+      } // if
+    } // for
+    byte[] bytes = new byte[len];
+    segment.get(off, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  } // textAt(long)
+
+  /**
+   * Get the address of element index of the array at at.
+   */
+  long element(long at, int index) {
+    ByteBuffer segment = segment(at);
+    int off = offset(at);
+    int width = segment.get(off + 1);
+    if (width == 0) {
+      // Elements one after another, just before the node
+      int stride = segment.get(off + 6) & 0xFF;
+      return at - (long) (segment.getInt(off + 2) - index) * stride;
+    } // if
+    return at - unsigned(segment, off + HEADER + index * width, width);
+  } // element(long, int)
+
+  /**
+   * Get the number of the key of pair field of the hash at at.
+   */
+  int keyNumber(long at, int field) {
+    ByteBuffer segment = segment(at);
+    int off = offset(at);
+    int widths = segment.get(off + 1);
+    int keyWidth = widths >>> 4;
+    int entry = off + HEADER + field * (keyWidth + (widths & 0xF));
+    return (int) unsigned(segment, entry, keyWidth);
+  } // keyNumber(long, int)
+
+  /**
+   * Get the address of the value of pair field of the hash at at.
+   */
+  long value(long at, int field) {
+    ByteBuffer segment = segment(at);
+    int off = offset(at);
+    int widths = segment.get(off + 1);
+    int keyWidth = widths >>> 4;
+    int valueWidth = widths & 0xF;
+    int entry = off + HEADER + field * (keyWidth + valueWidth);
+    return at - unsigned(segment, entry + keyWidth, valueWidth);
+  } // value(long, int)
+
+  /**
+   * Get the hash code of key number key.
+   */
+  int keyHash(int key) {
+    memory();
+    return this.keys.getInt(KEY_ENTRY * key);
+  } // keyHash(int)
+
+  /**
+   * Get the text of key number key.
+   */
+  String keyText(int key) {
+    memory();
+    return textAt(this.keys.getLong(KEY_ENTRY * key + 4));
+  } // keyText(int)
+
+  /**
+   * Get the offset of address at in its segment.
+   */
+  static int offset(long at) {
+    return (int) at & (SEGMENT_SIZE - 1);
+  } // offset(long)
+
+  /**
+   * Get the unsigned number of width bytes at off in segment.
+   */
+  static long unsigned(ByteBuffer segment, int off, int width) {
+    switch (width) {
+      case 1:
+        return segment.get(off) & 0xFFL;
+      case 2:
+        return segment.getShort(off) & 0xFFFFL;
+      case 4:
+        return segment.getInt(off) & 0xFFFFFFFFL;
+      default:
+        return segment.getLong(off);
+    } // switch
+  } // unsigned(ByteBuffer, int, int)
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Write a value whose first character has been read, and return the
+   * address of its node.
+   */
+  long writeValue(int ch) throws ParseException, IOException {
+    switch (ch) {
+      case '"':
+        return writeText(STRING, this.tokens.readString());
+      case '{':
+        return writeHash();
+      case '[':
+        return writeArray();
+      case 't':
+        this.tokens.readLiteral("true");
+        return writeConstant(TRUE);
+      case 'f':
+        this.tokens.readLiteral("false");
+        return writeConstant(FALSE);
+      case 'n':
+        this.tokens.readLiteral("null");
+        return writeConstant(NULL);
+      case '-':
+      case '0': case '1': case '2': case '3': case '4':
+      case '5': case '6': case '7': case '8': case '9':
+        return writeNumber(this.tokens.readNumber(ch));
+      case -1:
+        throw new ParseException("Unexpected end of file", this.tokens.position());
+      default:
+        throw new ParseException("Invalid initial character", this.tokens.position() - 1);
+    } // switch
+  } // writeValue(int)
+
+  /**
+   * Write true, false or null.
+   */
+  long writeConstant(byte tag) throws ParseException {
+    long at = claim(1);
+    this.segments[this.current].put(offset(at), tag);
+    return at;
+  } // writeConstant(byte)
+
+  /**
+   * Write a number in as few bytes as hold it, as text if it is too big
+   * for a long or double.
+   */
+  long writeNumber(JSONValue number) throws ParseException {
+    if (number instanceof JSONInteger && ((JSONInteger) number).big == null) {
+      long value = ((JSONInteger) number).value;
+      byte tag = (value == (byte) value) ? INT8
+          : (value == (short) value) ? INT16
+          : (value == (int) value) ? INT32
+          : INTEGER;
+      long at = claim(nodeSize(tag));
+      putInteger(this.segments[this.current], offset(at), tag, value);
+      return at;
+    } else if (number instanceof JSONReal && ((JSONReal) number).big == null) {
+      double value = ((JSONReal) number).value;
+      byte tag = ((float) value == value) ? FLOAT : REAL;
+      long at = claim(nodeSize(tag));
+      putReal(this.segments[this.current], offset(at), tag, value);
+      return at;
+    } else {
+      return writeText((number instanceof JSONInteger) ? BIG_INTEGER : BIG_REAL,
+          number.toString());
+    } // if...else
+  } // writeNumber(JSONValue)
+
+  /**
+   * Write a node that holds text.
+   */
+  long writeText(byte tag, String text) throws ParseException {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > SEGMENT_SIZE - 6) {
+      throw new ParseException("String too large for an arena", this.tokens.position());
+    } // if
+    int varint = 1;
+    for (int len = bytes.length; len >= 0x80; len >>>= 7) {
+      varint++;
+    } // for
+    long at = claim(1 + varint + bytes.length);
+    ByteBuffer segment = this.segments[this.current];
+    int off = offset(at);
+    segment.put(off++, tag);
+    for (int len = bytes.length; ; len >>>= 7) {
+      if (len < 0x80) {
+        segment.put(off++, (byte) len);
+        break;
+      } // if
+      segment.put(off++, (byte) (len | 0x80));
+    } // for
+    segment.put(off, bytes);
+    return at;
+  } // writeText(byte, String)
+
+  /**
+   * Write an array whose bracket has been read.
+   */
+  long writeArray() throws ParseException, IOException {
+    int mark = this.pendingLen;
+    if (this.tokens.peek() == ']') {
+      this.tokens.skipWhitespace();
+    } else {
+      int input;
+      do {
+        push(writeValue(this.tokens.skipWhitespace()));
+        input = this.tokens.skipWhitespace();
+      } while (input == ',');
+      if (input != ']') {
+        throw error(input, "Invalid format for JSONArray");
+      } // if
+    } // if/else
+
+    int count = this.pendingLen - mark;
+    long at = (count > 0) ? writeRun(mark, count) : -1;
+    if (at < 0) {
+      long first = (count > 0) ? pendingAt(mark) : this.used;
+      int width = width(placeFor(HEADER + 8L * count) - first);
+      at = claim(HEADER + (long) count * width);
+      ByteBuffer segment = this.segments[this.current];
+      int off = offset(at);
+      segment.put(off, ARRAY).put(off + 1, (byte) width).putInt(off + 2, count);
+      for (int i = 0; i < count; i++) {
+        putUnsigned(segment, off + HEADER + i * width, width, at - pendingAt(mark + i));
+      } // for
+    } // if
+    this.pendingLen = mark;
+    return at;
+  } // writeArray()
+
+  /**
+   * Write a hash whose brace has been read.
+   */
+  long writeHash() throws ParseException, IOException {
+    int mark = this.pendingLen;
+    if (this.tokens.peek() == '}') {
+      this.tokens.skipWhitespace();
+    } else {
+      int input;
+      do {
+        input = this.tokens.skipWhitespace();
+        if (input != '"') {
+          throw error(input, "Invalid key for JSONHash");
+        } // if
+        push(keyNumber(this.tokens.readString()));
+
+        input = this.tokens.skipWhitespace();
+        if (input != ':') {
+          throw error(input, "Invalid format for JSONHash");
+        } // if
+        push(writeValue(this.tokens.skipWhitespace()));
+        input = this.tokens.skipWhitespace();
+      } while (input == ',');
+      if (input != '}') {
+        throw error(input, "Invalid format for JSONHash");
+      } // if
+    } // if/else
+
+    int count = (this.pendingLen - mark) / 2;
+    long lastKey = 0;
+    for (int i = 0; i < count; i++) {
+      lastKey = Math.max(lastKey, pendingAt(mark + 2 * i));
+    } // for
+    int keyWidth = width(lastKey);
+    long first = (count > 0) ? pendingAt(mark + 1) : this.used;
+    int valueWidth = width(placeFor(HEADER + 12L * count) - first);
+    int entry = keyWidth + valueWidth;
+    long at = claim(HEADER + (long) count * entry);
+    ByteBuffer segment = this.segments[this.current];
+    int off = offset(at);
+    segment.put(off, HASH).put(off + 1, (byte) (keyWidth << 4 | valueWidth)).putInt(off + 2, count);
+    for (int i = 0; i < count; i++) {
+      int e = off + HEADER + i * entry;
+      putUnsigned(segment, e, keyWidth, pendingAt(mark + 2 * i));
+      putUnsigned(segment, e + keyWidth, valueWidth, at - pendingAt(mark + 2 * i + 1));
+    } // for
+    this.pendingLen = mark;
+    return at;
+  } // writeHash()
+
+  /**
+   * Write the node of an array whose elements, pending[mark..], are all
+   * scalars laid out one after another in the current segment, as a run
+   * of equal strides, widening integers or reals that are narrower than
+   * the rest. Returns its address, or -1 (writing nothing) if the
+   * elements are not such a run or a table would take less room.
+   */
+  long writeRun(int mark, int count) throws ParseException {
+    ByteBuffer segment = this.segments[this.current];
+    long first = pendingAt(mark);
+    if ((first >>> SEGMENT_BITS) != this.current) {
+      return -1;
+    } // if
+    int stride = 0;
+    boolean same = true;
+    int kind = -1;
+    long sum = 0;
+    for (int i = 0; i < count; i++) {
+      long at = pendingAt(mark + i);
+      byte tag = segment.get(offset(at));
+      if (tag == ARRAY || tag == HASH) {
+        return -1;
+      } // if
+      int size = (int) (((i + 1 < count) ? pendingAt(mark + i + 1) : this.used) - at);
+      same &= (i == 0 || size == stride);
+      stride = Math.max(stride, size);
+      // Integers can be widened to each other, and so can reals
+      byte group = (tag >= INT8 && tag <= INTEGER) ? INTEGER
+          : (tag == FLOAT || tag == REAL) ? REAL
+          : tag;
+      if (i == 0) {
+        kind = group;
+      } else if (group != kind) {
+        kind = -1;
+      } // if/else
+      sum += size;
+    } // for
+    if (stride > 0xFF || (!same && kind != INTEGER && kind != REAL)) {
+      return -1;
+    } // if
+
+    // Widening costs the difference in size; a table costs its slots
+    long extra = (long) count * stride - sum;
+    long table = (long) count * width(this.used + extra + HEADER - first);
+    if (extra + 1 > table || !fits(extra + HEADER + 1)) {
+      return -1;
+    } // if
+    if (extra > 0) {
+      // Move the elements up, the last first, so none is overwritten
+      // before it is read
+      for (int i = count - 1; i >= 0; i--) {
+        int from = offset(pendingAt(mark + i));
+        int to = offset(first) + i * stride;
+        if (kind == INTEGER) {
+          putInteger(segment, to, nodeTag(stride, INT8, INTEGER), integerAt(segment, from));
+        } else {
+          putReal(segment, to, REAL, (segment.get(from) == FLOAT)
+              ? segment.getFloat(from + 1)
+              : segment.getDouble(from + 1));
+        } // if/else
+      } // for
+      this.used += extra;
+      this.size += extra;
+    } // if
+    long at = claim(HEADER + 1);
+    int off = offset(at);
+    segment.put(off, ARRAY).put(off + 1, (byte) 0).putInt(off + 2, count);
+    segment.put(off + HEADER, (byte) stride);
+    return at;
+  } // writeRun(int, int)
+
+  /**
+   * Get the number of key, adding it to the key table if it is new.
+   */
+  int keyNumber(String key) throws ParseException {
+    Integer known = this.keyNumbers.get(key);
+    if (known != null) {
+      return known;
+    } // if
+    if (this.keyCount == MAX_KEYS) {
+      throw new ParseException("Too many keys for an arena", this.tokens.position());
+    } // if
+    long at = writeText(STRING, key);
+    if (KEY_ENTRY * (this.keyCount + 1) > this.keys.capacity()) {
+      int capacity = (int) Math.min((long) KEY_ENTRY * MAX_KEYS, 2L * this.keys.capacity());
+      ByteBuffer bigger = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+      bigger.put(0, this.keys, 0, KEY_ENTRY * this.keyCount);
+      free(this.keys);
+      this.keys = bigger;
+    } // if
+    this.keys.putInt(KEY_ENTRY * this.keyCount, key.hashCode())
+        .putLong(KEY_ENTRY * this.keyCount + 4, at);
+    if (this.keyNumbers.size() < MAX_SHARED_KEYS) {
+      this.keyNumbers.put(key, this.keyCount);
+    } // if
+    return this.keyCount++;
+  } // keyNumber(String)
+
+  /**
+   * Add an entry to pending.
+   */
+  void push(long entry) throws ParseException {
+    if (8 * (this.pendingLen + 1L) > this.pending.capacity()) {
+      long capacity = Math.min(Integer.MAX_VALUE - 7, 2L * this.pending.capacity());
+      if (capacity == this.pending.capacity()) {
+        throw new ParseException("Too many values open in an arena", this.tokens.position());
+      } // if
+      ByteBuffer bigger = ByteBuffer.allocateDirect((int) capacity).order(ByteOrder.nativeOrder());
+      bigger.put(0, this.pending, 0, 8 * this.pendingLen);
+      free(this.pending);
+      this.pending = bigger;
+    } // if
+    this.pending.putLong(8 * this.pendingLen++, entry);
+  } // push(long)
+
+  /**
+   * Get entry i of pending.
+   */
+  long pendingAt(int i) {
+    return this.pending.getLong(8 * i);
+  } // pendingAt(int)
+
+  /**
+   * Determine if n more bytes fit in the current segment.
+   */
+  boolean fits(long n) {
+    long offset = this.used - ((long) this.current << SEGMENT_BITS);
+    return offset + n <= this.segments[this.current].capacity();
+  } // fits(long)
+
+  /**
+   * Find where a node of at most n bytes would go.
+   */
+  long placeFor(long n) {
+    return fits(n) ? this.used : (long) (this.current + 1) << SEGMENT_BITS;
+  } // placeFor(long)
+
+  /**
+   * Take n bytes for a node, in a new segment if they do not fit in the
+   * current one, and get their address.
+   */
+  long claim(long n) throws ParseException {
+    if (!fits(n)) {
+      newSegment(n);
+    } // if
+    long at = this.used;
+    this.used += n;
+    this.size += n;
+    return at;
+  } // claim(long)
+
+  /**
+   * Start a new segment with room for at least n bytes. It gets what is
+   * left of our guess, or a quarter of what we have so far once the
+   * guess has run out, so there are few segments either way.
+   */
+  void newSegment(long n) throws ParseException {
+    if (n > SEGMENT_SIZE) {
+      throw new ParseException("Value too large for an arena", this.tokens.position());
+    } // if
+    long left = this.guess - this.allocated;
+    long want = (left >= INITIAL_SIZE) ? left : Math.max(INITIAL_SIZE, this.allocated / 4);
+    int capacity = (int) Math.max(n, Math.min(SEGMENT_SIZE, want));
+    ByteBuffer segment = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    if (++this.current == this.segments.length) {
+      this.segments = Arrays.copyOf(this.segments, 2 * this.current);
+    } // if
+    this.segments[this.current] = segment;
+    this.allocated += capacity;
+    this.used = (long) this.current << SEGMENT_BITS;
+  } // newSegment(long)
+
+  /**
+   * Build the exception for an unexpected character.
+   */
+  ParseException error(int ch, String message) {
+    if (ch == -1) {
+      return new ParseException("Unexpected end of file", this.tokens.position());
+    } // if
+    return new ParseException(message, this.tokens.position() - 1);
+  } // error(int, String)
+
+  /**
+   * Guess how many bytes the nodes for length bytes of text need. They
+   * rarely need more than the text.
+   */
+  static long guessSize(long length) {
+    return Math.max(INITIAL_SIZE, length);
+  } // guessSize(long)
+
+  /**
+   * Get the size of a node of a number (or constant) with tag.
+   */
+  static int nodeSize(byte tag) {
+    switch (tag) {
+      case INT8:
+        return 2;
+      case INT16:
+        return 3;
+      case INT32:
+      case FLOAT:
+        return 5;
+      case INTEGER:
+      case REAL:
+        return 9;
+      default:
+        return 1;
+    } // switch
+  } // nodeSize(byte)
+
+  /**
+   * Find the tag from narrow to wide whose node has size bytes.
+   */
+  static byte nodeTag(int size, byte narrow, byte wide) {
+    for (byte tag = narrow; tag < wide; tag++) {
+      if (nodeSize(tag) == size) {
+        return tag;
+      } // if
+    } // for
+    return wide;
+  } // nodeTag(int, byte, byte)
+
+  /**
+   * Get the integer of the integer node at off in segment.
+   */
+  static long integerAt(ByteBuffer segment, int off) {
+    switch (segment.get(off)) {
+      case INT8:
+        return segment.get(off + 1);
+      case INT16:
+        return segment.getShort(off + 1);
+      case INT32:
+        return segment.getInt(off + 1);
+      default:
+        return segment.getLong(off + 1);
+    } // switch
+  } // integerAt(ByteBuffer, int)
+
+  /**
+   * Write an integer node with tag at off in segment.
+   */
+  static void putInteger(ByteBuffer segment, int off, byte tag, long value) {
+    segment.put(off, tag);
+    switch (tag) {
+      case INT8:
+        segment.put(off + 1, (byte) value);
+        break;
+      case INT16:
+        segment.putShort(off + 1, (short) value);
+        break;
+      case INT32:
+        segment.putInt(off + 1, (int) value);
+        break;
+      default:
+        segment.putLong(off + 1, value);
+        break;
+    } // switch
+  } // putInteger(ByteBuffer, int, byte, long)
+
+  /**
+   * Write a real node with tag at off in segment.
+   */
+  static void putReal(ByteBuffer segment, int off, byte tag, double value) {
+    segment.put(off, tag);
+    if (tag == FLOAT) {
+      segment.putFloat(off + 1, (float) value);
+    } else {
+      segment.putDouble(off + 1, value);
+    } // if/else
+  } // putReal(ByteBuffer, int, byte, double)
+
+  /**
+   * Find how many bytes (1, 2, 4, or 8) an unsigned number needs.
+   */
+  static int width(long n) {
+    return (n < 1L << 8) ? 1 : (n < 1L << 16) ? 2 : (n < 1L << 32) ? 4 : 8;
+  } // width(long)
+
+  /**
+   * Write the low width bytes of n at off in segment.
+   */
+  static void putUnsigned(ByteBuffer segment, int off, int width, long n) {
+    switch (width) {
+      case 1:
+        segment.put(off, (byte) n);
+        break;
+      case 2:
+        segment.putShort(off, (short) n);
+        break;
+      case 4:
+        segment.putInt(off, (int) n);
+        break;
+      default:
+        segment.putLong(off, n);
+        break;
+    } // switch
+  } // putUnsigned(ByteBuffer, int, int, long)
+
+  /**
+   * Free a direct buffer now, if we can.
+   */
+  static void free(ByteBuffer buffer) {
+    if (INVOKE_CLEANER != null) {
+      try {
+        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+      } catch (ReflectiveOperationException e) {
+        // The collector will free it eventually
+      } // try/catch
+    } // if
+  } // free(ByteBuffer)
+
+  /**
+   * Get the JDK's Unsafe, or null.
+   */
+  static Object findUnsafe() {
+    try {
+      Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      return field.get(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    } // try/catch
+  } // findUnsafe()
+
+  /**
+   * Get Unsafe.invokeCleaner, or null.
+   */
+  static Method findCleaner() {
+    try {
+      return (UNSAFE == null)
+          ? null
+          : UNSAFE.getClass().getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    } // try/catch
+  } // findCleaner()
+} // class JSONArena
@@ -0,0 +1,416 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * A value in a JSONArena, read in place. A facade is just the arena and
+ * the address of a node, so making one per step through a document costs
+ * next to nothing, and nothing is kept once it is dropped. decode copies
+ * a value (and everything in it) onto the heap as ordinary JSON values.
+ *
+ * Facades check that their arena is open on every read and throw
+ * IllegalStateException if it has been closed.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONArenaValue implements JSONValue {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The arena the value is in.
+   */
+  final JSONArena arena;
+
+  /**
+   * Where its node starts.
+   */
+  final long at;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a facade for the node at at.
+   */
+  JSONArenaValue(JSONArena arena, long at) {
+    this.arena = arena;
+    this.at = at;
+  } // JSONArenaValue(JSONArena, long)
+
+  // +-------------------------+-------------------------------------
+  // | Standard object methods |
+  // +-------------------------+
+
+  /**
+   * Convert to a string (e.g., for printing).
+   */
+  public String toString() {
+    return decode().toString();
+  } // toString()
+
+  /**
+   * Compare to another object. Two arena values are equal if they hold
+   * equal JSON.
+   */
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    } else if (!(other instanceof JSONArenaValue)) {
+      return false;
+    } // if...else
+    JSONArenaValue that = (JSONArenaValue) other;
+    return (this.arena == that.arena && this.at == that.at)
+        || decode().equals(that.decode());
+  } // equals(Object)
+
+  /**
+   * Compute the hash code.
+   */
+  public int hashCode() {
+    return decode().hashCode();
+  } // hashCode()
+
+  // +--------------------+------------------------------------------
+  // | Additional methods |
+  // +--------------------+
+
+  /**
+   * Write the value as JSON.
+   */
+  public void writeJSON(PrintWriter pen) {
+    JSONGenerator.write(this, pen);
+  } // writeJSON(PrintWriter)
+
+  /**
+   * Write the value through a generator.
+   */
+  public void writeJSON(JSONGenerator gen) throws IOException {
+    // Never cached (the arena may be closed), but this keeps whatever we
+    // are inside from being cached either
+    gen.writeCached(this);
+    switch (this.arena.tag(this.at)) {
+      case JSONArena.NULL:
+        gen.writeNull();
+        break;
+      case JSONArena.FALSE:
+      case JSONArena.TRUE:
+        gen.writeBoolean(booleanValue());
+        break;
+      case JSONArena.INT8:
+      case JSONArena.INT16:
+      case JSONArena.INT32:
+      case JSONArena.INTEGER:
+        gen.writeNumber(this.arena.integerAt(this.at));
+        break;
+      case JSONArena.FLOAT:
+      case JSONArena.REAL:
+        gen.writeNumber(this.arena.realAt(this.at));
+        break;
+      case JSONArena.BIG_INTEGER:
+      case JSONArena.BIG_REAL:
+        gen.writeRawValue(this.arena.textAt(this.at));
+        break;
+      case JSONArena.STRING:
+        gen.writeString(this.arena.textAt(this.at));
+        break;
+      case JSONArena.ARRAY:
+        gen.writeStartArray();
+        for (int i = 0; i < size(); i++) {
+          get(i).writeJSON(gen);
+        } // for
+        gen.writeEndArray();
+        break;
+      default:
+        gen.writeStartObject();
+        for (int i = 0; i < size(); i++) {
+          gen.writeFieldName(keyAt(i));
+          valueAt(i).writeJSON(gen);
+        } // for
+        gen.writeEndObject();
+    } // switch
+    gen.written(this);
+  } // writeJSON(JSONGenerator)
+
+  /**
+   * Get the underlying value, as the heap value would give it.
+   */
+  public Object getValue() {
+    return decode().getValue();
+  } // getValue()
+
+  /**
+   * Copy the value onto the heap.
+   */
+  public JSONValue decode() {
+    switch (this.arena.tag(this.at)) {
+      case JSONArena.NULL:
+        return JSONConstant.NULL;
+      case JSONArena.FALSE:
+        return JSONConstant.FALSE;
+      case JSONArena.TRUE:
+        return JSONConstant.TRUE;
+      case JSONArena.INT8:
+      case JSONArena.INT16:
+      case JSONArena.INT32:
+      case JSONArena.INTEGER:
+        return new JSONInteger(this.arena.integerAt(this.at));
+      case JSONArena.FLOAT:
+      case JSONArena.REAL:
+        return new JSONReal(this.arena.realAt(this.at));
+      case JSONArena.BIG_INTEGER:
+        return new JSONInteger(new BigInteger(this.arena.textAt(this.at)));
+      case JSONArena.BIG_REAL:
+        return new JSONReal(new BigDecimal(this.arena.textAt(this.at)));
+      case JSONArena.STRING:
+        return new JSONString(this.arena.textAt(this.at));
+      case JSONArena.ARRAY:
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < size(); i++) {
+          array.add(get(i).decode());
+        } // for
+        return array;
+      default:
+        JSONHash hash = new JSONHash(size());
+        for (int i = 0; i < size(); i++) {
+          hash.set(new JSONString(keyAt(i)), valueAt(i).decode());
+        } // for
+        return hash;
+    } // switch
+  } // decode()
+
+  // +-------------+-------------------------------------------------
+  // | Type checks |
+  // +-------------+
+
+  /**
+   * Determine if the value is a hash.
+   */
+  public boolean isHash() {
+    return this.arena.tag(this.at) == JSONArena.HASH;
+  } // isHash()
+
+  /**
+   * Determine if the value is an array.
+   */
+  public boolean isArray() {
+    return this.arena.tag(this.at) == JSONArena.ARRAY;
+  } // isArray()
+
+  /**
+   * Determine if the value is a string.
+   */
+  public boolean isString() {
+    return this.arena.tag(this.at) == JSONArena.STRING;
+  } // isString()
+
+  /**
+   * Determine if the value is a number.
+   */
+  public boolean isNumber() {
+    byte tag = this.arena.tag(this.at);
+    return tag >= JSONArena.INT8 && tag <= JSONArena.BIG_REAL;
+  } // isNumber()
+
+  /**
+   * Determine if the value is null.
+   */
+  public boolean isNull() {
+    return this.arena.tag(this.at) == JSONArena.NULL;
+  } // isNull()
+
+  // +---------------+-----------------------------------------------
+  // | Scalar values |
+  // +---------------+
+
+  /**
+   * Get a string's characters.
+   */
+  public String stringValue() {
+    expect(JSONArena.STRING, "a string");
+    return this.arena.textAt(this.at);
+  } // stringValue()
+
+  /**
+   * Get a number as a long, cutting off any fraction.
+   */
+  public long longValue() {
+    switch (this.arena.tag(this.at)) {
+      case JSONArena.INT8:
+      case JSONArena.INT16:
+      case JSONArena.INT32:
+      case JSONArena.INTEGER:
+        return this.arena.integerAt(this.at);
+      case JSONArena.FLOAT:
+      case JSONArena.REAL:
+        return (long) this.arena.realAt(this.at);
+      default:
+        return ((Number) numberValue()).longValue();
+    } // switch
+  } // longValue()
+
+  /**
+   * Get a number as a double.
+   */
+  public double doubleValue() {
+    switch (this.arena.tag(this.at)) {
+      case JSONArena.INT8:
+      case JSONArena.INT16:
+      case JSONArena.INT32:
+      case JSONArena.INTEGER:
+        return this.arena.integerAt(this.at);
+      case JSONArena.FLOAT:
+      case JSONArena.REAL:
+        return this.arena.realAt(this.at);
+      default:
+        return ((Number) numberValue()).doubleValue();
+    } // switch
+  } // doubleValue()
+
+  /**
+   * Get a true or false.
+   */
+  public boolean booleanValue() {
+    byte tag = this.arena.tag(this.at);
+    if (tag != JSONArena.TRUE && tag != JSONArena.FALSE) {
+      throw new ClassCastException("Not a boolean");
+    } // if
+    return tag == JSONArena.TRUE;
+  } // booleanValue()
+
+  // +-------------------+-------------------------------------------
+  // | Container methods |
+  // +-------------------+
+
+  /**
+   * Find out how many elements (or key/value pairs) the value has. A
+   * key that appears more than once in the text is counted each time.
+   */
+  public int size() {
+    byte tag = this.arena.tag(this.at);
+    if (tag != JSONArena.ARRAY && tag != JSONArena.HASH) {
+      throw new ClassCastException("Not an array or hash");
+    } // if
+    return this.arena.count(this.at);
+  } // size()
+
+  /**
+   * Get the element at a particular index of an array.
+   */
+  public JSONArenaValue get(int index) throws IndexOutOfBoundsException {
+    expect(JSONArena.ARRAY, "an array");
+    checkIndex(index);
+    return new JSONArenaValue(this.arena, this.arena.element(this.at, index));
+  } // get(int)
+
+  /**
+   * Get the value for a particular key of a hash.
+   *
+   * @throws IndexOutOfBoundsException if there is no value for key
+   */
+  public JSONArenaValue get(String key) {
+    int field = find(key);
+    if (field < 0) {
+      throw new IndexOutOfBoundsException("Invalid key: " + key);
+    } // if
+    return valueAt(field);
+  } // get(String)
+
+  /**
+   * Get the value for a particular key of a hash.
+   *
+   * @throws IndexOutOfBoundsException if there is no value for key
+   */
+  public JSONArenaValue get(JSONString key) {
+    return get(key.getValue());
+  } // get(JSONString)
+
+  /**
+   * Determine if a hash has a value for key.
+   */
+  public boolean containsKey(String key) {
+    return find(key) >= 0;
+  } // containsKey(String)
+
+  /**
+   * Get the key of the pair at a particular position of a hash, in the
+   * order of the text.
+   */
+  public String keyAt(int field) throws IndexOutOfBoundsException {
+    expect(JSONArena.HASH, "a hash");
+    checkIndex(field);
+    return this.arena.keyText(this.arena.keyNumber(this.at, field));
+  } // keyAt(int)
+
+  /**
+   * Get the value of the pair at a particular position of a hash.
+   */
+  public JSONArenaValue valueAt(int field) throws IndexOutOfBoundsException {
+    expect(JSONArena.HASH, "a hash");
+    checkIndex(field);
+    return new JSONArenaValue(this.arena, this.arena.value(this.at, field));
+  } // valueAt(int)
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Find the position of key in a hash, or -1. Hash codes are compared
+   * first, so only a likely match is decoded, and each key number is
+   * decoded at most once.
+   */
+  int find(String key) {
+    expect(JSONArena.HASH, "a hash");
+    int code = key.hashCode();
+    int miss = -1;
+    // Search from the end, since a repeated key keeps its last value
+    for (int field = size() - 1; field >= 0; field--) {
+      int number = this.arena.keyNumber(this.at, field);
+      if (number != miss && this.arena.keyHash(number) == code) {
+        if (this.arena.keyText(number).equals(key)) {
+          return field;
+        } // if
+        miss = number;
+      } // if
+    } // for
+    return -1;
+  } // find(String)
+
+  /**
+   * Get a big number's value.
+   */
+  Object numberValue() {
+    switch (this.arena.tag(this.at)) {
+      case JSONArena.BIG_INTEGER:
+        return new BigInteger(this.arena.textAt(this.at));
+      case JSONArena.BIG_REAL:
+        return new BigDecimal(this.arena.textAt(this.at));
+      default:
+        throw new ClassCastException("Not a number");
+    } // switch
+  } // numberValue()
+
+  /**
+   * Make sure the value has a given tag.
+   */
+  void expect(byte tag, String what) {
+    if (this.arena.tag(this.at) != tag) {
+      throw new ClassCastException("Not " + what);
+    } // if
+  } // expect(byte, String)
+
+  /**
+   * Make sure index names an element (or pair).
+   */
+  void checkIndex(int index) {
+    int size = this.arena.count(this.at);
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    } // if
+  } // checkIndex(int)
+} // class JSONArenaValue
@@ -1,9 +1,22 @@
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.DoubleStream;
+import java.util.stream.LongStream;
 
 /**
  * JSON arrays.
+ *
+ * An array whose elements are all of one simple kind keeps them unboxed:
+ * integers that fit in a long go in a long[], reals that fit in a double
+ * go in a double[] (along with any integers small enough to be exact
+ * there, which are marked in a bitmap), and true, false and null go in two
+ * bitmaps. Elements are boxed again only when they are asked for. Adding
+ * or setting an element of another kind turns the array into an ordinary
+ * list of values, which is also what getValue hands back.
  * 
  * @author SamR (starter code)
  * @author Lydia Ye
@@ -11,15 +24,122 @@ import java.util.Iterator;
  */
 public class JSONArray implements JSONValue {
 
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * No elements yet, so no storage chosen.
+   */
+  static final byte EMPTY = 0;
+
+  /**
+   * Elements in values.
+   */
+  static final byte GENERIC = 1;
+
+  /**
+   * Elements in longs.
+   */
+  static final byte LONGS = 2;
+
+  /**
+   * Elements in doubles.
+   */
+  static final byte DOUBLES = 3;
+
+  /**
+   * Elements in truths and nulls.
+   */
+  static final byte CONSTANTS = 4;
+
+  /**
+   * The largest magnitude of a long that a double holds exactly.
+   */
+  static final long MAX_EXACT = 1L << 53;
+
   // +--------+------------------------------------------------------
   // | Fields |
   // +--------+
 
+  /**
+   * How the elements are stored.
+   */
+  byte kind;
+
+  /**
+   * The number of elements (when they are not in values).
+   */
+  int count;
+
   /**
    * The underlying array.
    */
   ArrayList<JSONValue> values;
 
+  /**
+   * The elements, when they are all integers.
+   */
+  long[] longs;
+
+  /**
+   * The elements, when they are all numbers that fit in a double.
+   */
+  double[] doubles;
+
+  /**
+   * Which elements of doubles are integers (null if none are).
+   */
+  long[] integers;
+
+  /**
+   * Which constants are true.
+   */
+  long[] truths;
+
+  /**
+   * Which constants are null.
+   */
+  long[] nulls;
+
+  /**
+   * The tape we decode this array from, or null if the array has been
+   * fully decoded (or was never lazy).
+   */
+  volatile JSONTape tape;
+
+  /**
+   * Our entry in the tape.
+   */
+  int entry;
+
+  /**
+   * The tape entries of our elements, once we need them.
+   */
+  int[] lazyEntries;
+
+  /**
+   * The elements decoded so far.
+   */
+  JSONValue[] lazyValues;
+
+  /**
+   * The array or hash we were last written inside, for passing changes
+   * on to its cached output; JSONWriteCache.SHARED if more than one.
+   */
+  Object parent;
+
+  /**
+   * Our cached output, or null.
+   */
+  JSONWriteCache.Entry cached;
+
+  /**
+   * Whether getValue has handed out our list, which can then change
+   * without our knowing, so that our output must not be cached.
+   */
+  boolean exposed;
+
   // +--------------+------------------------------------------------
   // | Constructors |
   // +--------------+
@@ -28,9 +148,18 @@ public class JSONArray implements JSONValue {
    * Build a new array.
    */
   public JSONArray() {
-    this.values = new ArrayList<JSONValue>();
+    this.kind = EMPTY;
+    this.count = 0;
   } // JSONArray()
 
+  /**
+   * Create an array that is decoded lazily from a tape.
+   */
+  JSONArray(JSONTape tape, int entry) {
+    this.tape = tape;
+    this.entry = entry;
+  } // JSONArray(JSONTape, int)
+
   // +-------------------------+-------------------------------------
   // | Standard object methods |
   // +-------------------------+
@@ -39,25 +168,58 @@ public class JSONArray implements JSONValue {
    * Convert to a string (e.g., for printing).
    */
   public String toString() {
-    return this.values.toString();
+    this.materialize();
+    if (this.kind == GENERIC) {
+      return this.values.toString();
+    } // if
+    StringBuilder result = new StringBuilder("[");
+    for (int i = 0; i < this.count; i++) {
+      if (i > 0) {
+        result.append(", ");
+      } // if
+      result.append(get(i));
+    } // for
+    return result.append(']').toString();
   } // toString()
 
   /**
    * Compare to another object.
    */
   public boolean equals(Object other) {
-    if (other instanceof JSONArray) {
-      return this.values.equals(((JSONArray) other).getValue());
-    } else {
+    if (!(other instanceof JSONArray)) {
       return false;
-    } // if/else
+    } // if
+    JSONArray arr = (JSONArray) other;
+    this.materialize();
+    arr.materialize();
+    if (this.kind == LONGS && arr.kind == LONGS) {
+      return Arrays.equals(this.longs, 0, this.count, arr.longs, 0, arr.count);
+    } // if
+    int size = size();
+    if (size != arr.size()) {
+      return false;
+    } // if
+    for (int i = 0; i < size; i++) {
+      if (!get(i).equals(arr.get(i))) {
+        return false;
+      } // if
+    } // for
+    return true;
   } // equals(Object)
 
   /**
-   * Compute the hash code.
+   * Compute the hash code, the same way a list of the elements would.
    */
   public int hashCode() {
-    return this.values.hashCode();
+    this.materialize();
+    if (this.kind == GENERIC) {
+      return this.values.hashCode();
+    } // if
+    int code = 1;
+    for (int i = 0; i < this.count; i++) {
+      code = 31 * code + get(i).hashCode();
+    } // for
+    return code;
   } // hashCode()
 
   // +--------------------+------------------------------------------
@@ -68,14 +230,63 @@ public class JSONArray implements JSONValue {
    * Write the value as JSON.
    */
   public void writeJSON(PrintWriter pen) {
-    pen.print(this.values.toString());
-    pen.flush();
+    JSONGenerator.write(this, pen);
   } // writeJSON(PrintWriter)
 
   /**
-   * Get the underlying value.
+   * Write the value through a generator.
+   */
+  public void writeJSON(JSONGenerator gen) throws IOException {
+    if (gen.writeCached(this)) {
+      return;
+    } // if
+    this.materialize();
+    gen.writeStartArray();
+    switch (this.kind) {
+      case GENERIC:
+        for (JSONValue value : this.values) {
+          value.writeJSON(gen);
+        } // for
+        break;
+      case LONGS:
+        for (int i = 0; i < this.count; i++) {
+          gen.writeNumber(this.longs[i]);
+        } // for
+        break;
+      case DOUBLES:
+        for (int i = 0; i < this.count; i++) {
+          if (isSet(this.integers, i)) {
+            gen.writeNumber((long) this.doubles[i]);
+          } else {
+            gen.writeNumber(this.doubles[i]);
+          } // if/else
+        } // for
+        break;
+      case CONSTANTS:
+        for (int i = 0; i < this.count; i++) {
+          if (isSet(this.nulls, i)) {
+            gen.writeNull();
+          } else {
+            gen.writeBoolean(isSet(this.truths, i));
+          } // if/else
+        } // for
+        break;
+      default:
+        // No elements
+    } // switch
+    gen.writeEndArray();
+    gen.written(this);
+  } // writeJSON(JSONGenerator)
+
+  /**
+   * Get the underlying value. The array keeps its elements in the list
+   * from then on, so that changes to the list show up in the array.
    */
   public ArrayList<JSONValue> getValue() {
+    this.materialize();
+    changed();
+    this.exposed = true;
+    generalize();
     return this.values;
   } // getValue()
 
@@ -87,27 +298,97 @@ public class JSONArray implements JSONValue {
    * Add a value to the end of the array.
    */
   public void add(JSONValue value) {
-    this.values.add(value);
+    this.materialize();
+    changed();
+    if (this.kind == EMPTY) {
+      choose(value);
+    } // if
+    if (this.kind != GENERIC && !store(this.count, value)) {
+      generalize();
+    } // if
+    if (this.kind == GENERIC) {
+      this.values.add(value);
+    } else {
+      ++this.count;
+    } // if/else
   } // add(JSONValue)
 
   /**
    * Get the value at a particular index.
    */
   public JSONValue get(int index) throws IndexOutOfBoundsException {
-    return this.values.get(index);
+    if (this.tape != null) {
+      return lazyGet(index);
+    } // if
+    if (this.kind == GENERIC) {
+      return this.values.get(index);
+    } // if
+    checkIndex(index);
+    switch (this.kind) {
+      case LONGS:
+        return new JSONInteger(this.longs[index]);
+      case DOUBLES:
+        if (isSet(this.integers, index)) {
+          return new JSONInteger((long) this.doubles[index]);
+        } // if
+        return new JSONReal(this.doubles[index]);
+      default:
+        if (isSet(this.nulls, index)) {
+          return JSONConstant.NULL;
+        } // if
+        return isSet(this.truths, index) ? JSONConstant.TRUE : JSONConstant.FALSE;
+    } // switch
   } // get(int)
 
   /**
-   * Get the iterator for the elements.
+   * Get the iterator for the elements. Its remove works however the
+   * elements are stored.
    */
   public Iterator<JSONValue> iterator() {
-    return this.values.iterator();
+    this.materialize();
+    return new Iterator<JSONValue>() {
+      // The index of the next element
+      int i = 0;
+
+      // The index of the element next returned last, or -1
+      int last = -1;
+
+      public boolean hasNext() {
+        return i < size();
+      } // hasNext()
+
+      public JSONValue next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        } // if
+        last = i;
+        return get(i++);
+      } // next()
+
+      public void remove() {
+        if (last < 0) {
+          throw new IllegalStateException();
+        } // if
+        JSONArray.this.remove(last);
+        i = last;
+        last = -1;
+      } // remove()
+    }; // new Iterator
   } // iterator()
 
   /**
    * Set the value at a particular index.
    */
   public void set(int index, JSONValue value) throws IndexOutOfBoundsException {
+    this.materialize();
+    changed();
+    if (this.kind != GENERIC) {
+      checkIndex(index);
+      if (store(index, value)) {
+        return;
+      } // if
+      generalize();
+    } // if
     this.values.set(index, value);
   } // set(int, JSONValue)
 
@@ -115,6 +396,373 @@ public class JSONArray implements JSONValue {
    * Determine how many values are in the array.
    */
   public int size() {
-    return this.values.size();
+    if (this.tape != null) {
+      return lazySize();
+    } // if
+    return (this.kind == GENERIC) ? this.values.size() : this.count;
   } // size()
+
+  // +--------------+------------------------------------------------
+  // | Bulk methods |
+  // +--------------+
+
+  /**
+   * Get the elements, which must all be integers that fit in a long, as
+   * an array of longs.
+   *
+   * @throws IllegalStateException if some element is not such an integer
+   */
+  public long[] toLongArray() {
+    this.materialize();
+    if (this.kind == LONGS) {
+      return Arrays.copyOf(this.longs, this.count);
+    } // if
+    int size = size();
+    long[] result = new long[size];
+    for (int i = 0; i < size; i++) {
+      JSONValue value = get(i);
+      if (!(value instanceof JSONInteger) || !((JSONInteger) value).isLong()) {
+        throw new IllegalStateException("Not a long at index " + i + ": " + value);
+      } // if
+      result[i] = ((JSONInteger) value).longValue();
+    } // for
+    return result;
+  } // toLongArray()
+
+  /**
+   * Get the elements, which must all be numbers, as an array of doubles.
+   *
+   * @throws IllegalStateException if some element is not a number
+   */
+  public double[] toDoubleArray() {
+    this.materialize();
+    if (this.kind == DOUBLES) {
+      return Arrays.copyOf(this.doubles, this.count);
+    } // if
+    int size = size();
+    double[] result = new double[size];
+    for (int i = 0; i < size; i++) {
+      JSONValue value = get(i);
+      if (value instanceof JSONInteger) {
+        result[i] = ((JSONInteger) value).doubleValue();
+      } else if (value instanceof JSONReal) {
+        result[i] = ((JSONReal) value).doubleValue();
+      } else {
+        throw new IllegalStateException("Not a number at index " + i + ": " + value);
+      } // if...else
+    } // for
+    return result;
+  } // toDoubleArray()
+
+  /**
+   * Get the elements, which must all be numbers, as a stream of doubles.
+   * An array of reals is streamed straight from its storage.
+   *
+   * @throws IllegalStateException if some element is not a number
+   */
+  public DoubleStream doubleStream() {
+    this.materialize();
+    if (this.kind == DOUBLES) {
+      return Arrays.stream(this.doubles, 0, this.count);
+    } // if
+    return DoubleStream.of(toDoubleArray());
+  } // doubleStream()
+
+  /**
+   * Get the elements, which must all be integers that fit in a long, as
+   * a stream of longs.
+   *
+   * @throws IllegalStateException if some element is not such an integer
+   */
+  public LongStream longStream() {
+    this.materialize();
+    if (this.kind == LONGS) {
+      return Arrays.stream(this.longs, 0, this.count);
+    } // if
+    return LongStream.of(toLongArray());
+  } // longStream()
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Pick the storage for an array whose first element is value.
+   */
+  void choose(JSONValue value) {
+    if (value instanceof JSONInteger && ((JSONInteger) value).isLong()) {
+      this.kind = LONGS;
+      this.longs = new long[8];
+    } else if (value instanceof JSONReal && ((JSONReal) value).isDouble()) {
+      this.kind = DOUBLES;
+      this.doubles = new double[8];
+    } else if (isBooleanOrNull(value)) {
+      this.kind = CONSTANTS;
+      this.truths = new long[1];
+      this.nulls = new long[1];
+    } else {
+      this.kind = GENERIC;
+      this.values = new ArrayList<JSONValue>();
+    } // if...else
+  } // choose(JSONValue)
+
+  /**
+   * Put value at index in the unboxed storage, which grows if index is
+   * just past the end. Returns false, changing nothing, if value cannot
+   * be stored there.
+   */
+  boolean store(int index, JSONValue value) {
+    switch (this.kind) {
+      case LONGS:
+        if (value instanceof JSONInteger && ((JSONInteger) value).isLong()) {
+          if (index == this.longs.length) {
+            this.longs = Arrays.copyOf(this.longs, 2 * index);
+          } // if
+          this.longs[index] = ((JSONInteger) value).longValue();
+          return true;
+        } else if (value instanceof JSONReal && ((JSONReal) value).isDouble()
+            && allExact()) {
+          // A real among integers: keep them all as doubles
+          this.doubles = new double[this.longs.length];
+          for (int i = 0; i < this.count; i++) {
+            this.doubles[i] = this.longs[i];
+            this.integers = setBit(this.integers, i, true);
+          } // for
+          this.longs = null;
+          this.kind = DOUBLES;
+          return store(index, value);
+        } // if...else
+        return false;
+      case DOUBLES:
+        boolean integer = value instanceof JSONInteger && ((JSONInteger) value).isLong()
+            && Math.abs(((JSONInteger) value).longValue()) <= MAX_EXACT;
+        if (!integer && !(value instanceof JSONReal && ((JSONReal) value).isDouble())) {
+          return false;
+        } // if
+        if (index == this.doubles.length) {
+          this.doubles = Arrays.copyOf(this.doubles, 2 * index);
+        } // if
+        this.doubles[index] = integer
+            ? (double) ((JSONInteger) value).longValue()
+            : ((JSONReal) value).doubleValue();
+        if (integer || isSet(this.integers, index)) {
+          this.integers = setBit(this.integers, index, integer);
+        } // if
+        return true;
+      default:
+        if (!isBooleanOrNull(value)) {
+          return false;
+        } // if
+        Object constant = ((JSONConstant) value).value;
+        this.nulls = setBit(this.nulls, index, constant == null);
+        this.truths = setBit(this.truths, index, constant == Boolean.TRUE);
+        return true;
+    } // switch
+  } // store(int, JSONValue)
+
+  /**
+   * Remove the element at index, moving the later ones down.
+   */
+  void remove(int index) throws IndexOutOfBoundsException {
+    this.materialize();
+    changed();
+    if (this.kind == GENERIC) {
+      this.values.remove(index);
+      return;
+    } // if
+    checkIndex(index);
+    int last = --this.count;
+    switch (this.kind) {
+      case LONGS:
+        System.arraycopy(this.longs, index + 1, this.longs, index, last - index);
+        break;
+      case DOUBLES:
+        System.arraycopy(this.doubles, index + 1, this.doubles, index, last - index);
+        this.integers = dropBit(this.integers, index, last);
+        break;
+      default:
+        this.truths = dropBit(this.truths, index, last);
+        this.nulls = dropBit(this.nulls, index, last);
+        break;
+    } // switch
+  } // remove(int)
+
+  /**
+   * Drop any cached output of ours, and of whatever we are inside.
+   */
+  void changed() {
+    if (this.cached != null || this.parent != null) {
+      JSONWriteCache.invalidate(this);
+    } // if
+  } // changed()
+
+  /**
+   * Move the elements into values, boxing them.
+   */
+  void generalize() {
+    if (this.kind == GENERIC) {
+      return;
+    } // if
+    ArrayList<JSONValue> list = new ArrayList<JSONValue>(Math.max(10, this.count));
+    for (int i = 0; i < this.count; i++) {
+      list.add(get(i));
+    } // for
+    this.kind = GENERIC;
+    this.values = list;
+    this.count = 0;
+    this.longs = null;
+    this.doubles = null;
+    this.integers = null;
+    this.truths = null;
+    this.nulls = null;
+  } // generalize()
+
+  /**
+   * Determine if every element in longs is exact as a double.
+   */
+  boolean allExact() {
+    for (int i = 0; i < this.count; i++) {
+      if (Math.abs(this.longs[i]) > MAX_EXACT) {
+        return false;
+      } // if
+    } // for
+    return true;
+  } // allExact()
+
+  /**
+   * Make sure index names an element of the unboxed storage.
+   */
+  void checkIndex(int index) {
+    if (index < 0 || index >= this.count) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.count);
+    } // if
+  } // checkIndex(int)
+
+  /**
+   * Determine if value is true, false, or null.
+   */
+  static boolean isBooleanOrNull(JSONValue value) {
+    if (!(value instanceof JSONConstant)) {
+      return false;
+    } // if
+    Object constant = ((JSONConstant) value).value;
+    return constant == null || constant == Boolean.TRUE || constant == Boolean.FALSE;
+  } // isBooleanOrNull(JSONValue)
+
+  /**
+   * Determine if bit i of bits is set (bits may be null or short).
+   */
+  static boolean isSet(long[] bits, int i) {
+    return bits != null && (i >> 6) < bits.length && (bits[i >> 6] & (1L << i)) != 0;
+  } // isSet(long[], int)
+
+  /**
+   * Set or clear bit i of bits, making bits (or making it longer) if
+   * needed. Returns the bits.
+   */
+  static long[] setBit(long[] bits, int i, boolean on) {
+    int word = i >> 6;
+    if (bits == null || word >= bits.length) {
+      if (!on) {
+        return bits;
+      } // if
+      bits = (bits == null)
+          ? new long[Math.max(1, 2 * word)]
+          : Arrays.copyOf(bits, Math.max(2 * bits.length, word + 1));
+    } // if
+    if (on) {
+      bits[word] |= 1L << i;
+    } else {
+      bits[word] &= ~(1L << i);
+    } // if/else
+    return bits;
+  } // setBit(long[], int, boolean)
+
+  /**
+   * Remove bit i of bits, moving bits i+1 through last down by one.
+   * Returns the bits.
+   */
+  static long[] dropBit(long[] bits, int i, int last) {
+    for (int j = i; j < last; j++) {
+      bits = setBit(bits, j, isSet(bits, j + 1));
+    } // for
+    return setBit(bits, last, false);
+  } // dropBit(long[], int, int)
+
+  // +--------------+------------------------------------------------
+  // | Lazy methods |
+  // +--------------+
+
+  /**
+   * Find the tape entries of our elements. The caller holds our lock.
+   */
+  int[] lazyEntries() {
+    if (this.lazyEntries == null) {
+      this.lazyEntries = this.tape.children(this.entry);
+      this.lazyValues = new JSONValue[this.lazyEntries.length];
+    } // if
+    return this.lazyEntries;
+  } // lazyEntries()
+
+  /**
+   * Get an element straight from the tape, decoding only that element.
+   */
+  synchronized JSONValue lazyGet(int index) {
+    if (this.tape == null) {
+      // Decoded in full since the caller looked
+      return get(index);
+    } // if
+    int[] entries = lazyEntries();
+    if (index < 0 || index >= entries.length) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + entries.length);
+    } // if
+    if (this.lazyValues[index] == null) {
+      this.lazyValues[index] = this.tape.decode(entries[index]);
+    } // if
+    return this.lazyValues[index];
+  } // lazyGet(int)
+
+  /**
+   * Count our elements, straight from the tape.
+   */
+  synchronized int lazySize() {
+    if (this.tape == null) {
+      return size();
+    } // if
+    return lazyEntries().length;
+  } // lazySize()
+
+  /**
+   * Decode all of our elements, reusing any that were already decoded.
+   * The storage is built on the side and only then made ours, so a
+   * reader that finds tape null finds it whole.
+   */
+  void materialize() {
+    if (this.tape == null) {
+      return;
+    } // if
+    synchronized (this) {
+      JSONTape source = this.tape;
+      if (source == null) {
+        return;
+      } // if
+      int[] entries = lazyEntries();
+      JSONValue[] decoded = this.lazyValues;
+      JSONArray array = new JSONArray();
+      for (int i = 0; i < entries.length; i++) {
+        array.add((decoded[i] != null) ? decoded[i] : source.decode(entries[i]));
+      } // for
+      this.kind = array.kind;
+      this.count = array.count;
+      this.values = array.values;
+      this.longs = array.longs;
+      this.doubles = array.doubles;
+      this.integers = array.integers;
+      this.truths = array.truths;
+      this.nulls = array.nulls;
+      this.lazyEntries = null;
+      this.lazyValues = null;
+      this.tape = null;
+    } // synchronized
+  } // materialize()
 } // class JSONArray
\ No newline at end of file
@@ -0,0 +1,611 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A compact binary form of JSON values, for passing them between
+ * programs that both use this library. Nothing is formatted or parsed as
+ * text: integers are varints, reals are their eight IEEE bytes, and
+ * strings are UTF-8 after their length, so decoding never looks for a
+ * closing quote or an escape. Every value, big integers and reals
+ * included, comes back equal to the one that was encoded.
+ *
+ * A stream starts with a header byte, then one value. Each value starts
+ * with a tag byte:
+ * <ul>
+ * <li>NULL, FALSE, TRUE: nothing more;</li>
+ * <li>INTEGER: a zigzag varint;</li>
+ * <li>BIG_INTEGER: a varint length, then the two's-complement bytes;</li>
+ * <li>REAL: the eight bytes of the double, high byte first;</li>
+ * <li>BIG_REAL: a zigzag varint scale, then the unscaled value as for
+ * BIG_INTEGER;</li>
+ * <li>STRING: a varint length, then that many bytes of UTF-8 (in which a
+ * surrogate without its partner is the three bytes its code would have,
+ * as in WTF-8, so that every Java string comes back whole);</li>
+ * <li>ARRAY: a varint count, then the elements;</li>
+ * <li>HASH: a varint count, then each key and its value.</li>
+ * </ul>
+ * A key is a varint n followed, if n is even, by n/2 bytes of UTF-8. With
+ * the key dictionary on (as the header says), each new key gets the next
+ * number, and a key seen before is just 2 * number + 1. Repeated keys
+ * then cost a byte or two, and decoding hands back one shared JSONString
+ * for each.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONBinary {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The header byte, less its flags.
+   */
+  static final int HEADER = 0xB0;
+
+  /**
+   * The header flag for a key dictionary.
+   */
+  static final int DICTIONARY = 0x01;
+
+  /**
+   * The tags of values.
+   */
+  static final byte NULL = 0;
+  static final byte FALSE = 1;
+  static final byte TRUE = 2;
+  static final byte INTEGER = 3;
+  static final byte BIG_INTEGER = 4;
+  static final byte REAL = 5;
+  static final byte BIG_REAL = 6;
+  static final byte STRING = 7;
+  static final byte ARRAY = 8;
+  static final byte HASH = 9;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where the bytes go or come from.
+   */
+  ByteBuffer buffer;
+
+  /**
+   * Whether keys go through the dictionary.
+   */
+  boolean dictionary;
+
+  /**
+   * When encoding, the number of each key seen so far.
+   */
+  Map<JSONString, Integer> keyNumbers;
+
+  /**
+   * When decoding, the keys seen so far, by number.
+   */
+  JSONString[] keys;
+
+  /**
+   * The number of keys in keys.
+   */
+  int keyCount;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a codec for a buffer.
+   */
+  JSONBinary(ByteBuffer buffer, boolean dictionary) {
+    this.buffer = buffer;
+    this.dictionary = dictionary;
+  } // JSONBinary(ByteBuffer, boolean)
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Encode value into out, from its position on, with a key dictionary.
+   * The position ends up just past the encoding.
+   *
+   * @throws BufferOverflowException if out fills up
+   */
+  public static void encode(JSONValue value, ByteBuffer out) {
+    encode(value, out, true);
+  } // encode(JSONValue, ByteBuffer)
+
+  /**
+   * Encode value into out, from its position on, with or without a key
+   * dictionary. The position ends up just past the encoding.
+   *
+   * @throws BufferOverflowException if out fills up
+   */
+  public static void encode(JSONValue value, ByteBuffer out, boolean dictionary) {
+    JSONBinary codec = new JSONBinary(out, dictionary);
+    if (dictionary) {
+      codec.keyNumbers = new HashMap<JSONString, Integer>();
+    } // if
+    out.put((byte) (HEADER | (dictionary ? DICTIONARY : 0)));
+    codec.write(value);
+  } // encode(JSONValue, ByteBuffer, boolean)
+
+  /**
+   * Encode value into a new heap buffer, with a key dictionary. The
+   * buffer is ready to read.
+   */
+  public static ByteBuffer encode(JSONValue value) {
+    int size = 256;
+    while (true) {
+      ByteBuffer out = ByteBuffer.allocate(size);
+      try {
+        encode(value, out);
+        return out.flip();
+      } catch (BufferOverflowException e) {
+        size *= 2;
+      } // try/catch
+    } // while
+  } // encode(JSONValue)
+
+  /**
+   * Decode a value from in, from its position on. The position ends up
+   * just past the value.
+   *
+   * @throws ParseException if the bytes are not a value we encoded
+   */
+  public static JSONValue decode(ByteBuffer in) throws ParseException {
+    int header = in.hasRemaining() ? in.get(in.position()) & 0xFF : -1;
+    if ((header & ~DICTIONARY) != HEADER) {
+      throw new ParseException("Not binary JSON", in.position());
+    } // if
+    in.get();
+    JSONBinary codec = new JSONBinary(in, (header & DICTIONARY) != 0);
+    if (codec.dictionary) {
+      codec.keys = new JSONString[16];
+    } // if
+    try {
+      return codec.read();
+    } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new ParseException("Unexpected end of input", in.position());
+    } // try/catch
+  } // decode(ByteBuffer)
+
+  // +----------+----------------------------------------------------
+  // | Encoding |
+  // +----------+
+
+  /**
+   * Write a value.
+   */
+  void write(JSONValue value) {
+    if (value instanceof JSONHash) {
+      JSONHash hash = (JSONHash) value;
+      hash.materialize();
+      this.buffer.put(HASH);
+      writeVarint(hash.size);
+      for (int i = 0; i < hash.size; i++) {
+        writeKey(hash.keys[i]);
+        write(hash.vals[i]);
+      } // for
+    } else if (value instanceof JSONArray) {
+      writeArray((JSONArray) value);
+    } else if (value instanceof JSONString) {
+      this.buffer.put(STRING);
+      writeString(((JSONString) value).getValue());
+    } else if (value instanceof JSONInteger) {
+      JSONInteger integer = (JSONInteger) value;
+      if (integer.big == null) {
+        writeLong(integer.value);
+      } else {
+        this.buffer.put(BIG_INTEGER);
+        writeBytes(integer.big.toByteArray());
+      } // if/else
+    } else if (value instanceof JSONReal) {
+      JSONReal real = (JSONReal) value;
+      if (real.big == null) {
+        writeDouble(real.value);
+      } else {
+        this.buffer.put(BIG_REAL);
+        writeVarint(zigzag(real.big.scale()));
+        writeBytes(real.big.unscaledValue().toByteArray());
+      } // if/else
+    } else if (value instanceof JSONConstant) {
+      Object constant = ((JSONConstant) value).getValue();
+      this.buffer.put((constant == null) ? NULL : ((Boolean) constant) ? TRUE : FALSE);
+    } else if (value instanceof JSONArenaValue) {
+      write(((JSONArenaValue) value).decode());
+    } else {
+      writeOther(value);
+    } // if...else
+  } // write(JSONValue)
+
+  /**
+   * Write an array, straight from its primitive storage if it has one.
+   */
+  void writeArray(JSONArray array) {
+    array.materialize();
+    this.buffer.put(ARRAY);
+    writeVarint(array.size());
+    switch (array.kind) {
+      case JSONArray.GENERIC:
+        for (JSONValue element : array.values) {
+          write(element);
+        } // for
+        break;
+      case JSONArray.LONGS:
+        for (int i = 0; i < array.count; i++) {
+          writeLong(array.longs[i]);
+        } // for
+        break;
+      case JSONArray.DOUBLES:
+        for (int i = 0; i < array.count; i++) {
+          if (JSONArray.isSet(array.integers, i)) {
+            writeLong((long) array.doubles[i]);
+          } else {
+            writeDouble(array.doubles[i]);
+          } // if/else
+        } // for
+        break;
+      case JSONArray.CONSTANTS:
+        for (int i = 0; i < array.count; i++) {
+          this.buffer.put(JSONArray.isSet(array.nulls, i)
+              ? NULL
+              : JSONArray.isSet(array.truths, i) ? TRUE : FALSE);
+        } // for
+        break;
+      default:
+        // No elements
+    } // switch
+  } // writeArray(JSONArray)
+
+  /**
+   * Write the persistent and concurrent hashes and arrays, through
+   * their iterators.
+   */
+  void writeOther(JSONValue value) {
+    if (value instanceof PersistentJSONArray) {
+      PersistentJSONArray array = (PersistentJSONArray) value;
+      this.buffer.put(ARRAY);
+      writeVarint(array.size());
+      Iterator<JSONValue> it = array.iterator();
+      while (it.hasNext()) {
+        write(it.next());
+      } // while
+      return;
+    } // if
+
+    Iterator<KVPair<JSONString, JSONValue>> it;
+    int size;
+    if (value instanceof PersistentJSONHash) {
+      it = ((PersistentJSONHash) value).iterator();
+      size = ((PersistentJSONHash) value).size();
+    } else if (value instanceof ConcurrentJSONHash) {
+      // Take a snapshot, since the size may change as we go
+      JSONHash copy = new JSONHash();
+      Iterator<KVPair<JSONString, JSONValue>> pairs = ((ConcurrentJSONHash) value).iterator();
+      while (pairs.hasNext()) {
+        KVPair<JSONString, JSONValue> pair = pairs.next();
+        copy.set(pair.key(), pair.value());
+      } // while
+      it = copy.iterator();
+      size = copy.size();
+    } else {
+      throw new IllegalArgumentException("Cannot encode " + value.getClass().getName());
+    } // if...else
+    this.buffer.put(HASH);
+    writeVarint(size);
+    while (it.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = it.next();
+      writeKey(pair.key());
+      write(pair.value());
+    } // while
+  } // writeOther(JSONValue)
+
+  /**
+   * Write an integer that fits in a long.
+   */
+  void writeLong(long value) {
+    this.buffer.put(INTEGER);
+    writeVarint(zigzag(value));
+  } // writeLong(long)
+
+  /**
+   * Write a real that fits in a double.
+   */
+  void writeDouble(double value) {
+    long bits = Double.doubleToRawLongBits(value);
+    this.buffer.put(REAL);
+    this.buffer.putLong((this.buffer.order() == ByteOrder.BIG_ENDIAN)
+        ? bits
+        : Long.reverseBytes(bits));
+  } // writeDouble(double)
+
+  /**
+   * Write a key, through the dictionary if there is one.
+   */
+  void writeKey(JSONString key) {
+    if (this.dictionary) {
+      Integer number = this.keyNumbers.get(key);
+      if (number != null) {
+        writeVarint(2L * number + 1);
+        return;
+      } // if
+      this.keyNumbers.put(key, this.keyNumbers.size());
+    } // if
+    String str = key.getValue();
+    writeVarint(2L * utf8Length(str));
+    writeUtf8(str);
+  } // writeKey(JSONString)
+
+  /**
+   * Write a string's length and UTF-8 bytes.
+   */
+  void writeString(String str) {
+    writeVarint(utf8Length(str));
+    writeUtf8(str);
+  } // writeString(String)
+
+  /**
+   * Write a length and that many bytes.
+   */
+  void writeBytes(byte[] bytes) {
+    writeVarint(bytes.length);
+    this.buffer.put(bytes);
+  } // writeBytes(byte[])
+
+  /**
+   * Write a non-negative number, seven bits at a time, low bits first;
+   * the high bit of a byte says that more follow.
+   */
+  void writeVarint(long value) {
+    while ((value & ~0x7FL) != 0) {
+      this.buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    } // while
+    this.buffer.put((byte) value);
+  } // writeVarint(long)
+
+  /**
+   * Write a string as UTF-8, straight into the buffer. A surrogate
+   * without its partner gets three bytes, like any other char below
+   * 0x10000, rather than the '?' of String.getBytes.
+   */
+  void writeUtf8(String str) {
+    ByteBuffer out = this.buffer;
+    int n = str.length();
+    for (int i = 0; i < n; i++) {
+      char ch = str.charAt(i);
+      if (ch < 0x80) {
+        out.put((byte) ch);
+      } else if (ch < 0x800) {
+        out.put((byte) (0xC0 | (ch >> 6)));
+        out.put((byte) (0x80 | (ch & 0x3F)));
+      } else if (Character.isHighSurrogate(ch) && i + 1 < n
+          && Character.isLowSurrogate(str.charAt(i + 1))) {
+        int code = Character.toCodePoint(ch, str.charAt(++i));
+        out.put((byte) (0xF0 | (code >> 18)));
+        out.put((byte) (0x80 | ((code >> 12) & 0x3F)));
+        out.put((byte) (0x80 | ((code >> 6) & 0x3F)));
+        out.put((byte) (0x80 | (code & 0x3F)));
+      } else {
+        out.put((byte) (0xE0 | (ch >> 12)));
+        out.put((byte) (0x80 | ((ch >> 6) & 0x3F)));
+        out.put((byte) (0x80 | (ch & 0x3F)));
+      } // if...else
+    } // for
+  } // writeUtf8(String)
+
+  /**
+   * Count the bytes of a string in UTF-8, as writeUtf8 writes it.
+   */
+  static int utf8Length(String str) {
+    int n = str.length();
+    int len = n;
+    for (int i = 0; i < n; i++) {
+      char ch = str.charAt(i);
+      if (ch >= 0x80) {
+        if (ch < 0x800) {
+          len += 1;
+        } else {
+          // Three bytes, or four for two chars
+          len += 2;
+          if (Character.isHighSurrogate(ch) && i + 1 < n
+              && Character.isLowSurrogate(str.charAt(i + 1))) {
+            i++;
+          } // if
+        } // if/else
+      } // if
+    } // for
+    return len;
+  } // utf8Length(String)
+
+  /**
+   * Map a signed number to an unsigned one, small magnitudes to small
+   * numbers.
+   */
+  static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  } // zigzag(long)
+
+  // +----------+----------------------------------------------------
+  // | Decoding |
+  // +----------+
+
+  /**
+   * Read a value.
+   */
+  JSONValue read() throws ParseException {
+    int at = this.buffer.position();
+    byte tag = this.buffer.get();
+    switch (tag) {
+      case NULL:
+        return JSONConstant.NULL;
+      case FALSE:
+        return JSONConstant.FALSE;
+      case TRUE:
+        return JSONConstant.TRUE;
+      case INTEGER:
+        return new JSONInteger(unzigzag(readVarint()));
+      case BIG_INTEGER:
+        return new JSONInteger(new BigInteger(readBytes()));
+      case REAL:
+        long bits = this.buffer.getLong();
+        return new JSONReal(Double.longBitsToDouble((this.buffer.order() == ByteOrder.BIG_ENDIAN)
+            ? bits
+            : Long.reverseBytes(bits)));
+      case BIG_REAL:
+        long scale = unzigzag(readVarint());
+        if (scale != (int) scale) {
+          throw new ParseException("Invalid scale", at + 1);
+        } // if
+        return new JSONReal(new BigDecimal(new BigInteger(readBytes()), (int) scale));
+      case STRING:
+        return new JSONString(readUtf8(readLength()));
+      case ARRAY:
+        int count = readLength();
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < count; i++) {
+          array.add(read());
+        } // for
+        return array;
+      case HASH:
+        int size = readLength();
+        JSONHash hash = new JSONHash(JSONShape.root(), Math.max(size, 1));
+        for (int i = 0; i < size; i++) {
+          JSONString key = readKey();
+          hash.set(key, read());
+        } // for
+        return hash;
+      default:
+        throw new ParseException("Invalid tag " + tag, at);
+    } // switch
+  } // read()
+
+  /**
+   * Read a key, through the dictionary if there is one.
+   */
+  JSONString readKey() throws ParseException {
+    int at = this.buffer.position();
+    long n = readVarint();
+    if ((n & 1) != 0) {
+      if (!this.dictionary || (n >>> 1) >= this.keyCount) {
+        throw new ParseException("Invalid key number", at);
+      } // if
+      return this.keys[(int) (n >>> 1)];
+    } // if
+    if ((n >>> 1) > this.buffer.remaining()) {
+      throw new ParseException("Invalid length", at);
+    } // if
+    JSONString key = new JSONString(readUtf8((int) (n >>> 1)));
+    if (this.dictionary) {
+      if (this.keyCount == this.keys.length) {
+        JSONString[] newKeys = new JSONString[2 * this.keyCount];
+        System.arraycopy(this.keys, 0, newKeys, 0, this.keyCount);
+        this.keys = newKeys;
+      } // if
+      this.keys[this.keyCount++] = key;
+    } // if
+    return key;
+  } // readKey()
+
+  /**
+   * Read a length and that many bytes of a big number, which has at
+   * least one.
+   */
+  byte[] readBytes() throws ParseException {
+    int at = this.buffer.position();
+    int len = readLength();
+    if (len == 0) {
+      throw new ParseException("Empty number", at);
+    } // if
+    byte[] bytes = new byte[len];
+    this.buffer.get(bytes);
+    return bytes;
+  } // readBytes()
+
+  /**
+   * Read len bytes of UTF-8 as writeUtf8 writes it. A heap buffer is
+   * decoded in place. The three bytes of a lone surrogate (0xED, then
+   * 0xA0 to 0xBF, then a continuation byte) are never valid UTF-8, so
+   * we pick those out and leave the rest to the standard decoder.
+   */
+  String readUtf8(int len) {
+    ByteBuffer in = this.buffer;
+    byte[] bytes;
+    int start;
+    if (in.hasArray()) {
+      bytes = in.array();
+      start = in.arrayOffset() + in.position();
+      in.position(in.position() + len);
+    } else {
+      bytes = new byte[len];
+      in.get(bytes);
+      start = 0;
+    } // if/else
+    int end = start + len;
+    StringBuilder str = null;
+    int from = start;
+    for (int i = start; i < end - 2; i++) {
+      if (bytes[i] == (byte) 0xED && (bytes[i + 1] & 0xE0) == 0xA0
+          && (bytes[i + 2] & 0xC0) == 0x80) {
+        if (str == null) {
+          str = new StringBuilder(len);
+        } // if
+        str.append(new String(bytes, from, i - from, StandardCharsets.UTF_8));
+        str.append((char) (0xD000 | ((bytes[i + 1] & 0x3F) << 6) | (bytes[i + 2] & 0x3F)));
+        i += 2;
+        from = i + 1;
+      } // if
+    } // for
+    if (str == null) {
+      return new String(bytes, start, len, StandardCharsets.UTF_8);
+    } // if
+    return str.append(new String(bytes, from, end - from, StandardCharsets.UTF_8)).toString();
+  } // readUtf8(int)
+
+  /**
+   * Read a length, which must fit in what is left. A varint of ten bytes
+   * can set the sign bit, so a negative length is rejected too.
+   */
+  int readLength() throws ParseException {
+    int at = this.buffer.position();
+    long len = readVarint();
+    if (len < 0 || len > this.buffer.remaining()) {
+      throw new ParseException("Invalid length", at);
+    } // if
+    return (int) len;
+  } // readLength()
+
+  /**
+   * Read a number written by writeVarint.
+   */
+  long readVarint() throws ParseException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = this.buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      } // if
+    } // for
+    throw new ParseException("Varint too long", this.buffer.position());
+  } // readVarint()
+
+  /**
+   * Undo zigzag.
+   */
+  static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  } // unzigzag(long)
+} // class JSONBinary
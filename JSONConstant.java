@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.io.PrintWriter;
 
 /**
@@ -91,10 +92,22 @@ public class JSONConstant implements JSONValue {
    * Write the value as JSON.
    */
   public void writeJSON(PrintWriter pen) {
-    pen.print(this.toString());
-    pen.flush();
+    JSONGenerator.write(this, pen);
   } // writeJSON(PrintWriter)
 
+  /**
+   * Write the value through a generator.
+   */
+  public void writeJSON(JSONGenerator gen) throws IOException {
+    if (this.value == null) {
+      gen.writeNull();
+    } else if (this.value instanceof Boolean) {
+      gen.writeBoolean((Boolean) this.value);
+    } else {
+      gen.writeRawValue(this.toString());
+    } // if...else
+  } // writeJSON(JSONGenerator)
+
   /**
    * Get the underlying value.
    */
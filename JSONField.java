@@ -0,0 +1,106 @@
+/**
+ * A key to look up again and again in many hashes, such as a field of
+ * every record in a stream. The position of the key in the shape of the
+ * last hash it was used on is remembered, so for the next hash with the
+ * same shape, getting the value is one comparison and one array access.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONField {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The key.
+   */
+  JSONString key;
+
+  /**
+   * The last shape we looked in and where the key was, or null.
+   */
+  Cached cached;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a field for a key.
+   */
+  public JSONField(JSONString key) {
+    this.key = key;
+    this.cached = null;
+  } // JSONField(JSONString)
+
+  /**
+   * Create a field for a key.
+   */
+  public JSONField(String key) {
+    this(new JSONString(key));
+  } // JSONField(String)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the value of the field in hash.
+   *
+   * @param hash the hash to look in
+   * @return the value
+   * @throws IndexOutOfBoundsException if hash does not have the key
+   */
+  public JSONValue get(JSONHash hash) {
+    JSONShape shape = hash.shape;
+    if (shape == null) {
+      return hash.get(this.key);
+    } // if
+    Cached last = this.cached;
+    if (last != null && last.shape == shape) {
+      return hash.vals[last.position];
+    } // if
+    int position = shape.find(this.key);
+    if (position < 0) {
+      throw new IndexOutOfBoundsException("Invalid key: " + this.key);
+    } // if
+    this.cached = new Cached(shape, position);
+    return hash.vals[position];
+  } // get(JSONHash)
+
+  /**
+   * Get the key.
+   */
+  public JSONString key() {
+    return this.key;
+  } // key()
+
+  // +----------------+----------------------------------------------
+  // | Nested classes |
+  // +----------------+
+
+  /**
+   * A shape and the position of the key in it. The two are kept in one
+   * object so that threads sharing a field never see one without the other.
+   */
+  static class Cached {
+    /**
+     * The shape.
+     */
+    final JSONShape shape;
+
+    /**
+     * The position of the key in shape.
+     */
+    final int position;
+
+    /**
+     * Remember where the key is in shape.
+     */
+    Cached(JSONShape shape, int position) {
+      this.shape = shape;
+      this.position = position;
+    } // Cached(JSONShape, int)
+  } // class Cached
+} // class JSONField
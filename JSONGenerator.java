@@ -0,0 +1,354 @@
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Writes JSON text one token at a time, so JSON can be produced from a
+ * tree of values (writeValue) or straight from a program's own data,
+ * without a tree at all. The generator supplies the commas and colons
+ * and checks that the calls make sense (a field name only directly in
+ * an object, every end matching its start). Values written one after
+ * another at the top level go on separate lines, as in JSON Lines.
+ *
+ * Subclasses decide where the text goes; this class holds the parts that
+ * do not depend on it. Output is buffered and only passed on when the
+ * buffer fills, or on flush or close.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public abstract class JSONGenerator implements Closeable, Flushable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * At the top level, before any value.
+   */
+  static final byte TOP = 0;
+
+  /**
+   * At the top level, after a value.
+   */
+  static final byte TOP_AFTER = 1;
+
+  /**
+   * In an array, before any element.
+   */
+  static final byte ARRAY_EMPTY = 2;
+
+  /**
+   * In an array, after an element.
+   */
+  static final byte ARRAY = 3;
+
+  /**
+   * In an object, before any field.
+   */
+  static final byte OBJECT_EMPTY = 4;
+
+  /**
+   * In an object, after a field's value.
+   */
+  static final byte OBJECT = 5;
+
+  /**
+   * In an object, after a field's name.
+   */
+  static final byte FIELD = 6;
+
+  /**
+   * How each ASCII character is escaped in a string: 0 if it is not, 'u'
+   * if it takes a backslash, u, and four hex digits, and otherwise the
+   * letter that follows the backslash.
+   */
+  static final byte[] ESCAPES = new byte[128];
+
+  static {
+    for (int ch = 0; ch < 0x20; ch++) {
+      ESCAPES[ch] = 'u';
+    } // for
+    ESCAPES['"'] = '"';
+    ESCAPES['\\'] = '\\';
+    ESCAPES['\n'] = 'n';
+    ESCAPES['\r'] = 'r';
+    ESCAPES['\t'] = 't';
+    ESCAPES['\b'] = 'b';
+    ESCAPES['\f'] = 'f';
+  } // static
+
+  /**
+   * The digits of hexadecimal.
+   */
+  static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where we are in each array or object still open, innermost last;
+   * contexts[0] is the top level.
+   */
+  byte[] contexts = new byte[16];
+
+  /**
+   * The number of arrays and objects still open.
+   */
+  int depth;
+
+  /**
+   * Scratch space for formatting numbers.
+   */
+  byte[] digits = new byte[JSONNumbers.MAX_LENGTH];
+
+  // +------------------+--------------------------------------------
+  // | Abstract methods |
+  // +------------------+
+
+  /**
+   * Write a character that needs no escaping.
+   */
+  abstract void raw(char ch) throws IOException;
+
+  /**
+   * Write a string of characters that need no escaping.
+   */
+  abstract void raw(String str) throws IOException;
+
+  /**
+   * Write the first len bytes of ascii, which need no escaping.
+   */
+  abstract void raw(byte[] ascii, int len) throws IOException;
+
+  /**
+   * Write a string in quotes, escaping what JSON requires.
+   */
+  abstract void quoted(String str) throws IOException;
+
+  /**
+   * Pass on everything written so far.
+   */
+  public abstract void flush() throws IOException;
+
+  /**
+   * Pass on everything written so far and close the destination.
+   */
+  public abstract void close() throws IOException;
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Write value as JSON to pen, flushing it once at the end.
+   */
+  static void write(JSONValue value, PrintWriter pen) {
+    try {
+      JSONGenerator gen = new JSONWriterGenerator(pen);
+      value.writeJSON(gen);
+      gen.flush();
+    } catch (IOException e) {
+      // PrintWriter keeps its errors to itself, so this cannot happen
+      throw new UncheckedIOException(e);
+    } // try/catch
+  } // write(JSONValue, PrintWriter)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Write a whole value.
+   */
+  public void writeValue(JSONValue value) throws IOException {
+    value.writeJSON(this);
+  } // writeValue(JSONValue)
+
+  /**
+   * Start an object.
+   */
+  public void writeStartObject() throws IOException {
+    beforeValue();
+    push(OBJECT_EMPTY);
+    raw('{');
+  } // writeStartObject()
+
+  /**
+   * End the innermost object.
+   */
+  public void writeEndObject() throws IOException {
+    byte context = this.contexts[this.depth];
+    if (context != OBJECT && context != OBJECT_EMPTY) {
+      throw new IllegalStateException("Not in an object");
+    } // if
+    this.depth--;
+    raw('}');
+  } // writeEndObject()
+
+  /**
+   * Start an array.
+   */
+  public void writeStartArray() throws IOException {
+    beforeValue();
+    push(ARRAY_EMPTY);
+    raw('[');
+  } // writeStartArray()
+
+  /**
+   * End the innermost array.
+   */
+  public void writeEndArray() throws IOException {
+    byte context = this.contexts[this.depth];
+    if (context != ARRAY && context != ARRAY_EMPTY) {
+      throw new IllegalStateException("Not in an array");
+    } // if
+    this.depth--;
+    raw(']');
+  } // writeEndArray()
+
+  /**
+   * Write the name of the next field of an object.
+   */
+  public void writeFieldName(String name) throws IOException {
+    switch (this.contexts[this.depth]) {
+      case OBJECT:
+        raw(',');
+        break;
+      case OBJECT_EMPTY:
+        break;
+      default:
+        throw new IllegalStateException("Field name outside an object");
+    } // switch
+    this.contexts[this.depth] = FIELD;
+    quoted(name);
+    raw(':');
+  } // writeFieldName(String)
+
+  /**
+   * Write a string.
+   */
+  public void writeString(String str) throws IOException {
+    beforeValue();
+    quoted(str);
+  } // writeString(String)
+
+  /**
+   * Write an integer.
+   */
+  public void writeNumber(long num) throws IOException {
+    beforeValue();
+    raw(this.digits, JSONNumbers.format(num, this.digits, 0));
+  } // writeNumber(long)
+
+  /**
+   * Write a real, in as few digits as read back as the same double.
+   * JSON has no NaN or infinities, so those are refused.
+   */
+  public void writeNumber(double num) throws IOException {
+    if (Double.isNaN(num) || Double.isInfinite(num)) {
+      throw new IllegalArgumentException("Not a JSON number: " + num);
+    } // if
+    beforeValue();
+    raw(this.digits, JSONNumbers.format(num, this.digits, 0));
+  } // writeNumber(double)
+
+  /**
+   * Write a big integer.
+   */
+  public void writeNumber(BigInteger num) throws IOException {
+    beforeValue();
+    raw(num.toString());
+  } // writeNumber(BigInteger)
+
+  /**
+   * Write a big real.
+   */
+  public void writeNumber(BigDecimal num) throws IOException {
+    beforeValue();
+    raw(JSONNumbers.toString(num));
+  } // writeNumber(BigDecimal)
+
+  /**
+   * Write true or false.
+   */
+  public void writeBoolean(boolean bool) throws IOException {
+    beforeValue();
+    raw(bool ? "true" : "false");
+  } // writeBoolean(boolean)
+
+  /**
+   * Write null.
+   */
+  public void writeNull() throws IOException {
+    beforeValue();
+    raw("null");
+  } // writeNull()
+
+  /**
+   * Write text that is already JSON, as a value, without checking it.
+   */
+  public void writeRawValue(String json) throws IOException {
+    beforeValue();
+    raw(json);
+  } // writeRawValue(String)
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Write a hash, array or string from cached output, if we keep any and
+   * have it. If not, the value writes itself and then calls written.
+   */
+  boolean writeCached(JSONValue value) throws IOException {
+    return false;
+  } // writeCached(JSONValue)
+
+  /**
+   * Note that a value has finished writing itself.
+   */
+  void written(JSONValue value) {
+  } // written(JSONValue)
+
+  /**
+   * Write whatever must come before a value, and note that it has come.
+   */
+  void beforeValue() throws IOException {
+    switch (this.contexts[this.depth]) {
+      case TOP:
+        this.contexts[this.depth] = TOP_AFTER;
+        break;
+      case TOP_AFTER:
+        raw('\n');
+        break;
+      case ARRAY_EMPTY:
+        this.contexts[this.depth] = ARRAY;
+        break;
+      case ARRAY:
+        raw(',');
+        break;
+      case FIELD:
+        this.contexts[this.depth] = OBJECT;
+        break;
+      default:
+        throw new IllegalStateException("Value where a field name belongs");
+    } // switch
+  } // beforeValue()
+
+  /**
+   * Open an array or object.
+   */
+  void push(byte context) {
+    if (++this.depth == this.contexts.length) {
+      byte[] newContexts = new byte[2 * this.depth];
+      System.arraycopy(this.contexts, 0, newContexts, 0, this.depth);
+      this.contexts = newContexts;
+    } // if
+    this.contexts[this.depth] = context;
+  } // push(byte)
+} // class JSONGenerator
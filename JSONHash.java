@@ -1,12 +1,42 @@
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.Random;
+import java.util.TreeMap;
 
 /**
  * JSON hashes/objects.
+ *
+ * The keys and values are kept in two parallel arrays, in the order they
+ * were first set, so iterating is a walk down the arrays. To find a key we
+ * use a separate open-addressing index: each slot holds one more than the
+ * position of an entry in the arrays, or 0 if the slot is empty, and
+ * collisions move on to the next slot.
+ *
+ * Hashes built by a parser start out shaped: their keys and index belong
+ * to a JSONShape shared by every hash with the same keys in the same
+ * order, and only the values are their own. Adding a key moves such a
+ * hash to the next shape; if there is none to move to, the hash takes
+ * its own copy of the keys and carries on as above.
+ *
+ * Most hashes have only a few keys, and for those an index costs more
+ * than it saves: a hash (or shape) with room for at most SMALL keys has
+ * no index at all, and finds a key by scanning keys, comparing cached
+ * hash codes before strings. It gets an index when it grows past SMALL.
+ *
+ * Keys are placed by their seeded hash, so a payload cannot be made ahead
+ * of time whose keys all land together. Should a run of full slots still
+ * grow past MAX_PROBES, the hash drops its index for a balanced tree
+ * ordered by key, so that no key costs more than a logarithmic number of
+ * comparisons to find.
+ *
+ * A lazy hash (one made from a JSONTape) may be read from several
+ * threads at once, as a fully decoded one may: the lazy methods lock the
+ * hash, and materialize fills in the table before it publishes it by
+ * clearing tape.
  * 
  * @author SamR (starter code)
  * @author Lydia Ye
@@ -19,10 +49,32 @@ public class JSONHash implements JSONValue {
   // +-----------+
 
   /**
-   * The load factor for expanding the table.
+   * The largest fraction of the index that may be in use.
    */
   static final double LOAD_FACTOR = 0.5;
-  static final int INITIAL_CAPACITY = 41;
+
+  /**
+   * The number of entries we make room for at first.
+   */
+  static final int INITIAL_CAPACITY = 4;
+
+  /**
+   * The most keys we keep without an index.
+   */
+  static final int SMALL = 8;
+
+  /**
+   * The longest run of full slots we step over before giving up on the
+   * index. With good hashing and a half-empty index, runs this long are
+   * vanishingly rare.
+   */
+  static final int MAX_PROBES = 128;
+
+  /**
+   * The order of keys in a tree.
+   */
+  static final Comparator<JSONString> KEY_ORDER =
+      (a, b) -> a.getValue().compareTo(b.getValue());
 
 
   // +--------+------------------------------------------------------
@@ -30,22 +82,73 @@ public class JSONHash implements JSONValue {
   // +--------+
 
   /**
-   * The number of values currently stored in the hash table. We use this to determine when to
-   * expand the hash table.
+   * The number of key/value pairs currently stored.
    */
   int size = 0;
 
   /**
-   * The array that we use to store the ArrayList of key/value pairs. (We use an array, rather than
-   * an ArrayList, because we want to control expansion and ArrayLists of ArrayLists are just
-   * weird.)
+   * The keys, in the order they were first set.
+   */
+  JSONString[] keys;
+
+  /**
+   * The values, parallel to keys.
+   */
+  JSONValue[] vals;
+
+  /**
+   * The open-addressing index into keys and vals, or null if we scan
+   * keys instead (or use tree). Its length is a power of two.
+   */
+  int[] index;
+
+  /**
+   * The positions of the keys, if we have given up on index (which is
+   * then null), or null.
+   */
+  TreeMap<JSONString, Integer> tree;
+
+  /**
+   * The shape that keys and index belong to, or null if they are our own.
+   */
+  JSONShape shape;
+
+  /**
+   * The tape we decode this hash from, or null if the hash has been fully
+   * decoded (or was never lazy).
+   */
+  volatile JSONTape tape;
+
+  /**
+   * Our entry in the tape.
    */
-  Object[] buckets;
+  int entry;
 
   /**
-   * Our helpful random number generator, used primarily when expanding the size of the table.
+   * The tape entries of our keys and values (alternating), once we need them.
    */
-  Random rand;
+  int[] lazyEntries;
+
+  /**
+   * The values decoded so far, one slot per field.
+   */
+  JSONValue[] lazyValues;
+
+  /**
+   * The number of different keys, once we have counted them, or -1.
+   */
+  int lazySize = -1;
+
+  /**
+   * The hash or array we were last written inside, for passing changes
+   * on to its cached output; JSONWriteCache.SHARED if more than one.
+   */
+  Object parent;
+
+  /**
+   * Our cached output, or null.
+   */
+  JSONWriteCache.Entry cached;
 
   // +--------------+------------------------------------------------
   // | Constructors |
@@ -55,11 +158,37 @@ public class JSONHash implements JSONValue {
    * Create a new hash table.
    */
   public JSONHash() {
-    this.rand = new Random();
-    this.buckets = new Object[INITIAL_CAPACITY];
-    this.size = 0;
+    this(INITIAL_CAPACITY);
   } // JSONHash
 
+  /**
+   * Create a new hash table with room for expectedSize pairs, so that it
+   * does not grow until more than that are set.
+   */
+  public JSONHash(int expectedSize) {
+    allocate(Math.max(1, expectedSize));
+  } // JSONHash(int)
+
+  /**
+   * Create a new hash that starts at a shape, with room for expectedSize
+   * values.
+   */
+  JSONHash(JSONShape shape, int expectedSize) {
+    this.shape = shape;
+    this.keys = shape.keys;
+    this.index = shape.index;
+    this.vals = new JSONValue[Math.max(shape.size(), expectedSize)];
+    this.size = shape.size();
+  } // JSONHash(JSONShape, int)
+
+  /**
+   * Create a hash that is decoded lazily from a tape.
+   */
+  JSONHash(JSONTape tape, int entry) {
+    this.tape = tape;
+    this.entry = entry;
+  } // JSONHash(JSONTape, int)
+
   // +-------------------------+-------------------------------------
   // | Standard object methods |
   // +-------------------------+
@@ -68,38 +197,53 @@ public class JSONHash implements JSONValue {
    * Convert to a string (e.g., for printing).
    */
   public String toString() {
-
-    String str = "{";
+    StringBuilder str = new StringBuilder("{");
     Iterator<KVPair<JSONString, JSONValue>> it = getValue();
 
     while (it.hasNext()) {
       KVPair<JSONString, JSONValue> next = it.next();
-      str += next.key() + ": " + next.value() + ", ";
+      if (str.length() > 1) {
+        str.append(", ");
+      } // if
+      str.append(next.key()).append(": ").append(next.value());
     } // while
 
-    if (str.length() > 1) {
-      str = str.substring(0, str.length() - 2);
-    } // if
-
-    return str + "}";
+    return str.append('}').toString();
   } // toString()
 
   /**
-   * Compare to another object.
+   * Compare to another object. Two hashes are equal when they have the
+   * same keys with equal values, whatever order the keys were set in.
    */
   public boolean equals(Object other) {
-    if (other instanceof JSONHash) {
-      return Arrays.equals(this.buckets, ((JSONHash) other).buckets);
-    } else {
+    if (!(other instanceof JSONHash)) {
       return false;
-    } // if/else
+    } // if
+    JSONHash hash = (JSONHash) other;
+    this.materialize();
+    hash.materialize();
+    if (this.size != hash.size) {
+      return false;
+    } // if
+    for (int i = 0; i < this.size; i++) {
+      int j = hash.find(this.keys[i]);
+      if (j < 0 || !this.vals[i].equals(hash.vals[j])) {
+        return false;
+      } // if
+    } // for
+    return true;
   } // equals(Object)
 
   /**
-   * Compute the hash code.
+   * Compute the hash code, which does not depend on the order of the keys.
    */
   public int hashCode() {
-    return this.buckets.hashCode();
+    this.materialize();
+    int code = 0;
+    for (int i = 0; i < this.size; i++) {
+      code += this.keys[i].hashCode() ^ this.vals[i].hashCode();
+    } // for
+    return code;
   } // hashCode()
 
   // +--------------------+------------------------------------------
@@ -110,10 +254,26 @@ public class JSONHash implements JSONValue {
    * Write the value as JSON.
    */
   public void writeJSON(PrintWriter pen) {
-    pen.print(this.toString());
-    pen.flush();
+    JSONGenerator.write(this, pen);
   } // writeJSON(PrintWriter)
 
+  /**
+   * Write the value through a generator.
+   */
+  public void writeJSON(JSONGenerator gen) throws IOException {
+    if (gen.writeCached(this)) {
+      return;
+    } // if
+    this.materialize();
+    gen.writeStartObject();
+    for (int i = 0; i < this.size; i++) {
+      gen.writeFieldName(this.keys[i].getValue());
+      this.vals[i].writeJSON(gen);
+    } // for
+    gen.writeEndObject();
+    gen.written(this);
+  } // writeJSON(JSONGenerator)
+
   /**
    * Get the underlying value.
    */
@@ -126,177 +286,351 @@ public class JSONHash implements JSONValue {
   // +-------------------+
 
   /**
-   * Get the value for a particular key.
+   * Get the value for a particular key. Keys from a JSONKeyTable that
+   * the hash was parsed with are found by reference.
    */
-  @SuppressWarnings("unchecked")
   public JSONValue get(JSONString key) {
-    int index = find(key);
-    ArrayList<KVPair<JSONString, JSONValue>> alist =
-        (ArrayList<KVPair<JSONString, JSONValue>>) buckets[index];
-
-    // Don't even search for it in the bucket b/c bucket is null
-    if (alist == null) {
-      throw new IndexOutOfBoundsException("Invalid key: " + key);
-    } else {
-      // loop through all elements in the bucket
-      for (int i = 0; i < alist.size(); i++) {
-        if (alist.get(i).key().equals(key)) {
-          KVPair<JSONString, JSONValue> pair = alist.get(i);
-          return pair.value();
-        } // if we found the target key in the bucket
-      } // for
-      // If key does not exist in bucket after searching for it (invalid key)
+    if (this.tape != null) {
+      return lazyGet(key);
+    } // if
+    int i = find(key);
+    if (i < 0) {
       throw new IndexOutOfBoundsException("Invalid key: " + key);
-    } // if...else
+    } // if
+    return this.vals[i];
   } // get(JSONString)
 
   /**
-   * Find the index of the entry with a given key. If there is no such entry, return the index of an
-   * entry we can use to store that key.
+   * Find the position in keys of a given key, or -1 if it is not there.
    */
   int find(JSONString key) {
-    return Math.abs(key.hashCode()) % this.buckets.length;
+    if (this.tree != null) {
+      Integer i = this.tree.get(key);
+      return (i == null) ? -1 : i;
+    } else if (this.index == null) {
+      return scan(this.keys, this.size, key);
+    } // if...else
+    int mask = this.index.length - 1;
+    for (int slot = key.seededHash() & mask; ; slot = (slot + 1) & mask) {
+      int i = this.index[slot] - 1;
+      if (i < 0 || this.keys[i] == key || this.keys[i].equals(key)) {
+        return i;
+      } // if
+    } // for
   } // find(JSONString)
 
   /**
-   * Get all of the key/value pairs.
+   * Get all of the key/value pairs, in the order the keys were first set.
    */
-  @SuppressWarnings("unchecked")
   public Iterator<KVPair<JSONString, JSONValue>> iterator() {
+    this.materialize();
     return new Iterator<KVPair<JSONString, JSONValue>>() {
-      // The position in the array of buckets
-      int outerIndex = 0; 
-      // The position in the arraylist of current bucket
-      int innerIndex = 0; 
+      // The position of the next pair
+      int i = 0;
 
       /**
        * Determine if the hash (hash table) has a next element (KVPair).
        */
       public boolean hasNext() {
-        if (outerIndex >= buckets.length) {
-          // If the position is out of bound of the array of buckets
-          return false;
-        } // if
-
-        // If the current bucket is null
-        if (buckets[outerIndex] == null) {
-          for (int i = outerIndex + 1; i < buckets.length; i++) {
-            if (buckets[i] != null) {
-              // If we found next nonempty bucket
-              return true; 
-            } // if
-          } // for
-          // If all subsequent buckets are null too
-          return false; 
-        } // if
-
-        return true;
+        return i < size;
       } // hasNext()
 
       /**
-       * Return the next element (KVPair) in the hash (hash table) and 
-       * prepare the iterator for the next next call by making it point to 
-       * the next, next element.
+       * Return the next element (KVPair) in the hash (hash table).
        */
       public KVPair<JSONString, JSONValue> next() throws NoSuchElementException {
         if (!this.hasNext()) {
           throw new NoSuchElementException();
         } // if
-
-        // If the current bucket is null (can only happen when calling next() for the first time)
-        if (buckets[outerIndex] == null) {
-          // Find the index of next nonempty bucket
-          do {
-            outerIndex++;
-          } while (buckets[outerIndex] == null);
-          innerIndex = 0;
-        } // if
-
-        ArrayList<KVPair<JSONString, JSONValue>> alist =
-            (ArrayList<KVPair<JSONString, JSONValue>>) buckets[outerIndex];
-        KVPair<JSONString, JSONValue> next = alist.get(innerIndex);
-
-        if (innerIndex < alist.size() - 1) {
-          // if the current KVPair is not the last one in the bucket
-          innerIndex++;
-        } else {
-          // If the current KVPair is the last one in the current bucket, we advance
-          // the outerIndex to the next nonempty bucket
-          do {
-            outerIndex++;
-          } while (outerIndex < buckets.length && buckets[outerIndex] == null);
-          innerIndex = 0;
-        } // if/else
+        KVPair<JSONString, JSONValue> next =
+            new KVPair<JSONString, JSONValue>(keys[i], vals[i]);
+        i++;
         return next;
       } // next()
-    }; // new Iterator for buckets
+    }; // new Iterator for the entries
   } // iterator()
 
   /**
-   * Set a value associated with a key.
+   * Set a value associated with a key, replacing any value it had.
    */
-  @SuppressWarnings("unchecked")
   public void set(JSONString key, JSONValue value) {
-    // If there are too many entries, expand the table.
-    if (this.size > (this.buckets.length * LOAD_FACTOR)) {
-      expand();
-    } // if there are too many entries
-
-    // Find out where the key belongs and put the pair there.
-    int index = find(key);
-    ArrayList<KVPair<JSONString, JSONValue>> alist =
-        (ArrayList<KVPair<JSONString, JSONValue>>) this.buckets[index];
-
-    // Special case: Nothing there yet
-    if (alist == null) {
-      alist = new ArrayList<KVPair<JSONString, JSONValue>>();
-      this.buckets[index] = alist;
+    this.materialize();
+    changed();
+    if (this.tree != null) {
+      Integer i = this.tree.get(key);
+      if (i != null) {
+        this.vals[i] = value;
+        return;
+      } // if
+      if (this.size == this.keys.length) {
+        rehash(2 * this.keys.length);
+      } // if
+      this.keys[this.size] = key;
+      this.vals[this.size] = value;
+      this.tree.put(key, this.size++);
+      return;
     } // if
 
-    for (int i = 0; i < alist.size(); i++) {
-      if (alist.get(i).key().equals(key)) {
-        alist.set(i, new KVPair<JSONString, JSONValue>(key, value));
+    int slot = -1;
+    int probes = 0;
+    if (this.index == null) {
+      int i = scan(this.keys, this.size, key);
+      if (i >= 0) {
+        this.vals[i] = value;
+        return;
       } // if
-    } // for
-    alist.add(new KVPair<JSONString, JSONValue>(key, value));
-    ++this.size;
+    } else {
+      int mask = this.index.length - 1;
+      slot = key.seededHash() & mask;
+      while (this.index[slot] != 0) {
+        int i = this.index[slot] - 1;
+        if (this.keys[i] == key || this.keys[i].equals(key)) {
+          this.vals[i] = value;
+          return;
+        } // if
+        slot = (slot + 1) & mask;
+        probes++;
+      } // while
+    } // if/else
 
-    return; 
+    // A new key goes at the end, moving to the next shape if we can
+    if (this.shape != null) {
+      JSONShape next = this.shape.transition(key);
+      if (next != null) {
+        if (this.size == this.vals.length) {
+          this.vals = Arrays.copyOf(this.vals, Math.max(INITIAL_CAPACITY, 2 * this.size));
+        } // if
+        this.shape = next;
+        this.keys = next.keys;
+        this.index = next.index;
+        this.vals[this.size++] = value;
+        return;
+      } // if
+      // Take our own copy of the keys, with room for one more
+      this.shape = null;
+      rehash(Math.max(this.vals.length, this.size + 1));
+      slot = -1;
+    } else if (this.size == this.keys.length) {
+      rehash(2 * this.keys.length);
+      slot = -1;
+    } // if
+    this.keys[this.size] = key;
+    this.vals[this.size] = value;
+    this.size++;
+    if (this.index == null && this.tree == null) {
+      // Small enough to scan; nothing more to do
+    } else if (slot < 0) {
+      // The index changed under us
+      place(this.size - 1);
+    } else if (probes < MAX_PROBES) {
+      this.index[slot] = this.size;
+    } else {
+      treeify();
+    } // if...else
   } // set(JSONString, JSONValue)
 
   /**
-   * Expand the size of the table.
+   * Make room for capacity entries. The entries stay where they are in
+   * keys and vals; only the index is rebuilt (if we still have one).
+   */
+  void rehash(int capacity) {
+    this.keys = Arrays.copyOf(this.keys, capacity);
+    this.vals = Arrays.copyOf(this.vals, capacity);
+    if (this.tree == null) {
+      this.index = (capacity <= SMALL) ? null : new int[indexLength(capacity)];
+      for (int i = 0; this.index != null && i < this.size; i++) {
+        place(i);
+      } // for
+    } // if
+  } // rehash(int)
+
+  /**
+   * Find out how many key/value pairs are in the hash table.
+   */
+  public int size() {
+    if (this.tape != null) {
+      return lazySize();
+    } // if
+    return this.size;
+  } // size()
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Drop any cached output of ours, and of whatever we are inside.
    */
-  @SuppressWarnings("unchecked")
-  void expand() {
-    // Figure out the size of the new table
-    int newSize = 2 * this.buckets.length + rand.nextInt(10);
+  void changed() {
+    if (this.cached != null || this.parent != null) {
+      JSONWriteCache.invalidate(this);
+    } // if
+  } // changed()
 
-    // Remember the old table
-    Object[] oldBuckets = this.buckets;
-    // Create a new table of that size.
-    this.buckets = new Object[newSize]; // new buckets
+  /**
+   * Make empty tables with room for capacity entries.
+   */
+  void allocate(int capacity) {
+    this.keys = new JSONString[capacity];
+    this.vals = new JSONValue[capacity];
+    this.index = (capacity <= SMALL) ? null : new int[indexLength(capacity)];
+    this.tree = null;
     this.size = 0;
+  } // allocate(int)
 
-    // Move each pair in each bucket from the old table to their appropriate
-    // location in the new table.
-    // Cycle through each bucket
-    for (int i = 0; i < oldBuckets.length; i++) { 
-      ArrayList<KVPair<JSONString, JSONValue>> oldBucket =
-          (ArrayList<KVPair<JSONString, JSONValue>>) oldBuckets[i];
-      if (oldBucket != null) {
-        // Cycle through each KVPair in a bucket
-        for (int j = 0; j < oldBucket.size(); j++) { 
-          set(oldBucket.get(j).key(), oldBucket.get(j).value());
-        } // for
+  /**
+   * Put the entry at position i in the index, or in the tree if we have
+   * one (or the index turns out to be too crowded).
+   */
+  void place(int i) {
+    if (this.tree != null) {
+      this.tree.put(this.keys[i], i);
+      return;
+    } // if
+    int mask = this.index.length - 1;
+    int slot = this.keys[i].seededHash() & mask;
+    for (int probes = 0; this.index[slot] != 0; probes++) {
+      if (probes == MAX_PROBES) {
+        treeify();
+        return;
       } // if
+      slot = (slot + 1) & mask;
     } // for
-  } // expand()
+    this.index[slot] = i + 1;
+  } // place(int)
 
   /**
-   * Find out how many key/value pairs are in the hash table.
+   * Find the position of key among the first n of keys, or -1 if it is
+   * not there.
    */
-  public int size() {
-    return this.size();
-  } // size()
+  static int scan(JSONString[] keys, int n, JSONString key) {
+    int code = key.hashCode();
+    for (int i = 0; i < n; i++) {
+      JSONString k = keys[i];
+      if (k == key || (k.hashCode() == code && k.getValue().equals(key.getValue()))) {
+        return i;
+      } // if
+    } // for
+    return -1;
+  } // scan(JSONString[], int, JSONString)
+
+  /**
+   * Give up on the index and find keys through a tree instead.
+   */
+  void treeify() {
+    this.tree = new TreeMap<JSONString, Integer>(KEY_ORDER);
+    for (int i = 0; i < this.size; i++) {
+      this.tree.put(this.keys[i], i);
+    } // for
+    this.index = null;
+  } // treeify()
+
+  /**
+   * Find the length of index needed for capacity entries: the smallest
+   * power of two that keeps the load at most LOAD_FACTOR.
+   */
+  static int indexLength(int capacity) {
+    int needed = (int) Math.ceil(capacity / LOAD_FACTOR);
+    return Math.max(2, Integer.highestOneBit(needed - 1) << 1);
+  } // indexLength(int)
+
+  /**
+   * Mix the high bits of a hash code into the low ones, which are the
+   * ones that pick a slot.
+   */
+  static int spread(int code) {
+    return code ^ (code >>> 16);
+  } // spread(int)
+
+  // +--------------+------------------------------------------------
+  // | Lazy methods |
+  // +--------------+
+
+  /**
+   * Find the tape entries of our keys and values. The caller holds our
+   * lock.
+   */
+  int[] lazyEntries() {
+    if (this.lazyEntries == null) {
+      this.lazyEntries = this.tape.children(this.entry);
+      this.lazyValues = new JSONValue[this.lazyEntries.length / 2];
+    } // if
+    return this.lazyEntries;
+  } // lazyEntries()
+
+  /**
+   * Get the value for a key straight from the tape, decoding only that
+   * value. Keys are compared against the text without decoding them.
+   */
+  synchronized JSONValue lazyGet(JSONString key) {
+    if (this.tape == null) {
+      // Decoded in full since the caller looked
+      return get(key);
+    } // if
+    int[] entries = lazyEntries();
+    // Search from the end, since a repeated key keeps its last value
+    for (int field = entries.length / 2 - 1; field >= 0; field--) {
+      if (this.tape.keyEquals(entries[2 * field], key.getValue())) {
+        if (this.lazyValues[field] == null) {
+          this.lazyValues[field] = this.tape.decode(entries[2 * field + 1]);
+        } // if
+        return this.lazyValues[field];
+      } // if
+    } // for
+    throw new IndexOutOfBoundsException("Invalid key: " + key);
+  } // lazyGet(JSONString)
+
+  /**
+   * Count our different keys, straight from the tape. A repeated key
+   * counts once, as it does once we are decoded.
+   */
+  synchronized int lazySize() {
+    if (this.tape == null) {
+      return this.size;
+    } // if
+    if (this.lazySize < 0) {
+      int[] entries = lazyEntries();
+      HashSet<JSONString> keys = new HashSet<JSONString>();
+      for (int field = 0; field < entries.length / 2; field++) {
+        keys.add((JSONString) this.tape.decode(entries[2 * field]));
+      } // for
+      this.lazySize = keys.size();
+    } // if
+    return this.lazySize;
+  } // lazySize()
+
+  /**
+   * Decode all of our keys and values into the table, reusing any values
+   * that were already decoded. The table is built on the side and only
+   * then made ours, so a reader that finds tape null finds it whole.
+   */
+  void materialize() {
+    if (this.tape == null) {
+      return;
+    } // if
+    synchronized (this) {
+      JSONTape source = this.tape;
+      if (source == null) {
+        return;
+      } // if
+      int[] entries = lazyEntries();
+      JSONValue[] decoded = this.lazyValues;
+      JSONHash table = new JSONHash(Math.max(INITIAL_CAPACITY, decoded.length));
+      for (int field = 0; field < decoded.length; field++) {
+        JSONValue value = decoded[field];
+        if (value == null) {
+          value = source.decode(entries[2 * field + 1]);
+        } // if
+        table.set((JSONString) source.decode(entries[2 * field]), value);
+      } // for
+      this.keys = table.keys;
+      this.vals = table.vals;
+      this.index = table.index;
+      this.tree = table.tree;
+      this.size = table.size;
+      this.lazyEntries = null;
+      this.lazyValues = null;
+      this.tape = null;
+    } // synchronized
+  } // materialize()
 } // class JSONHash
\ No newline at end of file
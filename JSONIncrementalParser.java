@@ -0,0 +1,512 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A parser that is fed UTF-8 bytes as they arrive, for example from a
+ * non-blocking socket, instead of reading them itself. Nothing ever waits
+ * for input: feed takes whatever bytes are available, parses as far as it
+ * can, and remembers where it stopped, including the nesting of the values
+ * being built and the bytes of a string, number, or constant that was cut
+ * off. Each top-level value can be taken with poll as soon as it closes.
+ *
+ * The input may hold any number of top-level values, one after another.
+ * Since a parser holds only its own state, one thread can look after many
+ * parsers, one per connection.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONIncrementalParser {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * Expecting a value.
+   */
+  static final int VALUE = 0;
+
+  /**
+   * Expecting the first element of an array, or its end.
+   */
+  static final int FIRST_ELEMENT = 1;
+
+  /**
+   * Expecting the first key of a hash, or its end.
+   */
+  static final int FIRST_KEY = 2;
+
+  /**
+   * Expecting a key.
+   */
+  static final int KEY = 3;
+
+  /**
+   * Expecting the colon after a key.
+   */
+  static final int COLON = 4;
+
+  /**
+   * Expecting a comma or the end of the enclosing hash or array.
+   */
+  static final int AFTER_VALUE = 5;
+
+  /**
+   * Inside a string.
+   */
+  static final int STRING = 6;
+
+  /**
+   * Inside a number.
+   */
+  static final int NUMBER = 7;
+
+  /**
+   * Inside true, false, or null.
+   */
+  static final int CONSTANT = 8;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * What we expect next.
+   */
+  int state;
+
+  /**
+   * The hashes and arrays being built, outermost first.
+   */
+  JSONValue[] stack;
+
+  /**
+   * The key whose value is being read, for each hash in stack.
+   */
+  JSONString[] keys;
+
+  /**
+   * The number of hashes and arrays being built.
+   */
+  int depth;
+
+  /**
+   * The bytes read so far of the current string, number, or constant.
+   * A string's opening quote is left out.
+   */
+  byte[] token;
+
+  /**
+   * A buffer that wraps token.
+   */
+  ByteBuffer tokenBuf;
+
+  /**
+   * The number of bytes in token.
+   */
+  int tokenLen;
+
+  /**
+   * The position in the input where the current token starts.
+   */
+  long tokenStart;
+
+  /**
+   * Whether the current string is a key.
+   */
+  boolean isKey;
+
+  /**
+   * Whether the last byte of the current string was an unescaped backslash.
+   */
+  boolean escaped;
+
+  /**
+   * The number of bytes fed so far.
+   */
+  long consumed;
+
+  /**
+   * The top-level values that have closed but have not been taken.
+   */
+  ArrayDeque<JSONValue> ready;
+
+  /**
+   * The tokenizer we use to decode each finished token.
+   */
+  JSONUtf8Tokenizer tokens;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a parser that has not been fed anything.
+   */
+  public JSONIncrementalParser() {
+    this.state = VALUE;
+    this.stack = new JSONValue[16];
+    this.keys = new JSONString[16];
+    this.depth = 0;
+    this.token = new byte[64];
+    this.tokenLen = 0;
+    this.consumed = 0;
+    this.ready = new ArrayDeque<JSONValue>();
+    this.tokenBuf = ByteBuffer.wrap(this.token);
+    this.tokens = new JSONUtf8Tokenizer(this.tokenBuf);
+  } // JSONIncrementalParser()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Parse the remaining bytes of chunk, which is left with no bytes
+   * remaining. A multi-byte character may be split between chunks.
+   *
+   * @param chunk the next bytes of the input
+   * @throws ParseException when the input is not valid JSON
+   */
+  public void feed(ByteBuffer chunk) throws ParseException {
+    int i = chunk.position();
+    int end = chunk.limit();
+    long start = this.consumed - i;
+    try {
+      while (i < end) {
+        this.consumed = start + i;
+        switch (this.state) {
+          case STRING:
+            i = scanString(chunk, i, end);
+            break;
+          case NUMBER:
+            i = scanToken(chunk, i, end, true);
+            break;
+          case CONSTANT:
+            i = scanToken(chunk, i, end, false);
+            break;
+          default:
+            byte b = chunk.get(i++);
+            if (!JSON.isWhitespace(b)) {
+              this.consumed = start + i;
+              structural(b);
+            } // if
+        } // switch
+      } // while
+    } finally {
+      this.consumed = start + end;
+      chunk.position(end);
+    } // try/finally
+  } // feed(ByteBuffer)
+
+  /**
+   * Note that the input has ended. A number or constant at the very end
+   * is finished off.
+   *
+   * @throws ParseException when the input stops in the middle of a value
+   */
+  public void finish() throws ParseException {
+    if (this.state == NUMBER || this.state == CONSTANT) {
+      endToken();
+    } // if
+    if (this.state != VALUE || this.depth != 0) {
+      throw new ParseException("Unexpected end of file", position());
+    } // if
+  } // finish()
+
+  /**
+   * Determine if a top-level value is ready to be taken.
+   */
+  public boolean hasValue() {
+    return !this.ready.isEmpty();
+  } // hasValue()
+
+  /**
+   * Take the next top-level value that has closed, or get null if there
+   * is none yet.
+   */
+  public JSONValue poll() {
+    return this.ready.poll();
+  } // poll()
+
+  /**
+   * Get the number of bytes fed so far.
+   */
+  public int position() {
+    return (int) Math.min(this.consumed, Integer.MAX_VALUE);
+  } // position()
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Deal with a byte that is not whitespace and not part of a token.
+   */
+  void structural(byte b) throws ParseException {
+    switch (this.state) {
+      case FIRST_ELEMENT:
+        if (b == ']') {
+          endContainer();
+          return;
+        } // if
+        startValue(b);
+        return;
+      case VALUE:
+        startValue(b);
+        return;
+      case FIRST_KEY:
+        if (b == '}') {
+          endContainer();
+          return;
+        } // if
+        startKey(b);
+        return;
+      case KEY:
+        startKey(b);
+        return;
+      case COLON:
+        if (b != ':') {
+          throw new ParseException("Invalid format for JSONHash", position() - 1);
+        } // if
+        this.state = VALUE;
+        return;
+      default:
+        boolean inHash = this.stack[this.depth - 1] instanceof JSONHash;
+        if (b == ',') {
+          this.state = inHash ? KEY : VALUE;
+        } else if (b == (inHash ? '}' : ']')) {
+          endContainer();
+        } else {
+          throw new ParseException(inHash
+              ? "Invalid format for JSONHash"
+              : "Invalid format for JSONArray", position() - 1);
+        } // if...else
+    } // switch
+  } // structural(byte)
+
+  /**
+   * Start a value whose first byte has been read.
+   */
+  void startValue(byte b) throws ParseException {
+    switch (b) {
+      case '{':
+        push(new JSONHash(JSONShape.root(), JSONHash.INITIAL_CAPACITY));
+        this.state = FIRST_KEY;
+        break;
+      case '[':
+        push(new JSONArray());
+        this.state = FIRST_ELEMENT;
+        break;
+      case '"':
+        startToken(STRING);
+        this.isKey = false;
+        this.escaped = false;
+        break;
+      case 't':
+      case 'f':
+      case 'n':
+        startToken(CONSTANT);
+        this.token[this.tokenLen++] = b;
+        break;
+      case '-':
+      case '0': case '1': case '2': case '3': case '4':
+      case '5': case '6': case '7': case '8': case '9':
+        startToken(NUMBER);
+        this.token[this.tokenLen++] = b;
+        break;
+      default:
+        throw new ParseException("Invalid initial character", position() - 1);
+    } // switch
+  } // startValue(byte)
+
+  /**
+   * Start a key whose first byte has been read.
+   */
+  void startKey(byte b) throws ParseException {
+    if (b != '"') {
+      throw new ParseException("Invalid key for JSONHash", position() - 1);
+    } // if
+    startToken(STRING);
+    this.isKey = true;
+    this.escaped = false;
+  } // startKey(byte)
+
+  /**
+   * Start a token whose first byte has been read.
+   */
+  void startToken(int kind) {
+    this.state = kind;
+    this.tokenLen = 0;
+    this.tokenStart = this.consumed - 1;
+  } // startToken(int)
+
+  /**
+   * Read as much of a string as chunk[i..end) holds. Returns where we
+   * stopped.
+   */
+  int scanString(ByteBuffer chunk, int i, int end) throws ParseException {
+    while (i < end) {
+      if (this.escaped) {
+        this.escaped = false;
+        append(chunk, i, i + 1);
+        i++;
+        continue;
+      } // if
+      int stop = JSONStructuralIndex.nextSpecial(chunk, i, end);
+      append(chunk, i, stop);
+      if (stop == end) {
+        return end;
+      } // if
+      byte b = chunk.get(stop);
+      append(chunk, stop, stop + 1);
+      i = stop + 1;
+      if (b == '\\') {
+        this.escaped = true;
+      } else if (b == '"') {
+        endToken();
+        return i;
+      } else {
+        throw new ParseException("Invalid character in JSONString",
+            (int) (this.tokenStart + this.tokenLen));
+      } // if...else
+    } // while
+    return i;
+  } // scanString(ByteBuffer, int, int)
+
+  /**
+   * Read as much of a number or constant as chunk[i..end) holds. Returns
+   * where we stopped.
+   */
+  int scanToken(ByteBuffer chunk, int i, int end, boolean number) throws ParseException {
+    int stop = i;
+    while (stop < end && (number ? isNumberByte(chunk.get(stop)) : isLetter(chunk.get(stop)))) {
+      stop++;
+    } // while
+    append(chunk, i, stop);
+    if (stop < end) {
+      endToken();
+    } // if
+    return stop;
+  } // scanToken(ByteBuffer, int, int, boolean)
+
+  /**
+   * Decode the token that has just ended and add it where it belongs.
+   */
+  void endToken() throws ParseException {
+    if (this.tokenBuf.array() != this.token) {
+      this.tokenBuf = ByteBuffer.wrap(this.token);
+    } // if
+    // A string's token starts after its opening quote
+    int skipped = (this.state == STRING) ? 1 : 0;
+    this.tokens.reset(this.tokenBuf, this.tokenLen, this.tokenStart + skipped);
+    try {
+      switch (this.state) {
+        case STRING:
+          JSONString str = new JSONString(this.tokens.readString());
+          if (this.isKey) {
+            this.keys[this.depth - 1] = str;
+            this.state = COLON;
+            return;
+          } // if
+          endValue(str);
+          return;
+        case NUMBER:
+          this.tokens.advance();
+          JSONValue number = this.tokens.readNumber(this.token[0]);
+          if (this.tokens.index != this.tokenLen) {
+            throw new ParseException("Invalid format for number", this.tokens.position());
+          } // if
+          endValue(number);
+          return;
+        default:
+          this.tokens.advance();
+          JSONValue constant;
+          if (this.token[0] == 't') {
+            this.tokens.readLiteral("true");
+            constant = JSONConstant.TRUE;
+          } else if (this.token[0] == 'f') {
+            this.tokens.readLiteral("false");
+            constant = JSONConstant.FALSE;
+          } else {
+            this.tokens.readLiteral("null");
+            constant = JSONConstant.NULL;
+          } // if...else
+          if (this.tokens.index != this.tokenLen) {
+            throw new ParseException("Incorrectly written JSONConstant", this.tokens.position());
+          } // if
+          endValue(constant);
+      } // switch
+    } catch (IOException e) {
+      // The bytes are all in memory
+      throw new IllegalStateException(e);
+    } // try/catch
+  } // endToken()
+
+  /**
+   * Put a value that has just closed where it belongs.
+   */
+  void endValue(JSONValue value) {
+    if (this.depth == 0) {
+      this.ready.add(value);
+      this.state = VALUE;
+      return;
+    } // if
+    JSONValue parent = this.stack[this.depth - 1];
+    if (parent instanceof JSONHash) {
+      ((JSONHash) parent).set(this.keys[this.depth - 1], value);
+    } else {
+      ((JSONArray) parent).add(value);
+    } // if/else
+    this.state = AFTER_VALUE;
+  } // endValue(JSONValue)
+
+  /**
+   * Start building a hash or array.
+   */
+  void push(JSONValue container) {
+    if (this.depth == this.stack.length) {
+      this.stack = Arrays.copyOf(this.stack, 2 * this.depth);
+      this.keys = Arrays.copyOf(this.keys, 2 * this.depth);
+    } // if
+    this.stack[this.depth++] = container;
+  } // push(JSONValue)
+
+  /**
+   * Finish the innermost hash or array.
+   */
+  void endContainer() {
+    JSONValue container = this.stack[--this.depth];
+    this.stack[this.depth] = null;
+    this.keys[this.depth] = null;
+    endValue(container);
+  } // endContainer()
+
+  /**
+   * Add chunk[start..end) to token.
+   */
+  void append(ByteBuffer chunk, int start, int end) {
+    int len = end - start;
+    if (this.tokenLen + len > this.token.length) {
+      this.token = Arrays.copyOf(this.token, Math.max(2 * this.token.length, this.tokenLen + len));
+    } // if
+    chunk.get(start, this.token, this.tokenLen, len);
+    this.tokenLen += len;
+  } // append(ByteBuffer, int, int)
+
+  /**
+   * Determine if a byte may be part of a number.
+   */
+  static boolean isNumberByte(byte b) {
+    return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+  } // isNumberByte(byte)
+
+  /**
+   * Determine if a byte is a lowercase letter.
+   */
+  static boolean isLetter(byte b) {
+    return b >= 'a' && b <= 'z';
+  } // isLetter(byte)
+} // class JSONIncrementalParser
@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.math.BigInteger;
 
@@ -15,9 +16,14 @@ public class JSONInteger implements JSONValue {
   // +--------+
 
   /**
-   * The underlying integer.
+   * The underlying integer, when it fits in a long.
    */
-  BigInteger value;
+  long value;
+
+  /**
+   * The underlying integer, when it does not fit in a long (null otherwise).
+   */
+  BigInteger big;
 
   // +--------------+------------------------------------------------
   // | Constructors |
@@ -27,21 +33,27 @@ public class JSONInteger implements JSONValue {
    * Create a new integer given the underlying string.
    */
   public JSONInteger(String str) {
-    this.value = new BigInteger(str);
+    this(new BigInteger(str));
   } // JSONInteger(String)
 
   /**
    * Create a new integer given a BigInteger.
    */
   public JSONInteger(BigInteger value) {
-    this.value = value;
+    if (value.bitLength() < Long.SIZE) {
+      this.value = value.longValue();
+      this.big = null;
+    } else {
+      this.big = value;
+    } // if/else
   } // JSONInteger(BigInteger)
 
   /**
    * Create a new integer given an integer or long.
    */
   public JSONInteger(long l) {
-    this.value = BigInteger.valueOf(l);
+    this.value = l;
+    this.big = null;
   } // JSONInteger(long)
 
   // +-------------------------+-------------------------------------
@@ -52,7 +64,11 @@ public class JSONInteger implements JSONValue {
    * Convert to a string (e.g., for printing).
    */
   public String toString() {
-    return this.value.toString();
+    if (this.big != null) {
+      return this.big.toString();
+    } else {
+      return Long.toString(this.value);
+    } // if/else
   } // toString()
 
   /**
@@ -60,7 +76,11 @@ public class JSONInteger implements JSONValue {
    */
   public boolean equals(Object other) {
     if (other instanceof JSONInteger) {
-      return this.value.equals(((JSONInteger) other).getValue());
+      JSONInteger that = (JSONInteger) other;
+      if (this.big == null && that.big == null) {
+        return this.value == that.value;
+      } // if
+      return this.getValue().equals(that.getValue());
     } else {
       return false;
     } // if/else
@@ -70,7 +90,11 @@ public class JSONInteger implements JSONValue {
    * Compute the hash code.
    */
   public int hashCode() {
-    return this.value.hashCode();
+    if (this.big != null) {
+      return this.big.hashCode();
+    } else {
+      return Long.hashCode(this.value);
+    } // if/else
   } // hashCode()
 
   // +--------------------+------------------------------------------
@@ -81,14 +105,62 @@ public class JSONInteger implements JSONValue {
    * Write the value as JSON.
    */
   public void writeJSON(PrintWriter pen) {
-    pen.print(this.value.toString());
-    pen.flush();
+    JSONGenerator.write(this, pen);
   } // writeJSON(PrintWriter)
 
+  /**
+   * Write the value through a generator.
+   */
+  public void writeJSON(JSONGenerator gen) throws IOException {
+    if (this.big != null) {
+      gen.writeNumber(this.big);
+    } else {
+      gen.writeNumber(this.value);
+    } // if/else
+  } // writeJSON(JSONGenerator)
+
   /**
    * Get the underlying value.
    */
   public BigInteger getValue() {
-    return this.value;
+    if (this.big != null) {
+      return this.big;
+    } else {
+      return BigInteger.valueOf(this.value);
+    } // if/else
   } // getValue()
+
+  // +-----------------+---------------------------------------------
+  // | Primitive views |
+  // +-----------------+
+
+  /**
+   * Determine if the integer fits in a long.
+   */
+  public boolean isLong() {
+    return this.big == null;
+  } // isLong()
+
+  /**
+   * Get the integer as a long. Integers that do not fit keep only their
+   * low 64 bits, as with BigInteger.longValue.
+   */
+  public long longValue() {
+    if (this.big != null) {
+      return this.big.longValue();
+    } else {
+      return this.value;
+    } // if/else
+  } // longValue()
+
+  /**
+   * Get the integer as the nearest double.
+   */
+  public double doubleValue() {
+    if (this.big != null) {
+      return this.big.doubleValue();
+    } else {
+      return (double) this.value;
+    } // if/else
+  } // doubleValue()
 } // class JSONInteger
@@ -0,0 +1,138 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A table of canonical keys for hashes, shared by any number of parsers
+ * (on any number of threads). A parser that uses a table looks each key up
+ * straight from the characters it has just read, so a key that has been
+ * seen before costs no new objects, and every hash that has the key
+ * shares one JSONString for it. Lookups with a key from the table can
+ * then match by reference.
+ *
+ * The table never grows past its capacity. When the few slots a key may
+ * go in are full of other keys, the new key takes over the first of them,
+ * so the keys in use keep their places and old ones are forgotten. Long
+ * keys are not kept at all.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONKeyTable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The default number of slots.
+   */
+  public static final int DEFAULT_CAPACITY = 1 << 12;
+
+  /**
+   * The longest key we keep.
+   */
+  static final int MAX_KEY_LENGTH = 64;
+
+  /**
+   * How many slots a key may go in.
+   */
+  static final int PROBES = 4;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The keys. Its length is a power of two.
+   */
+  AtomicReferenceArray<JSONString> slots;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a table with at least capacity slots.
+   */
+  public JSONKeyTable(int capacity) {
+    int length = Integer.highestOneBit(Math.max(PROBES, capacity - 1)) << 1;
+    this.slots = new AtomicReferenceArray<JSONString>(length);
+  } // JSONKeyTable(int)
+
+  /**
+   * Create a table with the default capacity.
+   */
+  public JSONKeyTable() {
+    this(DEFAULT_CAPACITY);
+  } // JSONKeyTable()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the canonical key for chars[start..start+len).
+   *
+   * @param chars the characters of the key
+   * @param start where the key starts
+   * @param len how many characters the key has
+   * @return a key equal to the characters, from the table if possible
+   */
+  public JSONString intern(char[] chars, int start, int len) {
+    // The same hash code as String, so the key can keep it
+    int code = 0;
+    for (int i = start; i < start + len; i++) {
+      code = 31 * code + chars[i];
+    } // for
+    if (len > MAX_KEY_LENGTH) {
+      return new JSONString(new String(chars, start, len), code);
+    } // if
+
+    int mask = this.slots.length() - 1;
+    int home = JSONHash.spread(code) & mask;
+    for (int probe = 0; probe < PROBES; probe++) {
+      int slot = (home + probe) & mask;
+      JSONString key = this.slots.get(slot);
+      if (key == null) {
+        key = new JSONString(new String(chars, start, len), code);
+        if (this.slots.compareAndSet(slot, null, key)) {
+          return key;
+        } // if
+        // Another thread took the slot first; see what it put there
+        key = this.slots.get(slot);
+      } // if
+      if (key.hash == code && matches(key.value, chars, start, len)) {
+        return key;
+      } // if
+    } // for
+
+    // Every slot is taken, so the newcomer replaces the first
+    JSONString key = new JSONString(new String(chars, start, len), code);
+    this.slots.set(home, key);
+    return key;
+  } // intern(char[], int, int)
+
+  /**
+   * Get the canonical key for str.
+   */
+  public JSONString intern(String str) {
+    return intern(str.toCharArray(), 0, str.length());
+  } // intern(String)
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Determine if str is the same as chars[start..start+len).
+   */
+  static boolean matches(String str, char[] chars, int start, int len) {
+    if (str.length() != len) {
+      return false;
+    } // if
+    for (int i = 0; i < len; i++) {
+      if (str.charAt(i) != chars[start + i]) {
+        return false;
+      } // if
+    } // for
+    return true;
+  } // matches(String, char[], int, int)
+} // class JSONKeyTable
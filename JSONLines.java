@@ -0,0 +1,432 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads newline-delimited JSON (JSON Lines / NDJSON): one value per line.
+ * The input is cut into line-aligned chunks, and the chunks are parsed in
+ * parallel on a fork/join pool. Values come back either in input order or
+ * in whatever order the chunks finish. At most maxInFlight chunks are being
+ * parsed or waiting to be read at once, which bounds the memory used.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONLines implements Iterator<JSONValue>, Closeable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The default size of a chunk, in bytes.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where the lines come from.
+   */
+  InputStream source;
+
+  /**
+   * The pool that parses the chunks.
+   */
+  ForkJoinPool pool;
+
+  /**
+   * How many bytes we try to put in each chunk.
+   */
+  int chunkSize;
+
+  /**
+   * How many chunks may be in flight at once.
+   */
+  int maxInFlight;
+
+  /**
+   * Whether values must come back in input order.
+   */
+  boolean ordered;
+
+  /**
+   * The start of a line that did not fit in the previous chunk.
+   */
+  byte[] leftover;
+
+  /**
+   * The number of bytes in leftover.
+   */
+  int leftoverLen;
+
+  /**
+   * The position in the input of the next chunk.
+   */
+  long offset;
+
+  /**
+   * Whether we have read all of the input.
+   */
+  boolean exhausted;
+
+  /**
+   * The chunks in flight, in input order (ordered mode only).
+   */
+  ArrayDeque<ForkJoinTask<JSONValue[]>> pending;
+
+  /**
+   * The chunks that have finished, in the order they finished
+   * (unordered mode only). Each entry is a JSONValue[] or a Throwable.
+   */
+  LinkedBlockingQueue<Object> finished;
+
+  /**
+   * The number of chunks in flight.
+   */
+  int inFlight;
+
+  /**
+   * The values of the chunk we are handing out.
+   */
+  JSONValue[] current;
+
+  /**
+   * The index of the next value in current.
+   */
+  int index;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a reader for the lines of source.
+   *
+   * @param source where the lines come from
+   * @param pool the pool that parses chunks
+   * @param chunkSize how many bytes to aim for in each chunk
+   * @param maxInFlight how many chunks may be in flight at once
+   * @param ordered whether values must come back in input order
+   */
+  public JSONLines(InputStream source, ForkJoinPool pool, int chunkSize,
+      int maxInFlight, boolean ordered) {
+    this.source = source;
+    this.pool = pool;
+    this.chunkSize = chunkSize;
+    this.maxInFlight = maxInFlight;
+    this.ordered = ordered;
+    this.leftover = new byte[0];
+    this.leftoverLen = 0;
+    this.offset = 0;
+    this.exhausted = false;
+    this.pending = new ArrayDeque<ForkJoinTask<JSONValue[]>>();
+    this.finished = new LinkedBlockingQueue<Object>();
+    this.inFlight = 0;
+    this.current = new JSONValue[0];
+    this.index = 0;
+  } // JSONLines(InputStream, ForkJoinPool, int, int, boolean)
+
+  /**
+   * Create a reader for the lines of source that uses the common pool.
+   */
+  public JSONLines(InputStream source, boolean ordered) {
+    this(source, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE,
+        2 * ForkJoinPool.commonPool().getParallelism(), ordered);
+  } // JSONLines(InputStream, boolean)
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Stream the values in a file of JSON lines. Close the stream to
+   * close the file.
+   */
+  public static Stream<JSONValue> stream(Path path, boolean ordered) throws IOException {
+    return new JSONLines(Files.newInputStream(path), ordered).stream();
+  } // stream(Path, boolean)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Determine if there are more values. Parse errors and I/O errors are
+   * reported as a JSONLines.LineException or an UncheckedIOException.
+   */
+  public boolean hasNext() {
+    while (this.index >= this.current.length) {
+      try {
+        submitChunks();
+        if (this.inFlight == 0) {
+          return false;
+        } // if
+        this.current = takeChunk();
+        this.index = 0;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } // try/catch
+    } // while
+    return true;
+  } // hasNext()
+
+  /**
+   * Get the next value.
+   */
+  public JSONValue next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    } // if
+    return this.current[this.index++];
+  } // next()
+
+  /**
+   * Get the remaining values as a stream.
+   */
+  public Stream<JSONValue> stream() {
+    int characteristics = Spliterator.NONNULL | (this.ordered ? Spliterator.ORDERED : 0);
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, characteristics), false)
+        .onClose(() -> {
+          try {
+            close();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          } // try/catch
+        });
+  } // stream()
+
+  /**
+   * Stop reading and close the source.
+   */
+  public void close() throws IOException {
+    for (ForkJoinTask<JSONValue[]> task : this.pending) {
+      task.cancel(false);
+    } // for
+    this.pending.clear();
+    this.inFlight = 0;
+    this.current = new JSONValue[0];
+    this.exhausted = true;
+    this.source.close();
+  } // close()
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Read and submit chunks until we have as many in flight as allowed,
+   * or until reading more would block while some are already in flight
+   * (as on a pipe or socket), so that we can hand those out first.
+   */
+  void submitChunks() throws IOException {
+    while (this.inFlight < this.maxInFlight && !this.exhausted
+        && (this.inFlight == 0 || this.source.available() > 0)) {
+      byte[] chunk = readChunk();
+      if (chunk == null) {
+        return;
+      } // if
+      long start = this.offset;
+      this.offset += chunk.length;
+      ForkJoinTask<JSONValue[]> task;
+      if (this.ordered) {
+        task = this.pool.submit(() -> parseChunk(chunk, start));
+        this.pending.add(task);
+      } else {
+        LinkedBlockingQueue<Object> done = this.finished;
+        this.pool.execute(() -> {
+          try {
+            done.add(parseChunk(chunk, start));
+          } catch (Throwable e) {
+            done.add(e);
+          } // try/catch
+        });
+      } // if/else
+      ++this.inFlight;
+    } // while
+  } // submitChunks()
+
+  /**
+   * Wait for the next chunk to be parsed and get its values.
+   */
+  JSONValue[] takeChunk() throws IOException {
+    Object result;
+    try {
+      if (this.ordered) {
+        result = this.pending.poll().get();
+      } else {
+        result = this.finished.take();
+      } // if/else
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while parsing");
+    } catch (ExecutionException e) {
+      result = e.getCause();
+    } // try/catch
+    --this.inFlight;
+    if (result instanceof RuntimeException) {
+      throw (RuntimeException) result;
+    } else if (result instanceof Error) {
+      throw (Error) result;
+    } // if
+    return (JSONValue[]) result;
+  } // takeChunk()
+
+  /**
+   * Read the next chunk of whole lines, or null at the end of the input.
+   * The chunk ends once the buffer is full or once no more input is
+   * ready, at the last newline either way, so lines that have arrived
+   * are not held back waiting for the rest of a buffer.
+   */
+  byte[] readChunk() throws IOException {
+    byte[] buf = new byte[Math.max(this.chunkSize, 2 * this.leftoverLen)];
+    System.arraycopy(this.leftover, 0, buf, 0, this.leftoverLen);
+    int len = this.leftoverLen;
+    int searched = 0;
+
+    while (true) {
+      int count = this.source.read(buf, len, buf.length - len);
+      if (count < 0) {
+        this.exhausted = true;
+        this.leftoverLen = 0;
+        if (len == 0) {
+          return null;
+        } // if
+        return (len == buf.length) ? buf : Arrays.copyOf(buf, len);
+      } // if
+      len += count;
+      if (len < buf.length && this.source.available() > 0) {
+        continue;
+      } // if
+
+      // Cut after the last newline
+      int cut = len - 1;
+      while (cut >= searched && buf[cut] != '\n') {
+        cut--;
+      } // while
+      if (cut >= searched) {
+        this.leftoverLen = len - (cut + 1);
+        if (this.leftover.length < this.leftoverLen) {
+          this.leftover = new byte[Math.max(this.leftoverLen, this.chunkSize)];
+        } // if
+        System.arraycopy(buf, cut + 1, this.leftover, 0, this.leftoverLen);
+        return Arrays.copyOf(buf, cut + 1);
+      } // if
+
+      // No whole line yet; if it is longer than the buffer, make room
+      // for more of it
+      searched = len;
+      if (len == buf.length) {
+        buf = Arrays.copyOf(buf, 2 * buf.length);
+      } // if
+    } // while
+  } // readChunk()
+
+  /**
+   * Parse each non-blank line in chunk.
+   *
+   * @param chunk whole lines of UTF-8
+   * @param start the position of chunk in the input
+   * @return the values, in order
+   */
+  static JSONValue[] parseChunk(byte[] chunk, long start) {
+    JSONValue[] values = new JSONValue[16];
+    int count = 0;
+    int lineStart = 0;
+    while (lineStart < chunk.length) {
+      int lineEnd = lineStart;
+      while (lineEnd < chunk.length && chunk[lineEnd] != '\n') {
+        lineEnd++;
+      } // while
+
+      if (!isBlank(chunk, lineStart, lineEnd)) {
+        ByteBuffer line = ByteBuffer.wrap(chunk, lineStart, lineEnd - lineStart);
+        try {
+          if (count == values.length) {
+            values = Arrays.copyOf(values, 2 * count);
+          } // if
+          values[count++] = new JSONParser(line).parse();
+        } catch (ParseException e) {
+          throw new LineException(e, start + lineStart);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        } // try/catch
+      } // if
+      lineStart = lineEnd + 1;
+    } // while
+    return Arrays.copyOf(values, count);
+  } // parseChunk(byte[], long)
+
+  /**
+   * Determine if chunk[start..end) is nothing but whitespace.
+   */
+  static boolean isBlank(byte[] chunk, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (!JSON.isWhitespace(chunk[i])) {
+        return false;
+      } // if
+    } // for
+    return true;
+  } // isBlank(byte[], int, int)
+
+  // +----------------+----------------------------------------------
+  // | Nested classes |
+  // +----------------+
+
+  /**
+   * A line that could not be parsed.
+   */
+  public static class LineException extends RuntimeException {
+    /**
+     * The version of the serialized form.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The position in the input where the bad line starts.
+     */
+    long lineOffset;
+
+    /**
+     * Create an exception for a line that starts at lineOffset.
+     */
+    public LineException(ParseException cause, long lineOffset) {
+      super("Line at byte " + lineOffset + ": " + cause.getMessage()
+          + " at column " + cause.getErrorOffset(), cause);
+      this.lineOffset = lineOffset;
+    } // LineException(ParseException, long)
+
+    /**
+     * Get the position in the input where the bad line starts.
+     */
+    public long getLineOffset() {
+      return this.lineOffset;
+    } // getLineOffset()
+
+    /**
+     * Get the underlying parse error.
+     */
+    public ParseException getParseException() {
+      return (ParseException) getCause();
+    } // getParseException()
+  } // class LineException
+} // class JSONLines
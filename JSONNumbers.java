@@ -0,0 +1,556 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Formats longs and doubles as ASCII digits straight into a byte array,
+ * without making a String.
+ *
+ * Longs are written two digits at a time from a table of the pairs
+ * 00 to 99, so a long takes at most ten divisions.
+ *
+ * Doubles are written with the fewest digits that still read back as
+ * the same double, found with Giulietti's Schubfach algorithm: the
+ * double and the halfway points to its neighbours are scaled by a
+ * power of ten taken from a table of 126-bit approximations (G), and
+ * the shortest decimal between the halfway points is read off with a
+ * few multiplications. The layout follows Double.toString: plain
+ * decimals from 0.001 up to 10,000,000, and computerized scientific
+ * notation (such as 1.0E-5) outside that range.
+ *
+ * Going the other way, a decimal significand of up to 19 digits and a
+ * power of ten are turned into the nearest double with the Eisel-Lemire
+ * algorithm: the significand is multiplied by a 128-bit approximation
+ * of the power of five (POW5), and the top bits of the product are the
+ * double's, except in rare cases where the approximation leaves the
+ * rounding in doubt and the caller must fall back to a slower parse.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONNumbers {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The most characters a formatted long or double takes.
+   */
+  static final int MAX_LENGTH = 32;
+
+  /**
+   * The digits of 00 to 99, two bytes each.
+   */
+  static final byte[] DIGIT_PAIRS = new byte[200];
+
+  static {
+    for (int i = 0; i < 100; i++) {
+      DIGIT_PAIRS[2 * i] = (byte) ('0' + i / 10);
+      DIGIT_PAIRS[2 * i + 1] = (byte) ('0' + i % 10);
+    } // for
+  } // static
+
+  /**
+   * The powers of ten that fit in a long.
+   */
+  static final long[] POW10 = new long[19];
+
+  static {
+    POW10[0] = 1;
+    for (int i = 1; i < POW10.length; i++) {
+      POW10[i] = 10 * POW10[i - 1];
+    } // for
+  } // static
+
+  /**
+   * The bits of a double's significand, without the hidden bit.
+   */
+  static final int SIGNIFICAND_BITS = 52;
+
+  /**
+   * The exponent of the smallest subnormal double.
+   */
+  static final int Q_MIN = -1074;
+
+  /**
+   * The significand of the smallest normal double.
+   */
+  static final long C_MIN = 1L << SIGNIFICAND_BITS;
+
+  /**
+   * Subnormal significands below this get an extra digit of precision.
+   */
+  static final long C_TINY = 3;
+
+  /**
+   * The range of powers of ten the table covers.
+   */
+  static final int K_MIN = -324;
+  static final int K_MAX = 292;
+
+  /**
+   * The number of digits in a significand once it has been scaled.
+   */
+  static final int H = 17;
+
+  /**
+   * The low 63 bits of a long.
+   */
+  static final long MASK_63 = (1L << 63) - 1;
+
+  /**
+   * For each k from K_MIN to K_MAX, 10^-k = beta 2^r with 2^125 <= beta
+   * < 2^126; g = floor(beta) + 1, split into its high bits (G[2i]) and
+   * its low 63 bits (G[2i + 1]).
+   */
+  static final long[] G = makeG();
+
+  /**
+   * The range of powers of ten POW5 covers. Below it every significand
+   * gives zero, and above it infinity.
+   */
+  static final int Q5_MIN = -342;
+  static final int Q5_MAX = 308;
+
+  /**
+   * For each q from Q5_MIN to Q5_MAX, the top 128 bits of 5^q, shifted
+   * so that the highest bit is set (and, for q < 0, rounded up), as high
+   * (POW5[2i]) and low (POW5[2i + 1]) halves.
+   */
+  static final long[] POW5 = makePow5();
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Write v into buf at at, returning the index just past it.
+   */
+  public static int format(long v, byte[] buf, int at) {
+    if (v < 0) {
+      if (v == Long.MIN_VALUE) {
+        byte[] min = "-9223372036854775808".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(min, 0, buf, at, min.length);
+        return at + min.length;
+      } // if
+      buf[at++] = '-';
+      v = -v;
+    } // if
+    int end = at + digits(v);
+    writeDigits(v, buf, end);
+    return end;
+  } // format(long, byte[], int)
+
+  /**
+   * Write v into buf at at, in as few digits as read back as v, returning
+   * the index just past it.
+   */
+  public static int format(double v, byte[] buf, int at) {
+    long bits = Double.doubleToRawLongBits(v);
+    long t = bits & (C_MIN - 1);
+    int bq = (int) (bits >>> SIGNIFICAND_BITS) & 0x7FF;
+    if (bq == 0x7FF) {
+      return ascii((t != 0) ? "NaN" : (bits < 0) ? "-Infinity" : "Infinity", buf, at);
+    } // if
+    if (bits < 0) {
+      buf[at++] = '-';
+    } // if
+    if (bq != 0) {
+      // Normal: integers that fit take the short way
+      int mq = -Q_MIN + 1 - bq;
+      long c = C_MIN | t;
+      if (0 < mq && mq < SIGNIFICAND_BITS + 1) {
+        long f = c >> mq;
+        if (f << mq == c) {
+          return layout(f, 0, buf, at);
+        } // if
+      } // if
+      return decimal(-mq, c, 0, buf, at);
+    } else if (t != 0) {
+      // Subnormal
+      return (t < C_TINY)
+          ? decimal(Q_MIN, 10 * t, -1, buf, at)
+          : decimal(Q_MIN, t, 0, buf, at);
+    } else {
+      return ascii("0.0", buf, at);
+    } // if...else
+  } // format(double, byte[], int)
+
+  /**
+   * Get the shortest string that reads back as v, laid out like
+   * Double.toString.
+   */
+  public static String toString(double v) {
+    byte[] buf = new byte[MAX_LENGTH];
+    return new String(buf, 0, format(v, buf, 0), StandardCharsets.US_ASCII);
+  } // toString(double)
+
+  /**
+   * Get a string for a big real that reads back as a real. BigDecimal
+   * prints a scale of 0 with neither a point nor an exponent, which
+   * would read back as an integer, so we add ".0" then.
+   */
+  public static String toString(BigDecimal v) {
+    String str = v.toString();
+    return (v.scale() == 0) ? str + ".0" : str;
+  } // toString(BigDecimal)
+
+  /**
+   * Get the double nearest to w 10^q, where w is a non-zero unsigned
+   * significand, or NaN if that cannot be settled cheaply.
+   */
+  static double toDouble(long w, int q) {
+    if (q < Q5_MIN) {
+      return 0.0;
+    } else if (q > Q5_MAX) {
+      return Double.POSITIVE_INFINITY;
+    } // if...else
+    int lz = Long.numberOfLeadingZeros(w);
+    w <<= lz;
+
+    // The top bits of w 5^q; the second half of the power is only
+    // needed when the low bits of the first product are all ones
+    int i = 2 * (q - Q5_MIN);
+    long high = unsignedMultiplyHigh(w, POW5[i]);
+    long low = w * POW5[i];
+    if ((high & 0x1FF) == 0x1FF) {
+      long more = unsignedMultiplyHigh(w, POW5[i + 1]);
+      low += more;
+      if (Long.compareUnsigned(more, low) > 0) {
+        high++;
+      } // if
+    } // if
+    if (low == -1L && (q < -27 || q > 55)) {
+      // The error in POW5 may carry into the bits we keep
+      return Double.NaN;
+    } // if
+
+    int upper = (int) (high >>> 63);
+    long m = high >>> (upper + 9);
+    // floor(log2(10^q)) + 63, plus the exponent bias
+    int e = (int) (((217706L * q) >> 16) + 63 + upper - lz + 1023);
+    if (e <= 0) {
+      // Subnormal (or zero)
+      if (-e + 1 >= 64) {
+        return 0.0;
+      } // if
+      m >>>= -e + 1;
+      m += m & 1;
+      m >>>= 1;
+      return Double.longBitsToDouble(m);
+    } // if
+    if ((low == 0 || low == 1) && q >= -4 && q <= 23 && (m & 3) == 1
+        && (m << (upper + 9)) == high) {
+      // Exactly halfway, so round to even
+      m &= ~1L;
+    } // if
+    m += m & 1;
+    m >>>= 1;
+    if (m >= (2L << SIGNIFICAND_BITS)) {
+      m = 1L << SIGNIFICAND_BITS;
+      e++;
+    } // if
+    if (e >= 0x7FF) {
+      return Double.POSITIVE_INFINITY;
+    } // if
+    return Double.longBitsToDouble(((long) e << SIGNIFICAND_BITS) | (m & (C_MIN - 1)));
+  } // toDouble(long, int)
+
+  /**
+   * Determine if the shortest decimal for v, a positive finite double,
+   * is f 10^e, where f is an unsigned significand. buf is scratch space
+   * of at least MAX_LENGTH bytes.
+   */
+  static boolean isShortest(double v, long f, int e, byte[] buf) {
+    // Read the digits and exponent back out of the formatted double
+    int n = format(v, buf, 0);
+    long sig = 0;
+    int exp = 0;
+    boolean afterPoint = false;
+    int i = 0;
+    for (; i < n && buf[i] != 'E'; i++) {
+      if (buf[i] == '.') {
+        afterPoint = true;
+      } else {
+        sig = 10 * sig + (buf[i] - '0');
+        if (afterPoint) {
+          exp--;
+        } // if
+      } // if/else
+    } // for
+    if (i < n) {
+      boolean negative = buf[++i] == '-';
+      if (negative) {
+        i++;
+      } // if
+      int k = 0;
+      for (; i < n; i++) {
+        k = 10 * k + (buf[i] - '0');
+      } // for
+      exp += negative ? -k : k;
+    } // if
+
+    // Compare without trailing zeros
+    while (sig % 10 == 0) {
+      sig /= 10;
+      exp++;
+    } // while
+    while (Long.remainderUnsigned(f, 10) == 0) {
+      f = Long.divideUnsigned(f, 10);
+      e++;
+    } // while
+    return sig == f && exp == e;
+  } // isShortest(double, long, int, byte[])
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Count the digits of a non-negative long.
+   */
+  static int digits(long v) {
+    // log10(2) is about 1233/4096
+    int n = ((64 - Long.numberOfLeadingZeros(v | 1)) * 1233) >>> 12;
+    return (n < POW10.length && v >= POW10[n]) ? n + 1 : Math.max(n, 1);
+  } // digits(long)
+
+  /**
+   * Write the digits of a non-negative long so that they end just
+   * before end.
+   */
+  static void writeDigits(long v, byte[] buf, int end) {
+    int i = end;
+    while (v >= Integer.MAX_VALUE) {
+      long q = v / 100;
+      int r = 2 * (int) (v - 100 * q);
+      buf[--i] = DIGIT_PAIRS[r + 1];
+      buf[--i] = DIGIT_PAIRS[r];
+      v = q;
+    } // while
+    int w = (int) v;
+    while (w >= 100) {
+      int q = w / 100;
+      int r = 2 * (w - 100 * q);
+      buf[--i] = DIGIT_PAIRS[r + 1];
+      buf[--i] = DIGIT_PAIRS[r];
+      w = q;
+    } // while
+    if (w >= 10) {
+      buf[--i] = DIGIT_PAIRS[2 * w + 1];
+      buf[--i] = DIGIT_PAIRS[2 * w];
+    } else {
+      buf[--i] = (byte) ('0' + w);
+    } // if/else
+  } // writeDigits(long, byte[], int)
+
+  /**
+   * Find the shortest decimal for c 2^q, and write it. dk is added to
+   * the decimal exponent.
+   */
+  static int decimal(int q, long c, int dk, byte[] buf, int at) {
+    int out = (int) c & 1;
+    long cb = c << 2;
+    long cbr = cb + 2;
+    long cbl;
+    int k;
+    if (c != C_MIN || q == Q_MIN) {
+      cbl = cb - 2;
+      k = flog10pow2(q);
+    } else {
+      // At a power of two the gap below is half the gap above
+      cbl = cb - 1;
+      k = flog10threeQuartersPow2(q);
+    } // if/else
+    int h = q + flog2pow10(-k) + 2;
+
+    int i = 2 * (k - K_MIN);
+    long g1 = G[i];
+    long g0 = G[i + 1];
+    long vb = rop(g1, g0, cb << h);
+    long vbl = rop(g1, g0, cbl << h);
+    long vbr = rop(g1, g0, cbr << h);
+
+    // Try one digit fewer than we have: is a multiple of ten in range?
+    long s = vb >> 2;
+    if (s >= 100) {
+      long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+      long tp10 = sp10 + 10;
+      boolean upin = vbl + out <= sp10 << 2;
+      boolean wpin = (tp10 << 2) + out <= vbr;
+      if (upin != wpin) {
+        return layout(upin ? sp10 : tp10, k, buf, at);
+      } // if
+    } // if
+
+    // Otherwise s or s + 1, whichever is in range (or closer)
+    long t = s + 1;
+    boolean uin = vbl + out <= s << 2;
+    boolean win = (t << 2) + out <= vbr;
+    if (uin != win) {
+      return layout(uin ? s : t, k + dk, buf, at);
+    } // if
+    long cmp = vb - ((s + t) << 1);
+    return layout((cmp < 0 || (cmp == 0 && (s & 1) == 0)) ? s : t, k + dk, buf, at);
+  } // decimal(int, long, int, byte[], int)
+
+  /**
+   * Get the high 64 bits of the unsigned product of a and b.
+   */
+  static long unsignedMultiplyHigh(long a, long b) {
+    return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+  } // unsignedMultiplyHigh(long, long)
+
+  /**
+   * Multiply g by cp, rounding to odd, and keep the high bits.
+   */
+  static long rop(long g1, long g0, long cp) {
+    long x1 = Math.multiplyHigh(g0, cp);
+    long y0 = g1 * cp;
+    long y1 = Math.multiplyHigh(g1, cp);
+    long z = (y0 >>> 1) + x1;
+    long vbp = y1 + (z >>> 63);
+    return vbp | (((z & MASK_63) + MASK_63) >>> 63);
+  } // rop(long, long, long)
+
+  /**
+   * Write f 10^e like Double.toString would.
+   */
+  static int layout(long f, int e, byte[] buf, int at) {
+    // The digits, less trailing zeros, go at the end of the space we
+    // might need and are moved into place
+    int n = digits(f);
+    while (f % 10 == 0 && n > 1) {
+      f /= 10;
+      n--;
+      e++;
+    } // while
+    // f 10^e = 0.d1...dn 10^exp
+    int exp = e + n;
+
+    if (0 < exp && exp <= 7) {
+      // ddd.ddd, or ddd000.0
+      if (n <= exp) {
+        writeDigits(f, buf, at + n);
+        for (int i = n; i < exp; i++) {
+          buf[at + i] = '0';
+        } // for
+        at += exp;
+        buf[at++] = '.';
+        buf[at++] = '0';
+      } else {
+        writeDigits(f, buf, at + n + 1);
+        System.arraycopy(buf, at + 1, buf, at, exp);
+        buf[at + exp] = '.';
+        at += n + 1;
+      } // if/else
+      return at;
+    } else if (-3 < exp && exp <= 0) {
+      // 0.000ddd
+      buf[at++] = '0';
+      buf[at++] = '.';
+      for (int i = exp; i < 0; i++) {
+        buf[at++] = '0';
+      } // for
+      writeDigits(f, buf, at + n);
+      return at + n;
+    } else {
+      // d.dddE-x
+      writeDigits(f, buf, at + n + 1);
+      buf[at] = buf[at + 1];
+      buf[at + 1] = '.';
+      if (n == 1) {
+        buf[at + 2] = '0';
+        at += 3;
+      } else {
+        at += n + 1;
+      } // if/else
+      buf[at++] = 'E';
+      return format((long) (exp - 1), buf, at);
+    } // if...else
+  } // layout(long, int, byte[], int)
+
+  /**
+   * Write an ASCII string.
+   */
+  static int ascii(String str, byte[] buf, int at) {
+    for (int i = 0; i < str.length(); i++) {
+      buf[at++] = (byte) str.charAt(i);
+    } // for
+    return at;
+  } // ascii(String, byte[], int)
+
+  /**
+   * floor(log10(2^q)).
+   */
+  static int flog10pow2(int q) {
+    return (int) ((q * 661_971_961_083L) >> 41);
+  } // flog10pow2(int)
+
+  /**
+   * floor(log10(3/4 2^q)).
+   */
+  static int flog10threeQuartersPow2(int q) {
+    return (int) ((q * 661_971_961_083L - 274_743_187_321L) >> 41);
+  } // flog10threeQuartersPow2(int)
+
+  /**
+   * floor(log2(10^e)).
+   */
+  static int flog2pow10(int e) {
+    return (int) ((e * 913_124_641_741L) >> 38);
+  } // flog2pow10(int)
+
+  /**
+   * Compute the table POW5.
+   */
+  static long[] makePow5() {
+    long[] pow5 = new long[2 * (Q5_MAX - Q5_MIN + 1)];
+    BigInteger two128 = BigInteger.ONE.shiftLeft(128);
+    BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+    for (int q = Q5_MIN; q <= Q5_MAX; q++) {
+      BigInteger c;
+      if (q >= 0) {
+        c = BigInteger.valueOf(5).pow(q);
+        int shift = 128 - c.bitLength();
+        c = (shift >= 0) ? c.shiftLeft(shift) : c.shiftRight(-shift);
+      } else {
+        BigInteger pow = BigInteger.valueOf(5).pow(-q);
+        int z = pow.subtract(BigInteger.ONE).bitLength();
+        int b = (q >= -27) ? z + 127 : 2 * z + 128;
+        c = BigInteger.ONE.shiftLeft(b).divide(pow).add(BigInteger.ONE);
+        while (c.compareTo(two128) >= 0) {
+          c = c.shiftRight(1);
+        } // while
+      } // if/else
+      int i = 2 * (q - Q5_MIN);
+      pow5[i] = c.shiftRight(64).longValue();
+      pow5[i + 1] = c.and(mask).longValue();
+    } // for
+    return pow5;
+  } // makePow5()
+
+  /**
+   * Compute the table G.
+   */
+  static long[] makeG() {
+    long[] g = new long[2 * (K_MAX - K_MIN + 1)];
+    BigInteger mask = BigInteger.ONE.shiftLeft(63).subtract(BigInteger.ONE);
+    for (int k = K_MIN; k <= K_MAX; k++) {
+      // beta = 10^-k 2^(125 - r'), where r' = floor(log2(10^-k))
+      int shift = 125 - flog2pow10(-k);
+      BigInteger beta;
+      if (k <= 0) {
+        BigInteger pow = BigInteger.TEN.pow(-k);
+        beta = (shift >= 0) ? pow.shiftLeft(shift) : pow.shiftRight(-shift);
+      } else {
+        beta = BigInteger.ONE.shiftLeft(shift).divide(BigInteger.TEN.pow(k));
+      } // if/else
+      BigInteger big = beta.add(BigInteger.ONE);
+      int i = 2 * (k - K_MIN);
+      g[i] = big.shiftRight(63).longValue();
+      g[i + 1] = big.and(mask).longValue();
+    } // for
+    return g;
+  } // makeG()
+} // class JSONNumbers
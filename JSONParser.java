@@ -0,0 +1,407 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * A single-use JSON parser. Each parser keeps its own position and
+ * state, so separate parsers may run on separate threads at once.
+ *
+ * @author SamR (starter code)
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONParser {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The tokens we are parsing.
+   */
+  JSONTokenizer tokens;
+
+  /**
+   * How many hashes we are inside.
+   */
+  int depth;
+
+  /**
+   * For each depth, the size of the last hash that ended there. Hashes at
+   * the same depth are usually records with the same keys, so this is a
+   * good guess at how big the next one will be.
+   */
+  int[] sizeHints;
+
+  /**
+   * The table we take keys from, or null to make a new key each time.
+   */
+  JSONKeyTable keyTable;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a parser that reads from a tokenizer.
+   */
+  public JSONParser(JSONTokenizer tokens) {
+    this.tokens = tokens;
+    this.depth = 0;
+    this.sizeHints = new int[8];
+    this.keyTable = null;
+  } // JSONParser(JSONTokenizer)
+
+  /**
+   * Create a parser that reads from a reader in blocks of bufferSize chars.
+   */
+  public JSONParser(Reader source, int bufferSize) {
+    this(new JSONReaderTokenizer(source, bufferSize));
+  } // JSONParser(Reader, int)
+
+  /**
+   * Create a parser that reads from a reader.
+   */
+  public JSONParser(Reader source) {
+    this(new JSONReaderTokenizer(source));
+  } // JSONParser(Reader)
+
+  /**
+   * Create a parser that reads from a string.
+   */
+  public JSONParser(String source) {
+    this(new JSONReaderTokenizer(source));
+  } // JSONParser(String)
+
+  /**
+   * Create a parser that reads UTF-8 from the remaining bytes of a buffer.
+   */
+  public JSONParser(ByteBuffer source) {
+    this(new JSONUtf8Tokenizer(source));
+  } // JSONParser(ByteBuffer)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Parse the whole source into a single JSON value.
+   *
+   * @return the value written in the source
+   * @throws ParseException when the source is not one valid JSON value
+   * @throws IOException I/O problem when reading
+   */
+  public JSONValue parse() throws ParseException, IOException {
+    JSONValue result = parseKernel();
+    if (-1 != this.tokens.skipWhitespace()) {
+      throw new ParseException("Characters remain at end", position() - 1);
+    } // if
+    return result;
+  } // parse()
+
+  /**
+   * Parse the whole source, building only the parts that projection
+   * reaches. Everything else is skipped without being built.
+   *
+   * @param projection the paths to keep
+   * @return the parts of the value that were kept, or null if none were
+   * @throws ParseException when the source is not one valid JSON value
+   * @throws IOException I/O problem when reading
+   */
+  public JSONValue parse(JSONProjection projection) throws ParseException, IOException {
+    JSONValue result = parseProjected(this.tokens.skipWhitespace(), projection);
+    if (-1 != this.tokens.skipWhitespace()) {
+      throw new ParseException("Characters remain at end", position() - 1);
+    } // if
+    return result;
+  } // parse(JSONProjection)
+
+  /**
+   * Take keys from table, so that equal keys in everything this parser
+   * (or any other parser using the table) builds are the same object.
+   * Pass null to stop.
+   */
+  public void setKeyTable(JSONKeyTable table) {
+    this.keyTable = table;
+  } // setKeyTable(JSONKeyTable)
+
+  /**
+   * Get the current position in the input.
+   */
+  public int position() {
+    return this.tokens.position();
+  } // position()
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Reads the input and determines if what is being read is a
+   * valid JSONArray and creates it.
+   *
+   * @return the JSONValue (JSONArray) written in the file
+   * @throws ParseException when end of file reached unexpectedly
+   *                        or incorrect JSON value written in file
+   * @throws IOException I/O problem when reading
+   */
+  private JSONArray matchJSONArray() throws ParseException, IOException {
+    JSONArray arr = new JSONArray();
+
+    if (this.tokens.peek() == ']') {
+      this.tokens.skipWhitespace();
+      return arr;
+    } // if
+
+    int input;
+    do {
+      arr.add(parseKernel());
+      input = this.tokens.skipWhitespace();
+    } while (input == ',');
+
+    if (input != ']') {
+      checkEOF(input);
+      throw new ParseException("Invalid format for JSONArray", position() - 1);
+    } // if
+    return arr;
+  } // matchJSONArray()
+
+  /**
+   * Reads the input and determines if what is being read is a
+   * valid JSONHash and creates it.
+   *
+   * @return the JSONValue (JSONHash) written in the file
+   * @throws ParseException when end of file reached unexpectedly or
+   *                        incorrect JSON value written in file
+   * @throws IOException I/O problem when reading
+   */
+  private JSONHash matchJSONHash() throws ParseException, IOException {
+    if (this.depth == this.sizeHints.length) {
+      this.sizeHints = Arrays.copyOf(this.sizeHints, 2 * this.depth);
+    } // if
+    // Small and record-like hashes share a shape; one too big for any
+    // shape (judging by the last hash at this depth) gets its own index
+    int hint = this.sizeHints[this.depth];
+    JSONHash hashtable = (hint > JSONShape.MAX_KEYS)
+        ? new JSONHash(hint)
+        : new JSONHash(JSONShape.root(), (hint > 0) ? hint : JSONHash.INITIAL_CAPACITY);
+
+    if (this.tokens.peek() == '}') {
+      this.tokens.skipWhitespace();
+      return hashtable;
+    } // if
+
+    ++this.depth;
+    int input;
+    do {
+      input = this.tokens.skipWhitespace();
+      if (input != '"') {
+        checkEOF(input);
+        throw new ParseException("Invalid key for JSONHash", position() - 1);
+      } // if
+      JSONString key = readKey();
+
+      input = this.tokens.skipWhitespace();
+      if (input != ':') {
+        checkEOF(input);
+        throw new ParseException("Invalid format for JSONHash", position() - 1);
+      } // if
+
+      hashtable.set(key, parseKernel());
+      input = this.tokens.skipWhitespace();
+    } while (input == ',');
+    --this.depth;
+
+    if (input != '}') {
+      checkEOF(input);
+      throw new ParseException("Invalid format for JSONHash", position() - 1);
+    } // if
+    this.sizeHints[this.depth] = hashtable.size();
+    return hashtable;
+  } // matchJSONHash()
+
+  /**
+   * Read the rest of a key whose opening quote has been read.
+   */
+  JSONString readKey() throws ParseException, IOException {
+    if (this.keyTable == null) {
+      return new JSONString(this.tokens.readString());
+    } // if
+    this.tokens.readKey();
+    return scratchKey();
+  } // readKey()
+
+  /**
+   * Get the key that the tokenizer has just read into its scratch space.
+   */
+  JSONString scratchKey() {
+    if (this.keyTable == null) {
+      return new JSONString(new String(this.tokens.scratch, 0, this.tokens.scratchLen));
+    } // if
+    return this.keyTable.intern(this.tokens.scratch, 0, this.tokens.scratchLen);
+  } // scratchKey()
+
+  /**
+   * Parse one JSON value, keeping track of the current position.
+   */
+  JSONValue parseKernel() throws ParseException, IOException {
+    return parseValue(this.tokens.skipWhitespace());
+  } // parseKernel()
+
+  /**
+   * Parse one JSON value whose first character has already been read.
+   */
+  JSONValue parseValue(int input) throws ParseException, IOException {
+    switch (input) {
+      // JSON String
+      case (int) '"':
+        return new JSONString(this.tokens.readString());
+
+      // JSON Hash (Object)
+      case (int) '{':
+        return matchJSONHash();
+
+      // JSON Array
+      case (int) '[':
+        return matchJSONArray();
+
+      // JSON Constants: (true, false, null)
+      case ((int) 't'):
+        this.tokens.readLiteral("true");
+        return JSONConstant.TRUE;
+
+      case ((int) 'f'):
+        this.tokens.readLiteral("false");
+        return JSONConstant.FALSE;
+
+      case ((int) 'n'):
+        this.tokens.readLiteral("null");
+        return JSONConstant.NULL;
+
+      // JSON Integer/Real
+      case ((int) '-'):
+      case ((int) '0'): case ((int) '1'): case ((int) '2'): case ((int) '3'):
+      case ((int) '4'): case ((int) '5'): case ((int) '6'): case ((int) '7'):
+      case ((int) '8'): case ((int) '9'):
+        return this.tokens.readNumber(input);
+
+      default:
+        checkEOF(input);
+        throw new ParseException("Invalid initial character", position() - 1);
+    } // switch
+  } // parseValue(int)
+
+  /**
+   * Parse the parts of a value (whose first character has been read)
+   * that projection reaches, skipping the rest.
+   *
+   * @return the kept parts, or null if nothing was kept
+   */
+  JSONValue parseProjected(int input, JSONProjection projection)
+      throws ParseException, IOException {
+    if (projection.whole) {
+      return parseValue(input);
+    } else if (input == '{' && projection.names.length > 0) {
+      return matchProjectedHash(projection);
+    } else if (input == '[' && projection.elements != null) {
+      return matchProjectedArray(projection.elements);
+    } else {
+      checkEOF(input);
+      this.tokens.skipValue(input);
+      return null;
+    } // if...else
+  } // parseProjected(int, JSONProjection)
+
+  /**
+   * Reads the rest of a hash, keeping only the keys projection wants.
+   */
+  private JSONHash matchProjectedHash(JSONProjection projection)
+      throws ParseException, IOException {
+    JSONHash hashtable = new JSONHash();
+
+    if (this.tokens.peek() == '}') {
+      this.tokens.skipWhitespace();
+      return hashtable;
+    } // if
+
+    int input;
+    do {
+      input = this.tokens.skipWhitespace();
+      if (input != '"') {
+        checkEOF(input);
+        throw new ParseException("Invalid key for JSONHash", position() - 1);
+      } // if
+      this.tokens.readKey();
+      JSONProjection child = projection.childForKey(this.tokens);
+      JSONString key = (child == null) ? null : scratchKey();
+
+      input = this.tokens.skipWhitespace();
+      if (input != ':') {
+        checkEOF(input);
+        throw new ParseException("Invalid format for JSONHash", position() - 1);
+      } // if
+
+      input = this.tokens.skipWhitespace();
+      if (child == null) {
+        checkEOF(input);
+        this.tokens.skipValue(input);
+      } else {
+        JSONValue value = parseProjected(input, child);
+        if (value != null) {
+          hashtable.set(key, value);
+        } // if
+      } // if/else
+      input = this.tokens.skipWhitespace();
+    } while (input == ',');
+
+    if (input != '}') {
+      checkEOF(input);
+      throw new ParseException("Invalid format for JSONHash", position() - 1);
+    } // if
+    return hashtable;
+  } // matchProjectedHash(JSONProjection)
+
+  /**
+   * Reads the rest of an array, keeping what projection wants from each
+   * element. Elements of the wrong kind (say, a number where keys are
+   * wanted) are left out.
+   */
+  private JSONArray matchProjectedArray(JSONProjection projection)
+      throws ParseException, IOException {
+    JSONArray arr = new JSONArray();
+
+    if (this.tokens.peek() == ']') {
+      this.tokens.skipWhitespace();
+      return arr;
+    } // if
+
+    int input;
+    do {
+      JSONValue value = parseProjected(this.tokens.skipWhitespace(), projection);
+      if (value != null) {
+        arr.add(value);
+      } // if
+      input = this.tokens.skipWhitespace();
+    } while (input == ',');
+
+    if (input != ']') {
+      checkEOF(input);
+      throw new ParseException("Invalid format for JSONArray", position() - 1);
+    } // if
+    return arr;
+  } // matchProjectedArray(JSONProjection)
+
+  /**
+   * Checks to make sure the end of the file hasn't been reached
+   * unexpectedly and if it did, throws an exception.
+   *
+   * @param ch current input being read
+   * @throws ParseException when end of file is reached unexpectedly
+   */
+  private void checkEOF(int ch) throws ParseException {
+    if (-1 == ch) {
+      throw new ParseException("Unexpected end of file", position());
+    } // if
+  } // checkEOF(int)
+} // class JSONParser
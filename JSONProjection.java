@@ -0,0 +1,184 @@
+import java.util.Arrays;
+
+/**
+ * A set of paths into a JSON document, such as "user.id", "events[*].ts",
+ * or "meta". Parsing with a projection builds only the parts of the tree
+ * that the paths reach; everything else is skipped without being built.
+ *
+ * A path is a list of steps separated by dots. A step is a key, and may be
+ * followed by any number of "[*]", each of which means every element of
+ * an array. A path may also start with "[*]" when the document is an
+ * array. A path that stops at a value keeps the whole value.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONProjection {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Whether the whole value at this point is wanted.
+   */
+  boolean whole;
+
+  /**
+   * The keys wanted from a hash at this point.
+   */
+  String[] names;
+
+  /**
+   * What is wanted below each key in names.
+   */
+  JSONProjection[] children;
+
+  /**
+   * What is wanted from each element of an array at this point (null if
+   * arrays are not wanted).
+   */
+  JSONProjection elements;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an empty projection, which keeps nothing.
+   */
+  public JSONProjection() {
+    this.whole = false;
+    this.names = new String[0];
+    this.children = new JSONProjection[0];
+    this.elements = null;
+  } // JSONProjection()
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Create a projection for some paths.
+   *
+   * @param paths the paths to keep
+   * @return the projection
+   * @throws IllegalArgumentException if a path is badly formed
+   */
+  public static JSONProjection of(String... paths) {
+    JSONProjection root = new JSONProjection();
+    for (String path : paths) {
+      root.add(path);
+    } // for
+    return root;
+  } // of(String...)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Add a path to the projection.
+   *
+   * @param path the path to keep
+   * @throws IllegalArgumentException if the path is badly formed
+   */
+  public void add(String path) {
+    JSONProjection node = this;
+    int i = 0;
+    int len = path.length();
+    while (i < len) {
+      if (path.startsWith("[*]", i)) {
+        node = node.elements();
+        i += 3;
+      } else if (path.charAt(i) == '.') {
+        if (i == 0 || i + 1 == len || path.charAt(i + 1) == '.' || path.charAt(i + 1) == '[') {
+          throw new IllegalArgumentException("Invalid path: " + path);
+        } // if
+        i++;
+      } else {
+        int end = i;
+        while (end < len && path.charAt(end) != '.' && path.charAt(end) != '[') {
+          end++;
+        } // while
+        if (end == i) {
+          throw new IllegalArgumentException("Invalid path: " + path);
+        } // if
+        node = node.child(path.substring(i, end));
+        i = end;
+        if (i < len && path.charAt(i) == '[' && !path.startsWith("[*]", i)) {
+          throw new IllegalArgumentException("Invalid path: " + path);
+        } // if
+      } // if...else
+    } // while
+    node.whole = true;
+  } // add(String)
+
+  /**
+   * Get what is wanted below a key that the tokenizer has just read with
+   * readKey, or null if the key is not wanted.
+   */
+  JSONProjection childForKey(JSONTokenizer tokens) {
+    for (int i = 0; i < this.names.length; i++) {
+      if (tokens.keyEquals(this.names[i])) {
+        return this.children[i];
+      } // if
+    } // for
+    return null;
+  } // childForKey(JSONTokenizer)
+
+  /**
+   * Get a readable form of the projection.
+   */
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    appendPaths(result, "");
+    return result.toString();
+  } // toString()
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Get (making if needed) the node below a key.
+   */
+  JSONProjection child(String name) {
+    for (int i = 0; i < this.names.length; i++) {
+      if (this.names[i].equals(name)) {
+        return this.children[i];
+      } // if
+    } // for
+    JSONProjection node = new JSONProjection();
+    this.names = Arrays.copyOf(this.names, this.names.length + 1);
+    this.children = Arrays.copyOf(this.children, this.children.length + 1);
+    this.names[this.names.length - 1] = name;
+    this.children[this.children.length - 1] = node;
+    return node;
+  } // child(String)
+
+  /**
+   * Get (making if needed) the node for array elements.
+   */
+  JSONProjection elements() {
+    if (this.elements == null) {
+      this.elements = new JSONProjection();
+    } // if
+    return this.elements;
+  } // elements()
+
+  /**
+   * Add the paths below this node, each starting with prefix, to result.
+   */
+  void appendPaths(StringBuilder result, String prefix) {
+    if (this.whole) {
+      result.append(result.length() == 0 ? "" : ", ").append(prefix);
+    } // if
+    for (int i = 0; i < this.names.length; i++) {
+      String sep = prefix.isEmpty() ? "" : ".";
+      this.children[i].appendPaths(result, prefix + sep + this.names[i]);
+    } // for
+    if (this.elements != null) {
+      this.elements.appendPaths(result, prefix + "[*]");
+    } // if
+  } // appendPaths(StringBuilder, String)
+} // class JSONProjection
@@ -0,0 +1,361 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/**
+ * A pull parser that hands out one token at a time instead of building
+ * the whole tree. Only the nesting of the containers we are inside is
+ * remembered, so memory does not grow with the size of the document.
+ *
+ * To stream a huge top-level array one element at a time:
+ *
+ * <pre>
+ *   reader.nextToken(); // START_ARRAY
+ *   while (reader.nextToken() != JSONToken.END_ARRAY) {
+ *     JSONValue element = reader.readValue();
+ *     ...
+ *   }
+ * </pre>
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONReader {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * Marks a hash on the stack.
+   */
+  static final byte IN_OBJECT = 1;
+
+  /**
+   * Marks an array on the stack.
+   */
+  static final byte IN_ARRAY = 2;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The tokens we are reading.
+   */
+  JSONTokenizer tokens;
+
+  /**
+   * The parser we use to build subtrees in readValue.
+   */
+  JSONParser parser;
+
+  /**
+   * The kinds of containers we are inside, outermost first.
+   */
+  byte[] stack;
+
+  /**
+   * The number of containers we are inside.
+   */
+  int depth;
+
+  /**
+   * Whether the next element of the current container must be preceded
+   * by a comma.
+   */
+  boolean needComma;
+
+  /**
+   * Whether we just read a field name and the value comes next.
+   */
+  boolean needValue;
+
+  /**
+   * Whether we have finished the top-level value.
+   */
+  boolean done;
+
+  /**
+   * The most recent token (null before the first and after the last).
+   */
+  JSONToken current;
+
+  /**
+   * The text of the most recent field name or string.
+   */
+  String text;
+
+  /**
+   * The most recent scalar value.
+   */
+  JSONValue value;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a reader for the tokens of a tokenizer.
+   */
+  public JSONReader(JSONTokenizer tokens) {
+    this.tokens = tokens;
+    this.parser = new JSONParser(tokens);
+    this.stack = new byte[16];
+    this.depth = 0;
+  } // JSONReader(JSONTokenizer)
+
+  /**
+   * Create a reader for a reader.
+   */
+  public JSONReader(Reader source) {
+    this(new JSONReaderTokenizer(source));
+  } // JSONReader(Reader)
+
+  /**
+   * Create a reader for a string.
+   */
+  public JSONReader(String source) {
+    this(new JSONReaderTokenizer(source));
+  } // JSONReader(String)
+
+  /**
+   * Create a reader for the remaining UTF-8 bytes of a buffer.
+   */
+  public JSONReader(ByteBuffer source) {
+    this(new JSONUtf8Tokenizer(source));
+  } // JSONReader(ByteBuffer)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Read the next token, or return null once the whole value has been read.
+   *
+   * @return the next token
+   * @throws ParseException when the input is not valid JSON
+   * @throws IOException I/O problem when reading
+   */
+  public JSONToken nextToken() throws ParseException, IOException {
+    this.text = null;
+    this.value = null;
+    int ch = this.tokens.skipWhitespace();
+
+    // Top level
+    if (this.depth == 0) {
+      if (this.done) {
+        if (ch != -1) {
+          throw new ParseException("Characters remain at end", position() - 1);
+        } // if
+        return this.current = null;
+      } // if
+      return this.current = startValue(ch);
+    } // if
+
+    if (this.stack[this.depth - 1] == IN_OBJECT) {
+      if (this.needValue) {
+        if (ch != ':') {
+          throw error(ch, "Invalid format for JSONHash");
+        } // if
+        this.needValue = false;
+        return this.current = startValue(this.tokens.skipWhitespace());
+      } // if
+      if (ch == '}') {
+        pop();
+        return this.current = JSONToken.END_OBJECT;
+      } // if
+      if (this.needComma) {
+        if (ch != ',') {
+          throw error(ch, "Invalid format for JSONHash");
+        } // if
+        ch = this.tokens.skipWhitespace();
+      } // if
+      if (ch != '"') {
+        throw error(ch, "Invalid key for JSONHash");
+      } // if
+      this.text = this.tokens.readString();
+      this.needValue = true;
+      return this.current = JSONToken.FIELD_NAME;
+    } else {
+      if (ch == ']') {
+        pop();
+        return this.current = JSONToken.END_ARRAY;
+      } // if
+      if (this.needComma) {
+        if (ch != ',') {
+          throw error(ch, "Invalid format for JSONArray");
+        } // if
+        ch = this.tokens.skipWhitespace();
+      } // if
+      return this.current = startValue(ch);
+    } // if/else
+  } // nextToken()
+
+  /**
+   * Get the most recent token.
+   */
+  public JSONToken currentToken() {
+    return this.current;
+  } // currentToken()
+
+  /**
+   * Get the text of the most recent FIELD_NAME or VALUE_STRING token.
+   */
+  public String getText() {
+    return this.text;
+  } // getText()
+
+  /**
+   * Get how many hashes and arrays we are inside.
+   */
+  public int depth() {
+    return this.depth;
+  } // depth()
+
+  /**
+   * Get the position in the input.
+   */
+  public int position() {
+    return this.tokens.position();
+  } // position()
+
+  /**
+   * If the most recent token starts a hash or array, skip the rest of it,
+   * leaving the matching end token as the most recent token. The skipped
+   * part is passed over by counting brackets and quotes.
+   */
+  public void skipChildren() throws ParseException, IOException {
+    if (this.current == null || !this.current.isStart()) {
+      return;
+    } // if
+    this.tokens.skipContainer();
+    pop();
+    this.current = (this.current == JSONToken.START_OBJECT)
+        ? JSONToken.END_OBJECT
+        : JSONToken.END_ARRAY;
+  } // skipChildren()
+
+  /**
+   * Build the value that starts with the most recent token. For a hash or
+   * array, the rest of it is read and the matching end token becomes the
+   * most recent token. Returns null for other tokens.
+   *
+   * @return the value, or null if the most recent token does not start one
+   * @throws ParseException when the input is not valid JSON
+   * @throws IOException I/O problem when reading
+   */
+  public JSONValue readValue() throws ParseException, IOException {
+    if (this.current == null) {
+      return null;
+    } // if
+    switch (this.current) {
+      case START_OBJECT:
+        JSONValue hash = this.parser.parseValue('{');
+        pop();
+        this.current = JSONToken.END_OBJECT;
+        return hash;
+      case START_ARRAY:
+        JSONValue arr = this.parser.parseValue('[');
+        pop();
+        this.current = JSONToken.END_ARRAY;
+        return arr;
+      case VALUE_STRING:
+        return new JSONString(this.text);
+      case VALUE_NUMBER:
+      case VALUE_TRUE:
+      case VALUE_FALSE:
+      case VALUE_NULL:
+        return this.value;
+      default:
+        return null;
+    } // switch
+  } // readValue()
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Read the token for a value whose first character has been read.
+   */
+  JSONToken startValue(int ch) throws ParseException, IOException {
+    switch (ch) {
+      case '{':
+        push(IN_OBJECT);
+        return JSONToken.START_OBJECT;
+      case '[':
+        push(IN_ARRAY);
+        return JSONToken.START_ARRAY;
+      case '"':
+        this.text = this.tokens.readString();
+        endScalar();
+        return JSONToken.VALUE_STRING;
+      case 't':
+        this.tokens.readLiteral("true");
+        this.value = JSONConstant.TRUE;
+        endScalar();
+        return JSONToken.VALUE_TRUE;
+      case 'f':
+        this.tokens.readLiteral("false");
+        this.value = JSONConstant.FALSE;
+        endScalar();
+        return JSONToken.VALUE_FALSE;
+      case 'n':
+        this.tokens.readLiteral("null");
+        this.value = JSONConstant.NULL;
+        endScalar();
+        return JSONToken.VALUE_NULL;
+      case '-':
+      case '0': case '1': case '2': case '3': case '4':
+      case '5': case '6': case '7': case '8': case '9':
+        this.value = this.tokens.readNumber(ch);
+        endScalar();
+        return JSONToken.VALUE_NUMBER;
+      default:
+        throw error(ch, "Invalid initial character");
+    } // switch
+  } // startValue(int)
+
+  /**
+   * Note that a scalar value has just been read.
+   */
+  void endScalar() {
+    this.needComma = true;
+    if (this.depth == 0) {
+      this.done = true;
+    } // if
+  } // endScalar()
+
+  /**
+   * Enter a container.
+   */
+  void push(byte kind) {
+    if (this.depth == this.stack.length) {
+      byte[] newStack = new byte[2 * this.stack.length];
+      System.arraycopy(this.stack, 0, newStack, 0, this.depth);
+      this.stack = newStack;
+    } // if
+    this.stack[this.depth++] = kind;
+    this.needComma = false;
+    this.needValue = false;
+  } // push(byte)
+
+  /**
+   * Leave a container, which counts as a value in the enclosing one.
+   */
+  void pop() {
+    --this.depth;
+    endScalar();
+  } // pop()
+
+  /**
+   * Build the exception for an unexpected character.
+   */
+  ParseException error(int ch, String message) {
+    if (ch == -1) {
+      return new ParseException("Unexpected end of file", position());
+    } // if
+    return new ParseException(message, position() - 1);
+  } // error(int, String)
+} // class JSONReader
@@ -0,0 +1,385 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+
+/**
+ * Splits JSON text from a reader into tokens. Characters are read from
+ * the source in large blocks into a window, and the window is scanned
+ * with plain index loops.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONReaderTokenizer extends JSONTokenizer {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The default size of the window, in chars.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where we get more characters from (null if the window already holds
+   * all of the input).
+   */
+  Reader source;
+
+  /**
+   * The window of characters.
+   */
+  char[] buf;
+
+  /**
+   * The index of the next unread character in the window.
+   */
+  int index;
+
+  /**
+   * The number of valid characters in the window.
+   */
+  int limit;
+
+  /**
+   * The number of characters that came before the current window.
+   */
+  int consumed;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a tokenizer that reads from source in blocks of bufferSize chars.
+   */
+  public JSONReaderTokenizer(Reader source, int bufferSize) {
+    this.source = source;
+    this.buf = new char[bufferSize];
+    this.index = 0;
+    this.limit = 0;
+    this.consumed = 0;
+  } // JSONReaderTokenizer(Reader, int)
+
+  /**
+   * Create a tokenizer that reads from source with the default window size.
+   */
+  public JSONReaderTokenizer(Reader source) {
+    this(source, DEFAULT_BUFFER_SIZE);
+  } // JSONReaderTokenizer(Reader)
+
+  /**
+   * Create a tokenizer for a string. The whole string becomes the window.
+   */
+  public JSONReaderTokenizer(String source) {
+    this.source = null;
+    this.buf = source.toCharArray();
+    this.index = 0;
+    this.limit = this.buf.length;
+    this.consumed = 0;
+  } // JSONReaderTokenizer(String)
+
+  /**
+   * Create a tokenizer for chars[start..end). The array itself becomes
+   * the window, and positions are indices into it.
+   */
+  public JSONReaderTokenizer(char[] chars, int start, int end) {
+    this.source = null;
+    this.buf = chars;
+    this.index = start;
+    this.limit = end;
+    this.consumed = 0;
+  } // JSONReaderTokenizer(char[], int, int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the position of the next unread character in the input.
+   */
+  @Override
+  public int position() {
+    return this.consumed + this.index;
+  } // position()
+
+  /**
+   * Move to a position in the input. Only works when the window holds
+   * all of the input.
+   */
+  public void seek(int position) {
+    this.index = position - this.consumed;
+  } // seek(int)
+
+  /**
+   * Skip whitespace and read the next character, or -1 at the end
+   * of the input.
+   */
+  @Override
+  public int skipWhitespace() throws IOException {
+    do {
+      char[] chars = this.buf;
+      int i = this.index;
+      int end = this.limit;
+      while (i < end) {
+        char ch = chars[i++];
+        if (!JSON.isWhitespace(ch)) {
+          this.index = i;
+          return ch;
+        } // if
+      } // while
+      this.index = i;
+    } while (fill());
+    return -1;
+  } // skipWhitespace()
+
+  /**
+   * Skip whitespace and look at the next character without reading it.
+   * Returns -1 at the end of the input.
+   */
+  @Override
+  public int peek() throws IOException {
+    int ch = skipWhitespace();
+    if (ch != -1) {
+      --this.index;
+    } // if
+    return ch;
+  } // peek()
+
+  /**
+   * Read the rest of a string whose opening quote has already been read.
+   *
+   * @return the contents of the string, with escapes replaced
+   * @throws ParseException when the string is badly formed or unterminated
+   * @throws IOException I/O problem when reading
+   */
+  @Override
+  public String readString() throws ParseException, IOException {
+    // Fast path: the whole string is in the window and has no escapes
+    char[] chars = this.buf;
+    int start = this.index;
+    int end = this.limit;
+    for (int i = start; i < end; i++) {
+      char ch = chars[i];
+      if (ch == '"') {
+        this.index = i + 1;
+        return new String(chars, start, i - start);
+      } else if (ch == '\\' || ch < ' ') {
+        break;
+      } // if...else
+    } // for
+
+    // Slow path: gather the characters in scratch
+    this.scratchLen = 0;
+    readStringInto();
+    return new String(this.scratch, 0, this.scratchLen);
+  } // readString()
+
+  /**
+   * Pass over the rest of a string whose opening quote has already been
+   * read, checking it but not building it.
+   *
+   * @throws ParseException when the string is badly formed or unterminated
+   * @throws IOException I/O problem when reading
+   */
+  @Override
+  public void skipString() throws ParseException, IOException {
+    while (true) {
+      char[] chars = this.buf;
+      int i = this.index;
+      int end = this.limit;
+      while (i < end) {
+        char ch = chars[i];
+        if (ch == '"' || ch == '\\' || ch < ' ') {
+          break;
+        } // if
+        i++;
+      } // while
+      this.index = i;
+
+      if (i == end) {
+        if (!fill()) {
+          throw new ParseException("Unexpected end of file", position());
+        } // if
+        continue;
+      } // if
+
+      char ch = chars[i];
+      this.index = i + 1;
+      if (ch == '"') {
+        return;
+      } else if (ch == '\\') {
+        readEscape();
+      } else {
+        throw new ParseException("Invalid character in JSONString", position() - 1);
+      } // if...else
+    } // while
+  } // skipString()
+
+  /**
+   * Pass over the rest of a hash or array whose opening brace or bracket
+   * has already been read. Only brackets and quotes are looked at, so
+   * nothing inside is checked or built.
+   *
+   * @throws ParseException when the input ends first
+   * @throws IOException I/O problem when reading
+   */
+  @Override
+  public void skipContainer() throws ParseException, IOException {
+    int depth = 1;
+    while (true) {
+      char[] chars = this.buf;
+      int i = this.index;
+      int end = this.limit;
+      while (i < end) {
+        char ch = chars[i++];
+        if (ch == '"') {
+          this.index = i;
+          skipString();
+          chars = this.buf;
+          i = this.index;
+          end = this.limit;
+        } else if (ch == '{' || ch == '[') {
+          depth++;
+        } else if (ch == '}' || ch == ']') {
+          if (--depth == 0) {
+            this.index = i;
+            return;
+          } // if
+        } // if...else
+      } // while
+      this.index = i;
+      if (!fill()) {
+        throw new ParseException("Unexpected end of file", position());
+      } // if
+    } // while
+  } // skipContainer()
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Refill the window once it has been used up. Returns false at the
+   * end of the input.
+   */
+  boolean fill() throws IOException {
+    if (this.index < this.limit) {
+      return true;
+    } // if
+    if (this.source == null) {
+      return false;
+    } // if
+    this.consumed += this.limit;
+    this.index = 0;
+    this.limit = 0;
+    int count;
+    do {
+      count = this.source.read(this.buf, 0, this.buf.length);
+    } while (count == 0);
+    if (count < 0) {
+      this.source = null;
+      return false;
+    } // if
+    this.limit = count;
+    return true;
+  } // fill()
+
+  /**
+   * Read the next character, whitespace or not, or -1 at the end.
+   */
+  @Override
+  int read() throws IOException {
+    if (this.index >= this.limit && !fill()) {
+      return -1;
+    } // if
+    return this.buf[this.index++];
+  } // read()
+
+  /**
+   * Look at the next character, whitespace or not, without reading it.
+   */
+  @Override
+  int peekChar() throws IOException {
+    if (this.index >= this.limit && !fill()) {
+      return -1;
+    } // if
+    return this.buf[this.index];
+  } // peekChar()
+
+  /**
+   * Read the character that peekChar just returned.
+   */
+  @Override
+  void advance() {
+    ++this.index;
+  } // advance()
+
+  /**
+   * Copy digits into scratch until a non-digit, which is returned but
+   * not read.
+   */
+  @Override
+  int readDigits() throws IOException {
+    while (true) {
+      char[] chars = this.buf;
+      int i = this.index;
+      int end = this.limit;
+      while (i < end && isDigit(chars[i])) {
+        i++;
+      } // while
+      append(chars, this.index, i - this.index);
+      this.index = i;
+      if (i < end) {
+        return chars[i];
+      } // if
+      if (!fill()) {
+        return -1;
+      } // if
+    } // while
+  } // readDigits()
+
+  /**
+   * Copy the rest of a string into scratch, replacing escapes.
+   */
+  @Override
+  void readStringInto() throws ParseException, IOException {
+    while (true) {
+      // Copy the run of plain characters in one go
+      char[] chars = this.buf;
+      int start = this.index;
+      int end = this.limit;
+      int i = start;
+      while (i < end) {
+        char ch = chars[i];
+        if (ch == '"' || ch == '\\' || ch < ' ') {
+          break;
+        } // if
+        i++;
+      } // while
+      append(chars, start, i - start);
+      this.index = i;
+
+      if (i == end) {
+        if (!fill()) {
+          throw new ParseException("Unexpected end of file", position());
+        } // if
+        continue;
+      } // if
+
+      char ch = chars[i];
+      this.index = i + 1;
+      if (ch == '"') {
+        return;
+      } else if (ch == '\\') {
+        append(readEscape());
+      } else {
+        throw new ParseException("Invalid character in JSONString", position() - 1);
+      } // if...else
+    } // while
+  } // readStringInto()
+} // class JSONReaderTokenizer
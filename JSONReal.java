@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.math.BigDecimal;
 
@@ -15,9 +16,16 @@ public class JSONReal implements JSONValue {
   // +--------+
 
   /**
-   * The underlying double.
+   * The underlying double, when the value survives a round trip
+   * through one.
    */
-  BigDecimal value;
+  double value;
+
+  /**
+   * The underlying decimal, when the value does not fit in a double
+   * (null otherwise).
+   */
+  BigDecimal big;
 
   // +--------------+------------------------------------------------
   // | Constructors |
@@ -27,21 +35,31 @@ public class JSONReal implements JSONValue {
    * Create a new real given the underlying string.
    */
   public JSONReal(String str) {
-    this.value = new BigDecimal(str);
+    this(new BigDecimal(str));
   } // JSONReal(String)
 
   /**
-   * Create a new real given a BigDecimal.
+   * Create a new real given a BigDecimal. The value is held as a double
+   * exactly when it is the decimal that double prints as (see getValue),
+   * so a real held one way is never equal to one held the other way.
    */
   public JSONReal(BigDecimal value) {
-    this.value = value;
+    double d = value.doubleValue();
+    if (!Double.isInfinite(d)
+        && new BigDecimal(JSONNumbers.toString(d)).compareTo(value) == 0) {
+      this.value = d;
+      this.big = null;
+    } else {
+      this.big = value;
+    } // if/else
   } // JSONReal(BigDecimal)
 
   /**
    * Create a new real given a double.
    */
   public JSONReal(double d) {
-    this.value = BigDecimal.valueOf(d);
+    this.value = d;
+    this.big = null;
   } // JSONReal(double)
 
   // +-------------------------+-------------------------------------
@@ -52,7 +70,11 @@ public class JSONReal implements JSONValue {
    * Convert to a string (e.g., for printing).
    */
   public String toString() {
-    return this.value.toString();
+    if (this.big != null) {
+      return JSONNumbers.toString(this.big);
+    } else {
+      return JSONNumbers.toString(this.value);
+    } // if/else
   } // toString()
 
   /**
@@ -60,7 +82,11 @@ public class JSONReal implements JSONValue {
    */
   public boolean equals(Object other) {
     if (other instanceof JSONReal) {
-      return this.value.compareTo(((JSONReal) other).getValue()) == 0;
+      JSONReal that = (JSONReal) other;
+      if (this.big == null && that.big == null) {
+        return this.value == that.value;
+      } // if
+      return this.getValue().compareTo(that.getValue()) == 0;
     } else {
       return false;
     } // if/else
@@ -70,7 +96,12 @@ public class JSONReal implements JSONValue {
    * Compute the hash code.
    */
   public int hashCode() {
-    return this.value.hashCode();
+    if (this.big != null) {
+      return this.big.stripTrailingZeros().hashCode();
+    } else {
+      // 0.0 and -0.0 are equal, so they need the same hash
+      return Double.hashCode(this.value + 0.0);
+    } // if/else
   } // hashCode()
 
   // +--------------------+------------------------------------------
@@ -81,14 +112,50 @@ public class JSONReal implements JSONValue {
    * Write the value as JSON.
    */
   public void writeJSON(PrintWriter pen) {
-    pen.print(this.value.toString());
-    pen.flush();
+    JSONGenerator.write(this, pen);
   } // writeJSON(PrintWriter)
 
+  /**
+   * Write the value through a generator.
+   */
+  public void writeJSON(JSONGenerator gen) throws IOException {
+    if (this.big != null) {
+      gen.writeNumber(this.big);
+    } else {
+      gen.writeNumber(this.value);
+    } // if/else
+  } // writeJSON(JSONGenerator)
+
   /**
    * Get the underlying value.
    */
   public BigDecimal getValue() {
-    return this.value;
+    if (this.big != null) {
+      return this.big;
+    } else {
+      return new BigDecimal(JSONNumbers.toString(this.value));
+    } // if/else
   } // getValue()
+
+  // +-----------------+---------------------------------------------
+  // | Primitive views |
+  // +-----------------+
+
+  /**
+   * Determine if the real is held exactly as a double.
+   */
+  public boolean isDouble() {
+    return this.big == null;
+  } // isDouble()
+
+  /**
+   * Get the real as the nearest double.
+   */
+  public double doubleValue() {
+    if (this.big != null) {
+      return this.big.doubleValue();
+    } else {
+      return this.value;
+    } // if/else
+  } // doubleValue()
 } // class JSONReal
\ No newline at end of file
@@ -0,0 +1,200 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The layout of the hashes that have a given sequence of keys. A hash
+ * built by a parser points at its shape for its keys and their index, and
+ * keeps only its values, so millions of records with the same keys share
+ * one copy of them.
+ *
+ * Shapes form a tree: adding a key to a hash moves it from its shape to a
+ * child shape with that key appended, made the first time it is needed.
+ * Shapes never change once made, so any number of threads may share them.
+ * To keep the tree from growing without end (say, for hashes used as
+ * dictionaries with made-up keys), shapes stop at MAX_KEYS keys, and a
+ * key longer than MAX_KEY_LENGTH never enters one; a hash that cannot
+ * move on keeps its own keys instead. Once MAX_SHAPES shapes have been
+ * made, the tree is dropped and a new one started from a new root, so
+ * the old keys go as soon as no hash uses them and later parses share
+ * shapes again.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONShape {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The most keys a shape may have.
+   */
+  static final int MAX_KEYS = 64;
+
+  /**
+   * The longest key, in chars, that a shape may have.
+   */
+  static final int MAX_KEY_LENGTH = 128;
+
+  /**
+   * The most shapes we make before starting a new tree.
+   */
+  static final int MAX_SHAPES = 1 << 16;
+
+  /**
+   * The number of shapes made since the tree was last started.
+   */
+  static final AtomicInteger COUNT = new AtomicInteger(1);
+
+  // +---------------+-----------------------------------------------
+  // | Static fields |
+  // +---------------+
+
+  /**
+   * The shape with no keys, where every new shaped hash starts.
+   */
+  static volatile JSONShape root = new JSONShape(new JSONString[0]);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The keys, in order.
+   */
+  final JSONString[] keys;
+
+  /**
+   * The open-addressing index into keys, laid out as in JSONHash, or
+   * null if there are few enough keys to scan.
+   */
+  final int[] index;
+
+  /**
+   * The shapes with one more key, by that key (made when first needed).
+   */
+  volatile ConcurrentHashMap<JSONString, JSONShape> transitions;
+
+  /**
+   * The child shape we moved to most recently. Records with the same keys
+   * take the same path, so this is usually the one we want next.
+   */
+  JSONShape recent;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create the shape for a sequence of keys.
+   */
+  JSONShape(JSONString[] keys) {
+    this.keys = keys;
+    if (keys.length <= JSONHash.SMALL) {
+      this.index = null;
+      return;
+    } // if
+    this.index = new int[JSONHash.indexLength(keys.length)];
+    int mask = this.index.length - 1;
+    for (int i = 0; i < keys.length; i++) {
+      int slot = keys[i].seededHash() & mask;
+      while (this.index[slot] != 0) {
+        slot = (slot + 1) & mask;
+      } // while
+      this.index[slot] = i + 1;
+    } // for
+  } // JSONShape(JSONString[])
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Get the shape with no keys, where a new shaped hash starts.
+   */
+  static JSONShape root() {
+    return root;
+  } // root()
+
+  /**
+   * Drop the tree of shapes and start a new one, if the tree has grown
+   * to MAX_SHAPES. Hashes keep the shapes they have, but no new hash
+   * will reach them.
+   */
+  static synchronized void restart() {
+    if (COUNT.get() >= MAX_SHAPES) {
+      root = new JSONShape(new JSONString[0]);
+      COUNT.set(1);
+    } // if
+  } // restart()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of keys.
+   */
+  public int size() {
+    return this.keys.length;
+  } // size()
+
+  /**
+   * Get the shape with key added at the end, or null if there may not
+   * be one. The key must not already be in this shape.
+   */
+  JSONShape transition(JSONString key) {
+    int n = this.keys.length;
+    JSONShape next = this.recent;
+    if (next != null && next.keys[n].equals(key)) {
+      return next;
+    } // if
+    if (n == MAX_KEYS || key.value.length() > MAX_KEY_LENGTH) {
+      return null;
+    } // if
+
+    ConcurrentHashMap<JSONString, JSONShape> map = this.transitions;
+    if (map == null) {
+      synchronized (this) {
+        map = this.transitions;
+        if (map == null) {
+          map = new ConcurrentHashMap<JSONString, JSONShape>(4);
+          this.transitions = map;
+        } // if
+      } // synchronized
+    } // if
+    next = map.get(key);
+    if (next == null) {
+      if (COUNT.get() >= MAX_SHAPES) {
+        // This hash keeps its own keys; the next one starts a new tree
+        restart();
+        return null;
+      } // if
+      next = map.computeIfAbsent(key, (k) -> {
+        COUNT.incrementAndGet();
+        JSONString[] extended = new JSONString[n + 1];
+        System.arraycopy(this.keys, 0, extended, 0, n);
+        extended[n] = k;
+        return new JSONShape(extended);
+      });
+    } // if
+    this.recent = next;
+    return next;
+  } // transition(JSONString)
+
+  /**
+   * Find the position of key in this shape, or -1 if it is not there.
+   */
+  int find(JSONString key) {
+    if (this.index == null) {
+      return JSONHash.scan(this.keys, this.keys.length, key);
+    } // if
+    int mask = this.index.length - 1;
+    for (int slot = key.seededHash() & mask; ; slot = (slot + 1) & mask) {
+      int i = this.index[slot] - 1;
+      if (i < 0 || this.keys[i] == key || this.keys[i].equals(key)) {
+        return i;
+      } // if
+    } // for
+  } // find(JSONString)
+} // class JSONShape
@@ -1,4 +1,6 @@
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.security.SecureRandom;
 
 /**
  * JSON strings.
@@ -9,6 +11,16 @@ import java.io.PrintWriter;
  */
 public class JSONString implements JSONValue {
 
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The seed for seededHash, picked at random when the program starts so
+   * that no one can work out ahead of time which keys will collide.
+   */
+  static final long SEED = new SecureRandom().nextLong();
+
   // +--------+------------------------------------------------------
   // | Fields |
   // +--------+
@@ -18,6 +30,21 @@ public class JSONString implements JSONValue {
    */
   String value;
 
+  /**
+   * The hash code, or 0 if it has not been computed yet.
+   */
+  int hash;
+
+  /**
+   * The seeded hash code, or 0 if it has not been computed yet.
+   */
+  int seeded;
+
+  /**
+   * Our cached output, if we are long enough to have any, or null.
+   */
+  JSONWriteCache.Entry cached;
+
   // +--------------+------------------------------------------------
   // | Constructors |
   // +--------------+
@@ -29,6 +56,14 @@ public class JSONString implements JSONValue {
     this.value = value;
   } // JSONString(String)
 
+  /**
+   * Build a new JSON string for a string whose hash code is already known.
+   */
+  JSONString(String value, int hash) {
+    this.value = value;
+    this.hash = hash;
+  } // JSONString(String, int)
+
   // +-------------------------+-------------------------------------
   // | Standard object methods |
   // +-------------------------+
@@ -44,8 +79,15 @@ public class JSONString implements JSONValue {
    * Compare to another object.
    */
   public boolean equals(Object other) {
-    if (other instanceof JSONString) {
-      return this.value.equals(((JSONString) other).getValue());
+    if (this == other) {
+      return true;
+    } else if (other instanceof JSONString) {
+      JSONString str = (JSONString) other;
+      // Known hash codes that differ rule out a match cheaply
+      if (this.hash != 0 && str.hash != 0 && this.hash != str.hash) {
+        return false;
+      } // if
+      return this.value.equals(str.getValue());
     } else {
       return false;
     } // if/else
@@ -55,59 +97,56 @@ public class JSONString implements JSONValue {
    * Compute the hash code.
    */
   public int hashCode() {
-    return this.value.hashCode();
+    if (this.hash == 0) {
+      this.hash = this.value.hashCode();
+    } // if
+    return this.hash;
   } // hashCode()
 
   // +--------------------+------------------------------------------
   // | Additional methods |
   // +--------------------+
 
+  /**
+   * Compute the hash code that hash tables use to place this string.
+   * Unlike hashCode, which anyone can predict (so it is easy to make
+   * thousands of keys with the same one), it depends on SEED, and each
+   * character is mixed in before the next is added.
+   */
+  public int seededHash() {
+    if (this.seeded == 0) {
+      long h = SEED ^ (this.value.length() * 0x9E3779B97F4A7C15L);
+      for (int i = 0; i < this.value.length(); i++) {
+        h = (h ^ this.value.charAt(i)) * 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 31;
+      } // for
+      h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+      h ^= h >>> 33;
+      // 0 means "not yet", so that one value is moved aside
+      int code = (int) h;
+      this.seeded = (code == 0) ? 1 : code;
+    } // if
+    return this.seeded;
+  } // seededHash()
+
   /**
    * Write the value as JSON.
    */
   public void writeJSON(PrintWriter pen) {
-    String JSONstr = "\"";
-
-    for (int i = 0; i < this.value.length(); i++) {
-      char currentChar = this.value.charAt(i);
-
-      if (Character.isLetter(currentChar) || Character.isDigit(currentChar)
-          || Character.isSpaceChar(currentChar)) {
-        JSONstr += currentChar;
-      } else {
-        switch (currentChar) {
-          case '\n':
-            JSONstr += "\\n";
-            break;
-          case '\t':
-            JSONstr += "\\t";
-            break;
-          case '\r':
-            JSONstr += "\\r";
-            break;
-          case '\"':
-            JSONstr += "\"";
-            break;
-          case '\'':
-            JSONstr += "\'";
-            break;
-          case '\b':
-            JSONstr += "\b'";
-            break;
-          case '\\':
-            JSONstr += "\\";
-            break;
-          case '\f':
-            JSONstr += "\\f";
-            break;
-        } // switch
-      } // if/else
-    } // for
-
-    pen.print(JSONstr + "\"");
-    pen.flush();
+    JSONGenerator.write(this, pen);
   } // writeJSON(PrintWriter)
 
+  /**
+   * Write the value through a generator.
+   */
+  public void writeJSON(JSONGenerator gen) throws IOException {
+    if (gen.writeCached(this)) {
+      return;
+    } // if
+    gen.writeString(this.value);
+    gen.written(this);
+  } // writeJSON(JSONGenerator)
+
   /**
    * Get the underlying value.
    */
@@ -0,0 +1,296 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the characters that matter in UTF-8 JSON many bytes at a time.
+ * Eight bytes are loaded into a long and compared all at once (SWAR, "SIMD
+ * within a register"), which gives a mask with the high bit of each
+ * matching byte set. To pass over a container, the masks of 64 bytes are
+ * gathered into one bit per byte: quotes, backslashes, opening brackets
+ * and closing brackets. From these we work out which bytes are inside
+ * strings, and then only the brackets outside strings are visited.
+ *
+ * Setting the system property json.scalar to true turns the index off,
+ * so that the plain byte-at-a-time loops are used instead.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONStructuralIndex {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * Whether to scan a word at a time.
+   */
+  static final boolean ENABLED = !Boolean.getBoolean("json.scalar");
+
+  /**
+   * A one in every byte.
+   */
+  static final long ONES = 0x0101010101010101L;
+
+  /**
+   * The low seven bits of every byte.
+   */
+  static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+
+  /**
+   * The high bit of every byte.
+   */
+  static final long HIGH = 0x8080808080808080L;
+
+  /**
+   * Multiplying by this moves bit 0 of each byte into the top byte.
+   */
+  static final long GATHER = 0x0102040810204080L;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * How many containers we are inside.
+   */
+  int depth;
+
+  /**
+   * Whether the scan stopped inside a string.
+   */
+  boolean inString;
+
+  /**
+   * Whether the scan stopped just after a backslash.
+   */
+  boolean escaped;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an index for passing over one container.
+   */
+  JSONStructuralIndex() {
+    reset();
+  } // JSONStructuralIndex()
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Find the first quote, backslash or control character in
+   * buf[i..end), or end if there is none.
+   */
+  static int nextSpecial(ByteBuffer buf, int i, int end) {
+    if (ENABLED) {
+      while (i + 8 <= end) {
+        long word = load(buf, i);
+        long hits = zeros(word ^ (ONES * '"'))
+            | zeros(word ^ (ONES * '\\'))
+            | zeros(word & (ONES * 0xE0));
+        if (hits != 0) {
+          return i + (Long.numberOfTrailingZeros(hits) >>> 3);
+        } // if
+        i += 8;
+      } // while
+    } // if
+    return nextSpecialScalar(buf, i, end);
+  } // nextSpecial(ByteBuffer, int, int)
+
+  /**
+   * Find the first quote, backslash or control character in
+   * buf[i..end) a byte at a time, or end if there is none.
+   */
+  static int nextSpecialScalar(ByteBuffer buf, int i, int end) {
+    while (i < end) {
+      byte b = buf.get(i);
+      if (b == '"' || b == '\\' || (b >= 0 && b < ' ')) {
+        return i;
+      } // if
+      i++;
+    } // while
+    return end;
+  } // nextSpecialScalar(ByteBuffer, int, int)
+
+  /**
+   * Find the first byte in buf[i..end) that is not whitespace, or end
+   * if there is none.
+   */
+  static int nextNonWhitespace(ByteBuffer buf, int i, int end) {
+    if (ENABLED) {
+      while (i + 8 <= end) {
+        long word = load(buf, i);
+        long spaces = zeros(word ^ (ONES * ' '))
+            | zeros(word ^ (ONES * '\n'))
+            | zeros(word ^ (ONES * '\r'))
+            | zeros(word ^ (ONES * '\t'));
+        long others = ~spaces & HIGH;
+        if (others != 0) {
+          return i + (Long.numberOfTrailingZeros(others) >>> 3);
+        } // if
+        i += 8;
+      } // while
+    } // if
+    return nextNonWhitespaceScalar(buf, i, end);
+  } // nextNonWhitespace(ByteBuffer, int, int)
+
+  /**
+   * Find the first byte in buf[i..end) that is not whitespace a byte at
+   * a time, or end if there is none.
+   */
+  static int nextNonWhitespaceScalar(ByteBuffer buf, int i, int end) {
+    while (i < end && JSON.isWhitespace(buf.get(i))) {
+      i++;
+    } // while
+    return i;
+  } // nextNonWhitespaceScalar(ByteBuffer, int, int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get ready to pass over a container whose opening bracket has just
+   * been read.
+   */
+  void reset() {
+    this.depth = 1;
+    this.inString = false;
+    this.escaped = false;
+  } // reset()
+
+  /**
+   * Continue passing over the container through buf[i..end). Returns the
+   * index just past its closing bracket, or -1 if the container goes on
+   * past end, in which case the scan can be continued with the next bytes.
+   */
+  int findEnd(ByteBuffer buf, int i, int end) {
+    while (i + 64 <= end) {
+      long quotes = 0;
+      long backslashes = 0;
+      long opens = 0;
+      long closes = 0;
+      for (int k = 0; k < 64; k += 8) {
+        long word = load(buf, i + k);
+        quotes |= gather(zeros(word ^ (ONES * '"'))) << k;
+        backslashes |= gather(zeros(word ^ (ONES * '\\'))) << k;
+        opens |= gather(zeros(word ^ (ONES * '{')) | zeros(word ^ (ONES * '['))) << k;
+        closes |= gather(zeros(word ^ (ONES * '}')) | zeros(word ^ (ONES * ']'))) << k;
+      } // for
+
+      long outside = ~strings(quotes, backslashes);
+      long marks = (opens | closes) & outside;
+      while (marks != 0) {
+        long bit = marks & -marks;
+        marks ^= bit;
+        if ((opens & bit) != 0) {
+          this.depth++;
+        } else if (--this.depth == 0) {
+          return i + Long.numberOfTrailingZeros(bit) + 1;
+        } // if...else
+      } // while
+      i += 64;
+    } // while
+
+    // Fewer than 64 bytes remain
+    return findEndScalar(buf, i, end);
+  } // findEnd(ByteBuffer, int, int)
+
+  /**
+   * Continue passing over the container through buf[i..end) a byte at a
+   * time, as findEnd does.
+   */
+  int findEndScalar(ByteBuffer buf, int i, int end) {
+    while (i < end) {
+      byte b = buf.get(i++);
+      if (this.escaped) {
+        this.escaped = false;
+      } else if (b == '\\') {
+        this.escaped = true;
+      } else if (b == '"') {
+        this.inString = !this.inString;
+      } else if (this.inString) {
+        continue;
+      } else if (b == '{' || b == '[') {
+        this.depth++;
+      } else if ((b == '}' || b == ']') && --this.depth == 0) {
+        return i;
+      } // if...else
+    } // while
+    return -1;
+  } // findEndScalar(ByteBuffer, int, int)
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Work out which of 64 bytes are inside strings or escaped, given which
+   * are quotes and which are backslashes; no such byte is a bracket that
+   * counts. A string's opening quote counts as inside and its closing
+   * quote does not.
+   */
+  long strings(long quotes, long backslashes) {
+    // Each backslash that is not itself escaped escapes the next byte
+    long escapedBits = this.escaped ? 1L : 0L;
+    this.escaped = false;
+    long pending = backslashes & ~escapedBits;
+    while (pending != 0) {
+      long bit = pending & -pending;
+      long next = bit << 1;
+      if (next == 0) {
+        this.escaped = true;
+      } // if
+      escapedBits |= next;
+      pending &= ~(bit | next);
+    } // while
+
+    // Everything from an opening quote up to its closing quote
+    long inside = prefixXor(quotes & ~escapedBits);
+    if (this.inString) {
+      inside = ~inside;
+    } // if
+    this.inString = inside < 0;
+    return inside | escapedBits;
+  } // strings(long, long)
+
+  /**
+   * Load buf[i..i+8) with the byte at i in the low bits.
+   */
+  static long load(ByteBuffer buf, int i) {
+    long word = buf.getLong(i);
+    return (buf.order() == ByteOrder.LITTLE_ENDIAN) ? word : Long.reverseBytes(word);
+  } // load(ByteBuffer, int)
+
+  /**
+   * Set the high bit of each byte of word that is zero, and clear every
+   * other bit.
+   */
+  static long zeros(long word) {
+    return ~(((word & LOW7) + LOW7) | word | LOW7);
+  } // zeros(long)
+
+  /**
+   * Turn a mask with only high bits set into one bit per byte.
+   */
+  static long gather(long mask) {
+    return ((mask >>> 7) * GATHER) >>> 56;
+  } // gather(long)
+
+  /**
+   * Set each bit to the xor of itself and every lower bit, so that the
+   * bits between pairs of ones are set.
+   */
+  static long prefixXor(long bits) {
+    bits ^= bits << 1;
+    bits ^= bits << 2;
+    bits ^= bits << 4;
+    bits ^= bits << 8;
+    bits ^= bits << 16;
+    bits ^= bits << 32;
+    return bits;
+  } // prefixXor(long)
+} // class JSONStructuralIndex
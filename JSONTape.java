@@ -0,0 +1,305 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+
+/**
+ * A structural index of a JSON document, used to build hashes and arrays
+ * lazily. One pass over the text checks it and records, for every value
+ * (and every key), where it starts and where its subtree ends. Hashes and
+ * arrays made from the tape only decode a child the first time it is
+ * touched, so parts of the document that are never read cost almost
+ * nothing.
+ *
+ * Entries are numbered in document order. For entry e, offsets[e] is the
+ * position of its first character and next[e] is the entry just after
+ * its subtree. The children of a container at entry e therefore start at
+ * e + 1 and are linked by next until next[e]. In a hash, the children
+ * alternate between keys and values.
+ *
+ * Decoding a scalar moves the tape's one tokenizer, so decode holds the
+ * tape's lock while it does; lazy values from one tape can then be read
+ * from several threads at once.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONTape {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The text of the document.
+   */
+  char[] source;
+
+  /**
+   * Where each entry starts in source.
+   */
+  int[] offsets;
+
+  /**
+   * The entry just past each entry's subtree.
+   */
+  int[] next;
+
+  /**
+   * The number of entries.
+   */
+  int count;
+
+  /**
+   * The tokenizer we use, first to check the text and then to decode
+   * entries.
+   */
+  JSONReaderTokenizer tokens;
+
+  /**
+   * The parser we use to decode scalars.
+   */
+  JSONParser parser;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build the tape for source[0..length).
+   */
+  JSONTape(char[] source, int length) throws ParseException, IOException {
+    this.source = source;
+    this.offsets = new int[16];
+    this.next = new int[16];
+    this.count = 0;
+    this.tokens = new JSONReaderTokenizer(source, 0, length);
+    this.parser = new JSONParser(this.tokens);
+
+    scanValue(this.tokens.skipWhitespace());
+    if (-1 != this.tokens.skipWhitespace()) {
+      throw new ParseException("Characters remain at end", this.tokens.position() - 1);
+    } // if
+  } // JSONTape(char[], int)
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Parse a string lazily.
+   */
+  public static JSONValue parse(String source) throws ParseException, IOException {
+    char[] chars = source.toCharArray();
+    return new JSONTape(chars, chars.length).root();
+  } // parse(String)
+
+  /**
+   * Parse everything a reader has lazily. The text is kept in memory
+   * for as long as any lazy value still needs it.
+   */
+  public static JSONValue parse(Reader source) throws ParseException, IOException {
+    char[] chars = new char[JSONReaderTokenizer.DEFAULT_BUFFER_SIZE];
+    int length = 0;
+    int count;
+    while ((count = source.read(chars, length, chars.length - length)) >= 0) {
+      length += count;
+      if (length == chars.length) {
+        char[] newChars = new char[2 * chars.length];
+        System.arraycopy(chars, 0, newChars, 0, length);
+        chars = newChars;
+      } // if
+    } // while
+    return new JSONTape(chars, length).root();
+  } // parse(Reader)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the value of the whole document.
+   */
+  public JSONValue root() {
+    return decode(0);
+  } // root()
+
+  /**
+   * Get the value for an entry. Hashes and arrays come back lazy.
+   */
+  JSONValue decode(int entry) {
+    switch (this.source[this.offsets[entry]]) {
+      case '{':
+        return new JSONHash(this, entry);
+      case '[':
+        return new JSONArray(this, entry);
+      default:
+        return decodeScalar(entry);
+    } // switch
+  } // decode(int)
+
+  /**
+   * Decode the scalar at an entry with our tokenizer.
+   */
+  synchronized JSONValue decodeScalar(int entry) {
+    try {
+      this.tokens.seek(this.offsets[entry]);
+      return this.parser.parseValue(this.tokens.skipWhitespace());
+    } catch (ParseException | IOException e) {
+      // We checked the text when we built the tape
+      throw new IllegalStateException(e);
+    } // try/catch
+  } // decodeScalar(int)
+
+  /**
+   * Find the entries of the children of a container.
+   */
+  int[] children(int entry) {
+    int n = 0;
+    for (int e = entry + 1; e < this.next[entry]; e = this.next[e]) {
+      n++;
+    } // for
+    int[] result = new int[n];
+    int i = 0;
+    for (int e = entry + 1; e < this.next[entry]; e = this.next[e]) {
+      result[i++] = e;
+    } // for
+    return result;
+  } // children(int)
+
+  /**
+   * Determine if the string at entry is key, without decoding it.
+   */
+  boolean keyEquals(int entry, String key) {
+    char[] chars = this.source;
+    int start = this.offsets[entry] + 1;
+    int len = key.length();
+    // Compare the plain characters; an escape means we must decode
+    for (int i = 0; i < len; i++) {
+      char ch = chars[start + i];
+      if (ch == '\\') {
+        return ((JSONString) decode(entry)).getValue().equals(key);
+      } else if (ch != key.charAt(i) || ch == '"') {
+        return false;
+      } // if...else
+    } // for
+    return chars[start + len] == '"';
+  } // keyEquals(int, String)
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Record and check a value whose first character has been read.
+   */
+  void scanValue(int ch) throws ParseException, IOException {
+    int entry = add(this.tokens.position() - 1);
+    switch (ch) {
+      case '"':
+        this.tokens.skipString();
+        break;
+      case '{':
+        scanHash();
+        break;
+      case '[':
+        scanArray();
+        break;
+      case 't':
+        this.tokens.readLiteral("true");
+        break;
+      case 'f':
+        this.tokens.readLiteral("false");
+        break;
+      case 'n':
+        this.tokens.readLiteral("null");
+        break;
+      case '-':
+      case '0': case '1': case '2': case '3': case '4':
+      case '5': case '6': case '7': case '8': case '9':
+        this.tokens.scanNumber(ch);
+        break;
+      case -1:
+        throw new ParseException("Unexpected end of file", this.tokens.position());
+      default:
+        throw new ParseException("Invalid initial character", this.tokens.position() - 1);
+    } // switch
+    this.next[entry] = this.count;
+  } // scanValue(int)
+
+  /**
+   * Record and check the rest of a hash whose brace has been read.
+   */
+  void scanHash() throws ParseException, IOException {
+    if (this.tokens.peek() == '}') {
+      this.tokens.skipWhitespace();
+      return;
+    } // if
+
+    int input;
+    do {
+      input = this.tokens.skipWhitespace();
+      if (input != '"') {
+        throw error(input, "Invalid key for JSONHash");
+      } // if
+      int key = add(this.tokens.position() - 1);
+      this.tokens.skipString();
+      this.next[key] = this.count;
+
+      input = this.tokens.skipWhitespace();
+      if (input != ':') {
+        throw error(input, "Invalid format for JSONHash");
+      } // if
+      scanValue(this.tokens.skipWhitespace());
+      input = this.tokens.skipWhitespace();
+    } while (input == ',');
+
+    if (input != '}') {
+      throw error(input, "Invalid format for JSONHash");
+    } // if
+  } // scanHash()
+
+  /**
+   * Record and check the rest of an array whose bracket has been read.
+   */
+  void scanArray() throws ParseException, IOException {
+    if (this.tokens.peek() == ']') {
+      this.tokens.skipWhitespace();
+      return;
+    } // if
+
+    int input;
+    do {
+      scanValue(this.tokens.skipWhitespace());
+      input = this.tokens.skipWhitespace();
+    } while (input == ',');
+
+    if (input != ']') {
+      throw error(input, "Invalid format for JSONArray");
+    } // if
+  } // scanArray()
+
+  /**
+   * Add an entry that starts at offset, returning its number.
+   */
+  int add(int offset) {
+    if (this.count == this.offsets.length) {
+      int[] newOffsets = new int[2 * this.count];
+      int[] newNext = new int[2 * this.count];
+      System.arraycopy(this.offsets, 0, newOffsets, 0, this.count);
+      System.arraycopy(this.next, 0, newNext, 0, this.count);
+      this.offsets = newOffsets;
+      this.next = newNext;
+    } // if
+    this.offsets[this.count] = offset;
+    return this.count++;
+  } // add(int)
+
+  /**
+   * Build the exception for an unexpected character.
+   */
+  ParseException error(int ch, String message) {
+    if (ch == -1) {
+      return new ParseException("Unexpected end of file", this.tokens.position());
+    } // if
+    return new ParseException(message, this.tokens.position() - 1);
+  } // error(int, String)
+} // class JSONTape
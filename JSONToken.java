@@ -0,0 +1,71 @@
+/**
+ * The kinds of tokens that a JSONReader produces.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public enum JSONToken {
+  /**
+   * The opening brace of a hash.
+   */
+  START_OBJECT,
+
+  /**
+   * The closing brace of a hash.
+   */
+  END_OBJECT,
+
+  /**
+   * The opening bracket of an array.
+   */
+  START_ARRAY,
+
+  /**
+   * The closing bracket of an array.
+   */
+  END_ARRAY,
+
+  /**
+   * A key in a hash.
+   */
+  FIELD_NAME,
+
+  /**
+   * A string value.
+   */
+  VALUE_STRING,
+
+  /**
+   * An integer or real value.
+   */
+  VALUE_NUMBER,
+
+  /**
+   * The constant true.
+   */
+  VALUE_TRUE,
+
+  /**
+   * The constant false.
+   */
+  VALUE_FALSE,
+
+  /**
+   * The constant null.
+   */
+  VALUE_NULL;
+
+  /**
+   * Determine if the token starts a hash or array.
+   */
+  public boolean isStart() {
+    return this == START_OBJECT || this == START_ARRAY;
+  } // isStart()
+
+  /**
+   * Determine if the token ends a hash or array.
+   */
+  public boolean isEnd() {
+    return this == END_OBJECT || this == END_ARRAY;
+  } // isEnd()
+} // enum JSONToken
@@ -0,0 +1,479 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.ParseException;
+
+/**
+ * Splits JSON text into tokens. Subclasses decide where the text comes
+ * from; this class holds the parts of the grammar that do not depend on
+ * the source. Whitespace is only skipped between tokens.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public abstract class JSONTokenizer {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The most decimal digits that always fit in a long.
+   */
+  static final int MAX_LONG_DIGITS = 18;
+
+  /**
+   * The most decimal digits that always fit in an unsigned long.
+   */
+  static final int MAX_SIGNIFICANT_DIGITS = 19;
+
+  /**
+   * The most significant decimal digits that always survive a round
+   * trip through a double.
+   */
+  static final int MAX_EXACT_DOUBLE_DIGITS = 15;
+
+  /**
+   * The powers of ten that are exact doubles.
+   */
+  static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Scratch space for strings that cross windows or contain escapes,
+   * and for numbers.
+   */
+  char[] scratch = new char[64];
+
+  /**
+   * The number of characters in use in scratch.
+   */
+  int scratchLen;
+
+  /**
+   * Scratch space for checking that a real reads back as written.
+   */
+  byte[] digits = new byte[JSONNumbers.MAX_LENGTH];
+
+  // +------------------+--------------------------------------------
+  // | Abstract methods |
+  // +------------------+
+
+  /**
+   * Get the position of the next unread character in the input.
+   */
+  public abstract int position();
+
+  /**
+   * Skip whitespace and read the next character, or -1 at the end
+   * of the input.
+   */
+  public abstract int skipWhitespace() throws IOException;
+
+  /**
+   * Skip whitespace and look at the next character without reading it.
+   * Returns -1 at the end of the input.
+   */
+  public abstract int peek() throws IOException;
+
+  /**
+   * Read the rest of a string whose opening quote has already been read.
+   *
+   * @return the contents of the string, with escapes replaced
+   * @throws ParseException when the string is badly formed or unterminated
+   * @throws IOException I/O problem when reading
+   */
+  public abstract String readString() throws ParseException, IOException;
+
+  /**
+   * Pass over the rest of a string whose opening quote has already been
+   * read, checking it but not building it.
+   *
+   * @throws ParseException when the string is badly formed or unterminated
+   * @throws IOException I/O problem when reading
+   */
+  public abstract void skipString() throws ParseException, IOException;
+
+  /**
+   * Pass over the rest of a hash or array whose opening brace or bracket
+   * has already been read. Only brackets and quotes are looked at, so
+   * nothing inside is checked or built.
+   *
+   * @throws ParseException when the input ends first
+   * @throws IOException I/O problem when reading
+   */
+  public abstract void skipContainer() throws ParseException, IOException;
+
+  /**
+   * Copy the rest of a string whose opening quote has been read into
+   * scratch (after whatever scratch already holds), replacing escapes.
+   */
+  abstract void readStringInto() throws ParseException, IOException;
+
+  /**
+   * Read the next character, whitespace or not, or -1 at the end.
+   */
+  abstract int read() throws IOException;
+
+  /**
+   * Look at the next character, whitespace or not, without reading it.
+   */
+  abstract int peekChar() throws IOException;
+
+  /**
+   * Read the character that peekChar just returned.
+   */
+  abstract void advance();
+
+  /**
+   * Copy digits into scratch until a non-digit, which is returned but
+   * not read.
+   */
+  abstract int readDigits() throws IOException;
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Read the rest of a number whose first character ('-' or a digit)
+   * has already been read.
+   *
+   * @param first the first character of the number
+   * @return a JSONInteger or JSONReal
+   * @throws ParseException when the number is badly formed
+   * @throws IOException I/O problem when reading
+   */
+  public JSONValue readNumber(int first) throws ParseException, IOException {
+    return toNumber(scanNumber(first));
+  } // readNumber(int)
+
+  /**
+   * Check the rest of a number whose first character has already been
+   * read, leaving its characters in scratch.
+   *
+   * @param first the first character of the number
+   * @return true if the number is a real, false if it is an integer
+   * @throws ParseException when the number is badly formed
+   * @throws IOException I/O problem when reading
+   */
+  public boolean scanNumber(int first) throws ParseException, IOException {
+    this.scratchLen = 0;
+    boolean isReal = false;
+    int ch = first;
+
+    if (ch == '-') {
+      append('-');
+      ch = read();
+    } // if
+
+    // Integer part: a single zero, or digits without a leading zero
+    if (ch == '0') {
+      append('0');
+      ch = peekChar();
+      if (isDigit(ch)) {
+        throw new ParseException("Leading zero in number", position());
+      } // if
+    } else if (isDigit(ch)) {
+      append((char) ch);
+      ch = readDigits();
+    } else {
+      throw new ParseException("Invalid format for number", position());
+    } // if...else
+
+    // Fraction
+    if (ch == '.') {
+      advance();
+      append('.');
+      ch = read();
+      if (!isDigit(ch)) {
+        throw new ParseException("Invalid format for JSONReal", position());
+      } // if
+      append((char) ch);
+      ch = readDigits();
+      isReal = true;
+    } // if
+
+    // Exponent
+    if (ch == 'e' || ch == 'E') {
+      advance();
+      append('e');
+      ch = read();
+      if (ch == '+' || ch == '-') {
+        append((char) ch);
+        ch = read();
+      } // if
+      if (!isDigit(ch)) {
+        throw new ParseException("Invalid format for JSONReal", position());
+      } // if
+      append((char) ch);
+      readDigits();
+      isReal = true;
+    } // if
+
+    return isReal;
+  } // scanNumber(int)
+
+  /**
+   * Read the rest of a literal (true, false, or null) whose first
+   * character has already been read.
+   *
+   * @param word the whole literal
+   * @throws ParseException when the input does not match the literal
+   * @throws IOException I/O problem when reading
+   */
+  public void readLiteral(String word) throws ParseException, IOException {
+    for (int i = 1; i < word.length(); i++) {
+      if (read() != word.charAt(i)) {
+        throw new ParseException("Incorrectly written JSONConstant", position());
+      } // if
+    } // for
+  } // readLiteral(String)
+
+  /**
+   * Pass over the rest of a value whose first character has already been
+   * read, without building it.
+   *
+   * @param first the first character of the value
+   * @throws ParseException when the input ends first
+   * @throws IOException I/O problem when reading
+   */
+  public void skipValue(int first) throws ParseException, IOException {
+    switch (first) {
+      case '"':
+        skipString();
+        break;
+      case '{':
+      case '[':
+        skipContainer();
+        break;
+      case -1:
+        throw new ParseException("Unexpected end of file", position());
+      default:
+        // A number or constant runs until the next delimiter
+        int ch = peekChar();
+        while (ch != -1 && ch != ',' && ch != '}' && ch != ']' && !JSON.isWhitespace(ch)) {
+          advance();
+          ch = peekChar();
+        } // while
+    } // switch
+  } // skipValue(int)
+
+  /**
+   * Read the rest of a string whose opening quote has been read into
+   * scratch, without building a String.
+   */
+  public void readKey() throws ParseException, IOException {
+    this.scratchLen = 0;
+    readStringInto();
+  } // readKey()
+
+  /**
+   * Determine if the string most recently read by readKey is str.
+   */
+  public boolean keyEquals(String str) {
+    int len = this.scratchLen;
+    if (str.length() != len) {
+      return false;
+    } // if
+    char[] chars = this.scratch;
+    for (int i = 0; i < len; i++) {
+      if (chars[i] != str.charAt(i)) {
+        return false;
+      } // if
+    } // for
+    return true;
+  } // keyEquals(String)
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Turn the number in scratch into a JSONInteger or JSONReal. Digits
+   * are gathered into a long; we only build a BigInteger or BigDecimal
+   * when the value does not fit in a long or a double.
+   *
+   * A real with up to MAX_SIGNIFICANT_DIGITS digits is converted to the
+   * nearest double directly: by a single multiplication or division
+   * when the significand and the power of ten are both exact doubles,
+   * and otherwise by JSONNumbers.toDouble (or, when that cannot decide,
+   * Double.parseDouble). With more than MAX_EXACT_DOUBLE_DIGITS digits,
+   * or a subnormal result, the double is kept only if it prints back as
+   * the number written.
+   */
+  JSONValue toNumber(boolean isReal) {
+    char[] chars = this.scratch;
+    int n = this.scratchLen;
+    int i = 0;
+    boolean negative = chars[0] == '-';
+    if (negative) {
+      i = 1;
+    } // if
+
+    long mantissa = 0;
+    int digits = 0;
+    int exp10 = 0;
+    boolean afterPoint = false;
+
+    // Gather the first MAX_SIGNIFICANT_DIGITS significant digits (as an
+    // unsigned long)
+    int start = i;
+    for (; i < n; i++) {
+      char ch = chars[i];
+      if (ch == '.') {
+        afterPoint = true;
+      } else if (ch == 'e') {
+        break;
+      } else if (digits < MAX_SIGNIFICANT_DIGITS) {
+        if (mantissa != 0 || ch != '0') {
+          mantissa = mantissa * 10 + (ch - '0');
+          digits++;
+        } // if
+        if (afterPoint) {
+          exp10--;
+        } // if
+      } else {
+        digits++;
+        if (!afterPoint) {
+          exp10++;
+        } // if
+      } // if...else
+    } // for
+
+    if (!isReal) {
+      if (digits <= MAX_LONG_DIGITS
+          || (digits == MAX_SIGNIFICANT_DIGITS && mantissa >= 0)) {
+        return new JSONInteger(negative ? -mantissa : mantissa);
+      } // if
+      return new JSONInteger(new BigInteger(new String(chars, 0, n)));
+    } // if
+
+    // Explicit exponent, clamped so that it cannot overflow
+    if (i < n) {
+      i++;
+      boolean negativeExp = chars[i] == '-';
+      if (chars[i] == '-' || chars[i] == '+') {
+        i++;
+      } // if
+      int exp = 0;
+      for (; i < n; i++) {
+        exp = Math.min(exp * 10 + (chars[i] - '0'), 100000);
+      } // for
+      exp10 += negativeExp ? -exp : exp;
+    } // if
+
+    if (digits <= MAX_SIGNIFICANT_DIGITS) {
+      double d;
+      boolean exact = mantissa >= 0 && mantissa <= JSONArray.MAX_EXACT;
+      if (mantissa == 0) {
+        d = 0.0;
+      } else if (exact && exp10 >= 0 && exp10 < POWERS_OF_TEN.length) {
+        // Both mantissa and the power are exact doubles, so a single
+        // multiplication or division is correctly rounded.
+        d = mantissa * POWERS_OF_TEN[exp10];
+      } else if (exact && exp10 < 0 && -exp10 < POWERS_OF_TEN.length) {
+        d = mantissa / POWERS_OF_TEN[-exp10];
+      } else {
+        d = JSONNumbers.toDouble(mantissa, exp10);
+        if (Double.isNaN(d)) {
+          d = Double.parseDouble(new String(chars, start, n - start));
+        } // if
+        if (Double.isInfinite(d) || d == 0.0) {
+          // Beyond what a double can hold
+          return new JSONReal(new BigDecimal(new String(chars, 0, n)));
+        } // if
+      } // if...else
+      // Subnormals have fewer digits of precision than that
+      if (mantissa == 0
+          || (digits <= MAX_EXACT_DOUBLE_DIGITS && d >= Double.MIN_NORMAL)
+          || JSONNumbers.isShortest(d, mantissa, exp10, this.digits)) {
+        return new JSONReal(negative ? -d : d);
+      } // if
+    } // if
+
+    return new JSONReal(new BigDecimal(new String(chars, 0, n)));
+  } // toNumber(boolean)
+
+  /**
+   * Read the rest of an escape sequence whose backslash has been read.
+   */
+  char readEscape() throws ParseException, IOException {
+    int ch = read();
+    switch (ch) {
+      case '"':
+        return '"';
+      case '\\':
+        return '\\';
+      case '/':
+        return '/';
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case 'u':
+        int code = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = Character.digit(read(), 16);
+          if (digit < 0) {
+            throw new ParseException("Invalid unicode escape", position());
+          } // if
+          code = (code << 4) | digit;
+        } // for
+        return (char) code;
+      case -1:
+        throw new ParseException("Unexpected end of file", position());
+      default:
+        throw new ParseException("Invalid escape in JSONString", position());
+    } // switch
+  } // readEscape()
+
+  /**
+   * Add one character to scratch.
+   */
+  void append(char ch) {
+    if (this.scratchLen == this.scratch.length) {
+      grow(1);
+    } // if
+    this.scratch[this.scratchLen++] = ch;
+  } // append(char)
+
+  /**
+   * Add a run of characters to scratch.
+   */
+  void append(char[] chars, int start, int len) {
+    if (this.scratchLen + len > this.scratch.length) {
+      grow(len);
+    } // if
+    System.arraycopy(chars, start, this.scratch, this.scratchLen, len);
+    this.scratchLen += len;
+  } // append(char[], int, int)
+
+  /**
+   * Make room in scratch for at least extra more characters.
+   */
+  void grow(int extra) {
+    int newSize = Math.max(2 * this.scratch.length, this.scratchLen + extra);
+    char[] newScratch = new char[newSize];
+    System.arraycopy(this.scratch, 0, newScratch, 0, this.scratchLen);
+    this.scratch = newScratch;
+  } // grow(int)
+
+  /**
+   * Determine if a character is a decimal digit.
+   */
+  static boolean isDigit(int ch) {
+    return '0' <= ch && ch <= '9';
+  } // isDigit(int)
+} // class JSONTokenizer
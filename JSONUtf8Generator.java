@@ -0,0 +1,432 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Writes JSON as UTF-8 bytes, to an OutputStream or into a ByteBuffer,
+ * without making a String (or a char[]) along the way. Characters are
+ * encoded straight into a byte buffer that is reused for the whole
+ * output. ASCII characters are looked up in ESCAPES, so plain text costs
+ * one table lookup and one store per character.
+ *
+ * A surrogate without its partner cannot be encoded in UTF-8, so it is
+ * written as an escape, which keeps it intact.
+ *
+ * Given a JSONWriteCache, the generator copies the output of hashes,
+ * arrays and long strings from it when it can, and otherwise keeps the
+ * output it makes for them there. To get at that output, the buffer
+ * holds on to everything from the start of the outermost value being
+ * kept, growing (up to the most the cache keeps for one value) instead
+ * of draining.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONUtf8Generator extends JSONGenerator {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The default size of the buffer, in bytes.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where the bytes go, if to a stream.
+   */
+  OutputStream out;
+
+  /**
+   * Where the bytes go, if to a buffer.
+   */
+  ByteBuffer target;
+
+  /**
+   * The bytes not yet passed on.
+   */
+  byte[] buffer;
+
+  /**
+   * The number of bytes in use in buffer.
+   */
+  int len;
+
+  /**
+   * The cache we copy output from and keep output in, or null.
+   */
+  JSONWriteCache cache;
+
+  /**
+   * The values being written whose output we may keep, innermost last.
+   */
+  JSONValue[] owners;
+
+  /**
+   * Where in buffer the output of each of owners starts.
+   */
+  int[] starts;
+
+  /**
+   * The epoch each of owners started in.
+   */
+  int[] epochs;
+
+  /**
+   * The JSONWriteCache flags on the output of each of owners.
+   */
+  byte[] flags;
+
+  /**
+   * The number of owners.
+   */
+  int frames;
+
+  /**
+   * How many of the innermost owners still have all of their output in
+   * buffer. The rest grew too big to keep.
+   */
+  int live;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a generator that writes to out, with a buffer of bufferSize
+   * bytes.
+   */
+  public JSONUtf8Generator(OutputStream out, int bufferSize) {
+    this.out = out;
+    this.buffer = new byte[Math.max(JSONNumbers.MAX_LENGTH, bufferSize)];
+    this.len = 0;
+  } // JSONUtf8Generator(OutputStream, int)
+
+  /**
+   * Create a generator that writes to out.
+   */
+  public JSONUtf8Generator(OutputStream out) {
+    this(out, DEFAULT_BUFFER_SIZE);
+  } // JSONUtf8Generator(OutputStream)
+
+  /**
+   * Create a generator that writes to out, copying the output of values
+   * from cache when it can and keeping it there when not.
+   */
+  public JSONUtf8Generator(OutputStream out, JSONWriteCache cache) {
+    this(out, DEFAULT_BUFFER_SIZE);
+    this.cache = cache;
+    this.owners = new JSONValue[16];
+    this.starts = new int[16];
+    this.epochs = new int[16];
+    this.flags = new byte[16];
+  } // JSONUtf8Generator(OutputStream, JSONWriteCache)
+
+  /**
+   * Create a generator that puts its bytes into target, from its
+   * position on. A target that fills up throws BufferOverflowException.
+   */
+  public JSONUtf8Generator(ByteBuffer target) {
+    this.target = target;
+    this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+    this.len = 0;
+  } // JSONUtf8Generator(ByteBuffer)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Pass on everything written so far.
+   */
+  public void flush() throws IOException {
+    this.live = 0;
+    drain();
+    if (this.out != null) {
+      this.out.flush();
+    } // if
+  } // flush()
+
+  /**
+   * Pass on everything written so far and close the stream (if any).
+   */
+  public void close() throws IOException {
+    this.live = 0;
+    drain();
+    if (this.out != null) {
+      this.out.close();
+    } // if
+  } // close()
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Write an ASCII character that needs no escaping.
+   */
+  void raw(char ch) throws IOException {
+    if (this.len == this.buffer.length) {
+      drain();
+    } // if
+    this.buffer[this.len++] = (byte) ch;
+  } // raw(char)
+
+  /**
+   * Write a string of ASCII characters that need no escaping.
+   */
+  void raw(String str) throws IOException {
+    int n = str.length();
+    for (int i = 0; i < n; ) {
+      if (this.len == this.buffer.length) {
+        drain();
+      } // if
+      int end = Math.min(n, i + this.buffer.length - this.len);
+      byte[] bytes = this.buffer;
+      int at = this.len;
+      while (i < end) {
+        bytes[at++] = (byte) str.charAt(i++);
+      } // while
+      this.len = at;
+    } // for
+  } // raw(String)
+
+  /**
+   * Write the first len bytes of ascii, which need no escaping.
+   */
+  void raw(byte[] ascii, int len) throws IOException {
+    if (this.buffer.length - this.len < len) {
+      drain();
+    } // if
+    System.arraycopy(ascii, 0, this.buffer, this.len, len);
+    this.len += len;
+  } // raw(byte[], int)
+
+  /**
+   * Write a string in quotes, encoding it as we go.
+   */
+  void quoted(String str) throws IOException {
+    raw('"');
+    int n = str.length();
+    int i = 0;
+    while (i < n) {
+      // Room for the longest thing one character can become
+      if (this.buffer.length - this.len <= 12) {
+        drain();
+      } // if
+
+      // Copy plain ASCII until the buffer (nearly) fills
+      byte[] bytes = this.buffer;
+      int at = this.len;
+      int stop = Math.min(n, i + bytes.length - at - 12);
+      char ch = 0;
+      while (i < stop && (ch = str.charAt(i)) < 0x80 && ESCAPES[ch] == 0) {
+        bytes[at++] = (byte) ch;
+        i++;
+      } // while
+      this.len = at;
+      if (i == stop) {
+        continue;
+      } // if
+
+      // Something else: an escape or a multibyte character
+      i++;
+      if (ch < 0x80) {
+        escape(ch);
+      } else if (ch < 0x800) {
+        bytes[at++] = (byte) (0xC0 | (ch >> 6));
+        bytes[at++] = (byte) (0x80 | (ch & 0x3F));
+        this.len = at;
+      } else if (!Character.isSurrogate(ch)) {
+        bytes[at++] = (byte) (0xE0 | (ch >> 12));
+        bytes[at++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+        bytes[at++] = (byte) (0x80 | (ch & 0x3F));
+        this.len = at;
+      } else if (Character.isHighSurrogate(ch) && i < n
+          && Character.isLowSurrogate(str.charAt(i))) {
+        int code = Character.toCodePoint(ch, str.charAt(i++));
+        bytes[at++] = (byte) (0xF0 | (code >> 18));
+        bytes[at++] = (byte) (0x80 | ((code >> 12) & 0x3F));
+        bytes[at++] = (byte) (0x80 | ((code >> 6) & 0x3F));
+        bytes[at++] = (byte) (0x80 | (code & 0x3F));
+        this.len = at;
+      } else {
+        unicodeEscape(ch);
+      } // if...else
+    } // while
+    raw('"');
+  } // quoted(String)
+
+  /**
+   * Write the escape for an ASCII character.
+   */
+  void escape(char ch) throws IOException {
+    byte letter = ESCAPES[ch];
+    if (letter == 'u') {
+      unicodeEscape(ch);
+    } else {
+      raw('\\');
+      raw((char) letter);
+    } // if/else
+  } // escape(char)
+
+  /**
+   * Write a character as a backslash, u, and four hex digits.
+   */
+  void unicodeEscape(char ch) throws IOException {
+    raw('\\');
+    raw('u');
+    raw(HEX[ch >> 12]);
+    raw(HEX[(ch >> 8) & 0xF]);
+    raw(HEX[(ch >> 4) & 0xF]);
+    raw(HEX[ch & 0xF]);
+  } // unicodeEscape(char)
+
+  /**
+   * Write a value from the cache if we have its output there; if not,
+   * start keeping track of its output.
+   */
+  boolean writeCached(JSONValue value) throws IOException {
+    if (this.cache == null) {
+      return false;
+    } // if
+    Object parent = (this.frames > 0) ? this.owners[this.frames - 1] : null;
+    byte inherited = JSONWriteCache.adopt(parent, value);
+    JSONWriteCache.Entry entry = this.cache.lookup(value);
+    if (entry != null) {
+      beforeValue();
+      splice(entry.bytes);
+      mark(entry.shared ? (byte) (inherited | JSONWriteCache.SHARED_BELOW) : inherited);
+      return true;
+    } // if
+    mark(inherited);
+    if (value instanceof JSONString
+        && ((JSONString) value).value.length() < JSONWriteCache.MIN_BYTES) {
+      return false;
+    } // if
+
+    if (this.frames == this.owners.length) {
+      int capacity = 2 * this.frames;
+      this.owners = Arrays.copyOf(this.owners, capacity);
+      this.starts = Arrays.copyOf(this.starts, capacity);
+      this.epochs = Arrays.copyOf(this.epochs, capacity);
+      this.flags = Arrays.copyOf(this.flags, capacity);
+    } // if
+    // The value starts after the separator that beforeValue will write
+    byte context = this.contexts[this.depth];
+    int top = this.frames++;
+    this.owners[top] = value;
+    this.starts[top] = this.len + ((context == ARRAY || context == TOP_AFTER) ? 1 : 0);
+    this.epochs[top] = JSONWriteCache.epoch.get();
+    this.flags[top] = (byte) (inherited & JSONWriteCache.UNCACHEABLE);
+    if (value instanceof ConcurrentJSONHash) {
+      // It may change as we write it, so its output is good only for
+      // this epoch
+      this.flags[top] |= JSONWriteCache.SHARED_BELOW;
+    } // if
+    this.live++;
+    return false;
+  } // writeCached(JSONValue)
+
+  /**
+   * Keep the output of a value that has just been written, if we have
+   * all of it and it is worth keeping.
+   */
+  void written(JSONValue value) {
+    if (this.frames == 0 || this.owners[this.frames - 1] != value) {
+      return;
+    } // if
+    int top = --this.frames;
+    byte flags = this.flags[top];
+    this.owners[top] = null;
+    if (this.live > 0) {
+      this.live--;
+      int start = this.starts[top];
+      if ((flags & JSONWriteCache.UNCACHEABLE) == 0
+          && this.len - start >= JSONWriteCache.MIN_BYTES) {
+        this.cache.put(value, Arrays.copyOfRange(this.buffer, start, this.len),
+            (flags & JSONWriteCache.SHARED_BELOW) != 0, this.epochs[top]);
+      } // if
+    } // if
+    mark(flags);
+  } // written(JSONValue)
+
+  /**
+   * Put flags on the output of the innermost value being written.
+   */
+  void mark(byte flags) {
+    if (this.frames > 0) {
+      this.flags[this.frames - 1] |= flags;
+    } // if
+  } // mark(byte)
+
+  /**
+   * Write bytes from the cache.
+   */
+  void splice(byte[] bytes) throws IOException {
+    int n = bytes.length;
+    if (this.live == 0 && this.out != null && n > this.buffer.length) {
+      drain();
+      this.out.write(bytes);
+      return;
+    } // if
+    for (int i = 0; i < n; ) {
+      if (this.len == this.buffer.length) {
+        drain();
+      } // if
+      int k = Math.min(n - i, this.buffer.length - this.len);
+      System.arraycopy(bytes, i, this.buffer, this.len, k);
+      this.len += k;
+      i += k;
+    } // for
+  } // splice(byte[])
+
+  /**
+   * Make room in the buffer. Usually that means passing it on and
+   * emptying it, but output we are keeping track of stays: we pass on
+   * only what comes before it, and grow the buffer if that is not
+   * enough.
+   */
+  void drain() throws IOException {
+    if (this.live > 0) {
+      int from = Math.min(this.starts[this.frames - this.live], this.len);
+      if (from > 0) {
+        pass(0, from);
+        System.arraycopy(this.buffer, from, this.buffer, 0, this.len - from);
+        this.len -= from;
+        for (int i = this.frames - this.live; i < this.frames; i++) {
+          this.starts[i] -= from;
+        } // for
+      } // if
+      if (this.buffer.length - this.len > this.buffer.length / 2) {
+        return;
+      } // if
+      if (2L * this.buffer.length <= this.cache.maxEntry()) {
+        this.buffer = Arrays.copyOf(this.buffer, 2 * this.buffer.length);
+        return;
+      } // if
+      // Too big to keep
+      this.live = 0;
+    } // if
+    if (this.len > 0) {
+      pass(0, this.len);
+      this.len = 0;
+    } // if
+  } // drain()
+
+  /**
+   * Pass on buffer[from..to).
+   */
+  void pass(int from, int to) throws IOException {
+    if (this.out != null) {
+      this.out.write(this.buffer, from, to - from);
+    } else {
+      this.target.put(this.buffer, from, to - from);
+    } // if/else
+  } // pass(int, int)
+} // class JSONUtf8Generator
@@ -0,0 +1,538 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+
+/**
+ * Splits UTF-8 encoded JSON into tokens without decoding the whole input.
+ * The bytes come from a ByteBuffer (heap, direct, or mapped) or from a
+ * file that is mapped one region at a time. Only the contents of strings
+ * are decoded, each exactly once.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONUtf8Tokenizer extends JSONTokenizer {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * How much of a file we map at once.
+   */
+  static final long REGION_SIZE = 1L << 30;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The current bytes.
+   */
+  ByteBuffer buf;
+
+  /**
+   * The index of the next unread byte in buf.
+   */
+  int index;
+
+  /**
+   * The index just past the last byte in buf that we may read.
+   */
+  int limit;
+
+  /**
+   * The position in the input of index 0 of buf.
+   */
+  long base;
+
+  /**
+   * The file we map more regions from (null if buf holds all of the input).
+   */
+  FileChannel channel;
+
+  /**
+   * The index we use to pass over containers (made when first needed).
+   */
+  JSONStructuralIndex structure;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a tokenizer for the remaining bytes of buffer. The buffer's
+   * own position and limit are left alone.
+   */
+  public JSONUtf8Tokenizer(ByteBuffer buffer) {
+    this.buf = buffer;
+    this.index = buffer.position();
+    this.limit = buffer.limit();
+    this.base = -buffer.position();
+    this.channel = null;
+  } // JSONUtf8Tokenizer(ByteBuffer)
+
+  /**
+   * Create a tokenizer for a file, mapping it as we go.
+   */
+  public JSONUtf8Tokenizer(FileChannel channel) throws IOException {
+    this.channel = channel;
+    this.buf = ByteBuffer.allocate(0);
+    this.index = 0;
+    this.limit = 0;
+    this.base = 0;
+    fill();
+  } // JSONUtf8Tokenizer(FileChannel)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the position of the next unread byte in the input.
+   */
+  @Override
+  public int position() {
+    return (int) Math.min(this.base + this.index, Integer.MAX_VALUE);
+  } // position()
+
+  /**
+   * Skip whitespace and read the next character, or -1 at the end
+   * of the input.
+   */
+  @Override
+  public int skipWhitespace() throws IOException {
+    do {
+      ByteBuffer bytes = this.buf;
+      int i = this.index;
+      int end = this.limit;
+      while (i < end) {
+        byte b = bytes.get(i++);
+        if (!JSON.isWhitespace(b)) {
+          this.index = i;
+          return b & 0xFF;
+        } // if
+        i = JSONStructuralIndex.nextNonWhitespace(bytes, i, end);
+      } // while
+      this.index = i;
+    } while (fill());
+    return -1;
+  } // skipWhitespace()
+
+  /**
+   * Skip whitespace and look at the next character without reading it.
+   * Returns -1 at the end of the input.
+   */
+  @Override
+  public int peek() throws IOException {
+    int ch = skipWhitespace();
+    if (ch != -1) {
+      --this.index;
+    } // if
+    return ch;
+  } // peek()
+
+  /**
+   * Read the rest of a string whose opening quote has already been read.
+   *
+   * @return the contents of the string, with escapes replaced
+   * @throws ParseException when the string is badly formed or unterminated
+   * @throws IOException I/O problem when reading
+   */
+  @Override
+  public String readString() throws ParseException, IOException {
+    // Fast path: the whole string is in buf and has no escapes
+    ByteBuffer bytes = this.buf;
+    int start = this.index;
+    int end = this.limit;
+    int i = JSONStructuralIndex.nextSpecial(bytes, start, end);
+    if (i < end && bytes.get(i) == '"') {
+      this.index = i + 1;
+      if (bytes.hasArray() && isAscii(bytes.array(), bytes.arrayOffset() + start, i - start)) {
+        return new String(bytes.array(), bytes.arrayOffset() + start, i - start,
+            StandardCharsets.ISO_8859_1);
+      } // if
+      // Anything else is checked as we decode it, whatever the buffer
+      this.scratchLen = 0;
+      decode(start, i);
+      return new String(this.scratch, 0, this.scratchLen);
+    } // if
+
+    // Slow path: decode into scratch as we go
+    this.scratchLen = 0;
+    readStringInto();
+    return new String(this.scratch, 0, this.scratchLen);
+  } // readString()
+
+  /**
+   * Pass over the rest of a string whose opening quote has already been
+   * read, checking it but not decoding it.
+   *
+   * @throws ParseException when the string is badly formed or unterminated
+   * @throws IOException I/O problem when reading
+   */
+  @Override
+  public void skipString() throws ParseException, IOException {
+    while (true) {
+      ByteBuffer bytes = this.buf;
+      int end = this.limit;
+      int i = JSONStructuralIndex.nextSpecial(bytes, this.index, end);
+      this.index = i;
+
+      if (i == end) {
+        if (!fill()) {
+          throw new ParseException("Unexpected end of file", position());
+        } // if
+        continue;
+      } // if
+
+      byte b = bytes.get(i);
+      this.index = i + 1;
+      if (b == '"') {
+        return;
+      } else if (b == '\\') {
+        readEscape();
+      } else {
+        throw new ParseException("Invalid character in JSONString", position() - 1);
+      } // if...else
+    } // while
+  } // skipString()
+
+  /**
+   * Pass over the rest of a hash or array whose opening brace or bracket
+   * has already been read. Only brackets and quotes are looked at, so
+   * nothing inside is checked or built. Unless it is turned off, the
+   * structural index finds them 64 bytes at a time.
+   *
+   * @throws ParseException when the input ends first
+   * @throws IOException I/O problem when reading
+   */
+  @Override
+  public void skipContainer() throws ParseException, IOException {
+    if (JSONStructuralIndex.ENABLED) {
+      if (this.structure == null) {
+        this.structure = new JSONStructuralIndex();
+      } // if
+      this.structure.reset();
+      while (true) {
+        int found = this.structure.findEnd(this.buf, this.index, this.limit);
+        if (found >= 0) {
+          this.index = found;
+          return;
+        } // if
+        this.index = this.limit;
+        if (!fill()) {
+          throw new ParseException("Unexpected end of file", position());
+        } // if
+      } // while
+    } // if
+
+    int depth = 1;
+    while (true) {
+      ByteBuffer bytes = this.buf;
+      int i = this.index;
+      int end = this.limit;
+      while (i < end) {
+        byte ch = bytes.get(i++);
+        if (ch == '"') {
+          this.index = i;
+          skipString();
+          bytes = this.buf;
+          i = this.index;
+          end = this.limit;
+        } else if (ch == '{' || ch == '[') {
+          depth++;
+        } else if (ch == '}' || ch == ']') {
+          if (--depth == 0) {
+            this.index = i;
+            return;
+          } // if
+        } // if...else
+      } // while
+      this.index = i;
+      if (!fill()) {
+        throw new ParseException("Unexpected end of file", position());
+      } // if
+    } // while
+  } // skipContainer()
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Start over on buffer[0..end), which begins at position base in the
+   * input.
+   */
+  void reset(ByteBuffer buffer, int end, long base) {
+    this.buf = buffer;
+    this.index = 0;
+    this.limit = end;
+    this.base = base;
+    this.channel = null;
+  } // reset(ByteBuffer, int, long)
+
+  /**
+   * Map the next region of the file once buf has been used up. Returns
+   * false at the end of the input.
+   */
+  boolean fill() throws IOException {
+    if (this.index < this.limit) {
+      return true;
+    } // if
+    if (this.channel == null) {
+      return false;
+    } // if
+    long start = this.base + this.index;
+    long length = Math.min(REGION_SIZE, this.channel.size() - start);
+    if (length <= 0) {
+      this.channel = null;
+      return false;
+    } // if
+    this.buf = this.channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    this.base = start;
+    this.index = 0;
+    this.limit = (int) length;
+    return true;
+  } // fill()
+
+  /**
+   * Read the next byte, or -1 at the end.
+   */
+  @Override
+  int read() throws IOException {
+    if (this.index >= this.limit && !fill()) {
+      return -1;
+    } // if
+    return this.buf.get(this.index++) & 0xFF;
+  } // read()
+
+  /**
+   * Look at the next byte without reading it.
+   */
+  @Override
+  int peekChar() throws IOException {
+    if (this.index >= this.limit && !fill()) {
+      return -1;
+    } // if
+    return this.buf.get(this.index) & 0xFF;
+  } // peekChar()
+
+  /**
+   * Read the byte that peekChar just returned.
+   */
+  @Override
+  void advance() {
+    ++this.index;
+  } // advance()
+
+  /**
+   * Copy digits into scratch until a non-digit, which is returned but
+   * not read.
+   */
+  @Override
+  int readDigits() throws IOException {
+    while (true) {
+      ByteBuffer bytes = this.buf;
+      int i = this.index;
+      int end = this.limit;
+      while (i < end) {
+        byte b = bytes.get(i);
+        if (!isDigit(b)) {
+          this.index = i;
+          return b & 0xFF;
+        } // if
+        append((char) b);
+        i++;
+      } // while
+      this.index = i;
+      if (!fill()) {
+        return -1;
+      } // if
+    } // while
+  } // readDigits()
+
+  /**
+   * Decode the rest of a string into scratch, replacing escapes.
+   */
+  @Override
+  void readStringInto() throws ParseException, IOException {
+    while (true) {
+      // Decode the run of plain bytes in one go
+      ByteBuffer bytes = this.buf;
+      int start = this.index;
+      int end = this.limit;
+      int i = JSONStructuralIndex.nextSpecial(bytes, start, end);
+
+      if (i == end) {
+        // A multi-byte character cut off by the end of buf is put
+        // together byte by byte, since the rest is in the next region.
+        int cut = trailingPartial(start, end);
+        decode(start, cut);
+        this.index = cut;
+        if (cut < end) {
+          readMultiByte(read());
+        } else if (!fill()) {
+          throw new ParseException("Unexpected end of file", position());
+        } // if...else
+        continue;
+      } // if
+
+      decode(start, i);
+      byte b = bytes.get(i);
+      this.index = i + 1;
+      if (b == '"') {
+        return;
+      } else if (b == '\\') {
+        append(readEscape());
+      } else {
+        throw new ParseException("Invalid character in JSONString", position() - 1);
+      } // if...else
+    } // while
+  } // readStringInto()
+
+  /**
+   * Find where an incomplete multi-byte character begins at the end of
+   * buf[start..end), or end if the last character is complete.
+   */
+  int trailingPartial(int start, int end) {
+    for (int i = end - 1; i >= start && i >= end - 3; i--) {
+      int b = this.buf.get(i) & 0xFF;
+      if (b < 0x80) {
+        return end;
+      } else if (b >= 0xC0) {
+        return (i + sequenceLength(b) > end) ? i : end;
+      } // if...else
+    } // for
+    return end;
+  } // trailingPartial(int, int)
+
+  /**
+   * Decode one multi-byte character, byte by byte, whose lead byte has
+   * been read.
+   */
+  void readMultiByte(int lead) throws ParseException, IOException {
+    int len = sequenceLength(lead);
+    if (len == 0) {
+      throw new ParseException("Invalid UTF-8", position() - 1);
+    } // if
+    int code = lead & (0xFF >> (len + 1));
+    for (int k = 1; k < len; k++) {
+      int b = read();
+      if ((b & 0xC0) != 0x80) {
+        throw new ParseException("Invalid UTF-8", position() - 1);
+      } // if
+      code = (code << 6) | (b & 0x3F);
+    } // for
+    if (!isValid(code, len)) {
+      throw new ParseException("Invalid UTF-8", position() - 1);
+    } // if
+    appendCodePoint(code);
+  } // readMultiByte(int)
+
+  /**
+   * Decode buf[start..end), which holds only whole characters and no
+   * quotes or escapes, into scratch.
+   */
+  void decode(int start, int end) throws ParseException {
+    if (this.scratchLen + (end - start) > this.scratch.length) {
+      grow(end - start);
+    } // if
+    ByteBuffer bytes = this.buf;
+    char[] out = this.scratch;
+    int n = this.scratchLen;
+    int i = start;
+    while (i < end) {
+      int b = bytes.get(i++);
+      if (b >= 0) {
+        out[n++] = (char) b;
+        continue;
+      } // if
+      b &= 0xFF;
+      int len = sequenceLength(b);
+      if (len == 0 || i + len - 1 > end) {
+        throw new ParseException("Invalid UTF-8", (int) (this.base + i - 1));
+      } // if
+      int code = b & (0xFF >> (len + 1));
+      for (int k = 1; k < len; k++) {
+        int c = bytes.get(i++);
+        if ((c & 0xC0) != 0x80) {
+          throw new ParseException("Invalid UTF-8", (int) (this.base + i - 1));
+        } // if
+        code = (code << 6) | (c & 0x3F);
+      } // for
+      if (!isValid(code, len)) {
+        throw new ParseException("Invalid UTF-8", (int) (this.base + i - 1));
+      } // if
+      if (code >= 0x10000) {
+        out[n++] = Character.highSurrogate(code);
+        out[n++] = Character.lowSurrogate(code);
+      } else {
+        out[n++] = (char) code;
+      } // if/else
+    } // while
+    this.scratchLen = n;
+  } // decode(int, int)
+
+  /**
+   * Add a code point to scratch.
+   */
+  void appendCodePoint(int code) {
+    if (code >= 0x10000) {
+      append(Character.highSurrogate(code));
+      append(Character.lowSurrogate(code));
+    } else {
+      append((char) code);
+    } // if/else
+  } // appendCodePoint(int)
+
+  /**
+   * Find how many bytes a UTF-8 sequence with the given lead byte has,
+   * or 0 if it is not a valid lead byte.
+   */
+  static int sequenceLength(int lead) {
+    if (lead < 0x80) {
+      return 1;
+    } else if (lead < 0xC2) {
+      return 0;
+    } else if (lead < 0xE0) {
+      return 2;
+    } else if (lead < 0xF0) {
+      return 3;
+    } else if (lead < 0xF5) {
+      return 4;
+    } else {
+      return 0;
+    } // if...else
+  } // sequenceLength(int)
+
+  /**
+   * Determine if code, decoded from len bytes, is a character that takes
+   * exactly that many: not an overlong form, a surrogate, or past the
+   * last code point. (Two-byte overlong forms have leads that
+   * sequenceLength already refuses.)
+   */
+  static boolean isValid(int code, int len) {
+    switch (len) {
+      case 3:
+        return code >= 0x800 && !Character.isSurrogate((char) code);
+      case 4:
+        return code >= 0x10000 && code <= Character.MAX_CODE_POINT;
+      default:
+        return true;
+    } // switch
+  } // isValid(int, int)
+
+  /**
+   * Determine if bytes[start..start+len) are all ASCII.
+   */
+  static boolean isAscii(byte[] bytes, int start, int len) {
+    for (int i = start, end = start + len; i < end; i++) {
+      if (bytes[i] < 0) {
+        return false;
+      } // if
+    } // for
+    return true;
+  } // isAscii(byte[], int, int)
+} // class JSONUtf8Tokenizer
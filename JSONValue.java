@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.io.PrintWriter;
 
 /**
@@ -35,6 +36,11 @@ public interface JSONValue {
    */
   public void writeJSON(PrintWriter pen);
 
+  /**
+   * Write the value through a generator.
+   */
+  public void writeJSON(JSONGenerator gen) throws IOException;
+
   /**
    * Get the underlying value.
    */
@@ -0,0 +1,376 @@
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The UTF-8 output of hashes, arrays and long strings, kept so that a
+ * JSONUtf8Generator writing the same tree again can copy it instead of
+ * generating it. Only nodes whose output is at least MIN_BYTES long are
+ * kept, up to a budget of bytes; past that, the least recently used go.
+ * No one node may have more than an eighth of the budget, so a huge
+ * document is kept as its larger parts, and writing it after a change
+ * to one part copies the others from here without making (and copying
+ * again) the output of the whole. An entry does not keep its node
+ * alive.
+ *
+ * A node's output is wrong once the node or anything inside it changes.
+ * While writing, a generator links each hash and array to the one it was
+ * written inside (its parent), and a change to a node drops its output
+ * and that of every parent up the chain. A node written inside two
+ * different parents has no single chain to follow, so it is marked
+ * SHARED, and a change to it, or below it, moves on a global epoch
+ * instead; output with a shared node anywhere inside is only good for
+ * the epoch it was made in. An array whose list has been handed out by
+ * getValue can change behind our back, so neither it nor anything it is
+ * inside is kept at all.
+ *
+ * A ConcurrentJSONHash may be changed by another thread while it is
+ * being written, so it is always SHARED: each change moves the epoch on,
+ * and its own output, like that of everything it is inside, is only
+ * good for the epoch it was begun in. Values that may change or go away
+ * some other way (a JSONArenaValue, whose arena may be closed, or a
+ * JSONValue we know nothing of) are not kept, and nor is anything they
+ * are inside. Such values must write themselves through writeCached and
+ * written for their parents to find out about them.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONWriteCache {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The default budget, in bytes.
+   */
+  public static final long DEFAULT_BUDGET = 64L << 20;
+
+  /**
+   * The shortest output worth keeping, in bytes.
+   */
+  static final int MIN_BYTES = 256;
+
+  /**
+   * The parent of a node written inside more than one.
+   */
+  static final Object SHARED = new Object();
+
+  /**
+   * A flag for output with a shared node inside.
+   */
+  static final byte SHARED_BELOW = 1;
+
+  /**
+   * A flag for output that must not be kept.
+   */
+  static final byte UNCACHEABLE = 2;
+
+  /**
+   * The cache that JSON.writeCached uses.
+   */
+  public static final JSONWriteCache DEFAULT = new JSONWriteCache(DEFAULT_BUDGET);
+
+  /**
+   * The number of changes to shared nodes so far.
+   */
+  static final AtomicInteger epoch = new AtomicInteger();
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The most bytes of output we keep.
+   */
+  long budget;
+
+  /**
+   * The bytes of output we keep now.
+   */
+  long used;
+
+  /**
+   * The head of a circular list of our entries, most recently used
+   * first; itself not an entry.
+   */
+  Entry head;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a cache that keeps up to budget bytes of output.
+   */
+  public JSONWriteCache(long budget) {
+    this.budget = budget;
+    this.used = 0;
+    this.head = new Entry(null, null, false, 0);
+    this.head.prev = this.head;
+    this.head.next = this.head;
+  } // JSONWriteCache(long)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Find out how many bytes of output we keep.
+   */
+  public synchronized long used() {
+    return this.used;
+  } // used()
+
+  /**
+   * Drop all of our output.
+   */
+  public synchronized void clear() {
+    while (this.head.next != this.head) {
+      remove(this.head.next);
+    } // while
+  } // clear()
+
+  // +----------------+----------------------------------------------
+  // | Static helpers |
+  // +----------------+
+
+  /**
+   * Drop the output of node and of every parent up the chain, after a
+   * change to node.
+   */
+  static void invalidate(Object node) {
+    while (node != null) {
+      if (node == SHARED) {
+        epoch.incrementAndGet();
+        return;
+      } // if
+      Entry entry;
+      if (node instanceof JSONHash) {
+        entry = ((JSONHash) node).cached;
+        node = ((JSONHash) node).parent;
+      } else if (node instanceof JSONArray) {
+        entry = ((JSONArray) node).cached;
+        node = ((JSONArray) node).parent;
+      } else {
+        entry = ((ConcurrentJSONHash) node).cached;
+        node = ((ConcurrentJSONHash) node).parent;
+      } // if...else
+      if (entry != null) {
+        entry.cache.remove(entry);
+      } // if
+    } // while
+  } // invalidate(Object)
+
+  /**
+   * Note that value is being written inside parent (null at the top
+   * level), and get the flags this puts on parent's output.
+   */
+  static byte adopt(Object parent, JSONValue value) {
+    Object old;
+    byte flags = 0;
+    if (value instanceof JSONHash) {
+      old = ((JSONHash) value).parent;
+    } else if (value instanceof JSONArray) {
+      old = ((JSONArray) value).parent;
+      if (((JSONArray) value).exposed) {
+        flags = UNCACHEABLE;
+      } // if
+    } else if (value instanceof ConcurrentJSONHash) {
+      ((ConcurrentJSONHash) value).parent = SHARED;
+      return SHARED_BELOW;
+    } else if (value instanceof JSONString || value instanceof JSONInteger
+        || value instanceof JSONReal || value instanceof JSONConstant
+        || value instanceof PersistentJSONHash || value instanceof PersistentJSONArray) {
+      // These never change; what is inside a persistent value is written
+      // as if it were inside the value around it
+      return 0;
+    } else {
+      return UNCACHEABLE;
+    } // if...else
+    if (parent != null && old != parent && old != SHARED) {
+      if (old != null) {
+        // Output already made inside the old parent knows nothing of
+        // the new one, so it goes now
+        invalidate(old);
+        old = SHARED;
+      } else {
+        old = parent;
+      } // if/else
+      if (value instanceof JSONHash) {
+        ((JSONHash) value).parent = old;
+      } else {
+        ((JSONArray) value).parent = old;
+      } // if/else
+    } // if
+    return (old == SHARED) ? (byte) (flags | SHARED_BELOW) : flags;
+  } // adopt(Object, JSONValue)
+
+  /**
+   * Get the entry a value holds, or null.
+   */
+  static Entry cachedOf(Object value) {
+    if (value instanceof JSONHash) {
+      return ((JSONHash) value).cached;
+    } else if (value instanceof JSONArray) {
+      return ((JSONArray) value).cached;
+    } else if (value instanceof JSONString) {
+      return ((JSONString) value).cached;
+    } else if (value instanceof ConcurrentJSONHash) {
+      return ((ConcurrentJSONHash) value).cached;
+    } // if...else
+    return null;
+  } // cachedOf(Object)
+
+  /**
+   * Set the entry a value holds.
+   */
+  static void setCached(Object value, Entry entry) {
+    if (value instanceof JSONHash) {
+      ((JSONHash) value).cached = entry;
+    } else if (value instanceof JSONArray) {
+      ((JSONArray) value).cached = entry;
+    } else if (value instanceof JSONString) {
+      ((JSONString) value).cached = entry;
+    } else if (value instanceof ConcurrentJSONHash) {
+      ((ConcurrentJSONHash) value).cached = entry;
+    } // if...else
+  } // setCached(Object, Entry)
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Find out the most bytes of output we keep for one node.
+   */
+  long maxEntry() {
+    return this.budget / 8;
+  } // maxEntry()
+
+  /**
+   * Get our output for value, if we have it and it is still good.
+   */
+  synchronized Entry lookup(JSONValue value) {
+    Entry entry = cachedOf(value);
+    if (entry == null || entry.cache != this || entry.prev == null) {
+      return null;
+    } // if
+    if (entry.shared && entry.epoch != epoch.get()) {
+      remove(entry);
+      return null;
+    } // if
+    unlink(entry);
+    linkFirst(entry);
+    return entry;
+  } // lookup(JSONValue)
+
+  /**
+   * Keep bytes as value's output, made when the epoch was at epoch.
+   * Entries are dropped, least recently used first, until we are within
+   * budget.
+   */
+  void put(JSONValue value, byte[] bytes, boolean shared, int epoch) {
+    Entry old = cachedOf(value);
+    if (old != null) {
+      old.cache.remove(old);
+    } // if
+    if (bytes.length > maxEntry()) {
+      return;
+    } // if
+    Entry entry = new Entry(value, bytes, shared, epoch);
+    entry.cache = this;
+    synchronized (this) {
+      linkFirst(entry);
+      this.used += bytes.length;
+      setCached(value, entry);
+      while (this.used > this.budget) {
+        remove(this.head.prev);
+      } // while
+    } // synchronized
+  } // put(JSONValue, byte[], boolean, int)
+
+  /**
+   * Drop an entry, if it is still here.
+   */
+  synchronized void remove(Entry entry) {
+    if (entry.prev == null) {
+      return;
+    } // if
+    unlink(entry);
+    this.used -= entry.bytes.length;
+    Object owner = entry.owner.get();
+    if (owner != null && cachedOf(owner) == entry) {
+      setCached(owner, null);
+    } // if
+  } // remove(Entry)
+
+  /**
+   * Put an entry at the front of the list.
+   */
+  void linkFirst(Entry entry) {
+    entry.prev = this.head;
+    entry.next = this.head.next;
+    this.head.next.prev = entry;
+    this.head.next = entry;
+  } // linkFirst(Entry)
+
+  /**
+   * Take an entry out of the list.
+   */
+  void unlink(Entry entry) {
+    entry.prev.next = entry.next;
+    entry.next.prev = entry.prev;
+    entry.prev = null;
+    entry.next = null;
+  } // unlink(Entry)
+
+  // +----------------+----------------------------------------------
+  // | Nested classes |
+  // +----------------+
+
+  /**
+   * The output of one node.
+   */
+  static class Entry {
+    /**
+     * The node.
+     */
+    WeakReference<Object> owner;
+
+    /**
+     * Its output.
+     */
+    byte[] bytes;
+
+    /**
+     * Whether a shared node is inside.
+     */
+    boolean shared;
+
+    /**
+     * The epoch the output was made in.
+     */
+    int epoch;
+
+    /**
+     * The cache we belong to.
+     */
+    JSONWriteCache cache;
+
+    /**
+     * Our neighbors in the cache's list, or null once we are out of it.
+     */
+    Entry prev;
+    Entry next;
+
+    /**
+     * Create an entry.
+     */
+    Entry(Object owner, byte[] bytes, boolean shared, int epoch) {
+      this.owner = new WeakReference<Object>(owner);
+      this.bytes = bytes;
+      this.shared = shared;
+      this.epoch = epoch;
+    } // Entry(Object, byte[], boolean, int)
+  } // class Entry
+} // class JSONWriteCache
@@ -0,0 +1,177 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes JSON text to a Writer, through a buffer of characters that is
+ * reused for the whole output. The Writer only sees whole buffers (and
+ * whatever is left at a flush), so it need not be buffered itself.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONWriterGenerator extends JSONGenerator {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The default size of the buffer, in characters.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where the text goes.
+   */
+  Writer out;
+
+  /**
+   * The text not yet passed on.
+   */
+  char[] buffer;
+
+  /**
+   * The number of characters in use in buffer.
+   */
+  int len;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a generator that writes to out, with a buffer of bufferSize
+   * characters.
+   */
+  public JSONWriterGenerator(Writer out, int bufferSize) {
+    this.out = out;
+    this.buffer = new char[Math.max(JSONNumbers.MAX_LENGTH, bufferSize)];
+    this.len = 0;
+  } // JSONWriterGenerator(Writer, int)
+
+  /**
+   * Create a generator that writes to out.
+   */
+  public JSONWriterGenerator(Writer out) {
+    this(out, DEFAULT_BUFFER_SIZE);
+  } // JSONWriterGenerator(Writer)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Pass on everything written so far.
+   */
+  public void flush() throws IOException {
+    drain();
+    this.out.flush();
+  } // flush()
+
+  /**
+   * Pass on everything written so far and close the Writer.
+   */
+  public void close() throws IOException {
+    drain();
+    this.out.close();
+  } // close()
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Write a character that needs no escaping.
+   */
+  void raw(char ch) throws IOException {
+    if (this.len == this.buffer.length) {
+      drain();
+    } // if
+    this.buffer[this.len++] = ch;
+  } // raw(char)
+
+  /**
+   * Write a string of characters that need no escaping.
+   */
+  void raw(String str) throws IOException {
+    copy(str, 0, str.length());
+  } // raw(String)
+
+  /**
+   * Write the first len bytes of ascii, which need no escaping.
+   */
+  void raw(byte[] ascii, int len) throws IOException {
+    if (this.buffer.length - this.len < len) {
+      drain();
+    } // if
+    char[] chars = this.buffer;
+    int at = this.len;
+    for (int i = 0; i < len; i++) {
+      chars[at++] = (char) ascii[i];
+    } // for
+    this.len = at;
+  } // raw(byte[], int)
+
+  /**
+   * Write a string in quotes. Runs of characters that need no escaping
+   * are copied in one go.
+   */
+  void quoted(String str) throws IOException {
+    raw('"');
+    int run = 0;
+    int n = str.length();
+    for (int i = 0; i < n; i++) {
+      char ch = str.charAt(i);
+      if (ch < 0x80 && ESCAPES[ch] != 0) {
+        copy(str, run, i);
+        escape(ch);
+        run = i + 1;
+      } // if
+    } // for
+    copy(str, run, n);
+    raw('"');
+  } // quoted(String)
+
+  /**
+   * Write the escape for a character.
+   */
+  void escape(char ch) throws IOException {
+    byte letter = ESCAPES[ch];
+    raw('\\');
+    if (letter == 'u') {
+      raw("u00");
+      raw(HEX[ch >> 4]);
+      raw(HEX[ch & 0xF]);
+    } else {
+      raw((char) letter);
+    } // if/else
+  } // escape(char)
+
+  /**
+   * Copy str[from..to) into the buffer, draining it as it fills.
+   */
+  void copy(String str, int from, int to) throws IOException {
+    while (from < to) {
+      if (this.len == this.buffer.length) {
+        drain();
+      } // if
+      int n = Math.min(to - from, this.buffer.length - this.len);
+      str.getChars(from, from + n, this.buffer, this.len);
+      this.len += n;
+      from += n;
+    } // while
+  } // copy(String, int, int)
+
+  /**
+   * Pass the buffer on to the Writer and empty it.
+   */
+  void drain() throws IOException {
+    if (this.len > 0) {
+      this.out.write(this.buffer, 0, this.len);
+      this.len = 0;
+    } // if
+  } // drain()
+} // class JSONWriterGenerator
@@ -0,0 +1,452 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * JSON arrays that never change. withIndex and append make new versions
+ * that share everything but one path with the old one.
+ *
+ * The elements are kept in a trie of 32-way nodes, so the element at i is
+ * found by taking five bits of i at a time from the top, plus a tail of up
+ * to 32 elements at the end that is not yet in the trie. Changing an
+ * element copies the nodes on its path, a handful even for hundreds of
+ * thousands of elements; appending usually copies only the tail.
+ *
+ * A Builder collects elements in a plain array and makes the whole trie
+ * at once when it is built.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class PersistentJSONArray implements JSONValue {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * How many bits of an index each level uses.
+   */
+  static final int BITS = 5;
+
+  /**
+   * How many children (or elements) a node has.
+   */
+  static final int WIDTH = 1 << BITS;
+
+  /**
+   * A node with nothing in it.
+   */
+  static final Object[] EMPTY_NODE = new Object[WIDTH];
+
+  /**
+   * The array with no elements.
+   */
+  static final PersistentJSONArray EMPTY =
+      new PersistentJSONArray(0, BITS, EMPTY_NODE, new Object[0]);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of elements.
+   */
+  final int count;
+
+  /**
+   * How far to shift an index to find its place in root.
+   */
+  final int shift;
+
+  /**
+   * The root of the trie. Inner nodes hold nodes; leaves hold elements.
+   */
+  final Object[] root;
+
+  /**
+   * The last elements, not yet in the trie.
+   */
+  final Object[] tail;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an array from its parts.
+   */
+  PersistentJSONArray(int count, int shift, Object[] root, Object[] tail) {
+    this.count = count;
+    this.shift = shift;
+    this.root = root;
+    this.tail = tail;
+  } // PersistentJSONArray(int, int, Object[], Object[])
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Get the array with no elements.
+   */
+  public static PersistentJSONArray empty() {
+    return EMPTY;
+  } // empty()
+
+  /**
+   * Get a builder that starts with no elements.
+   */
+  public static Builder builder() {
+    return new Builder();
+  } // builder()
+
+  // +-------------------------+-------------------------------------
+  // | Standard object methods |
+  // +-------------------------+
+
+  /**
+   * Convert to a string (e.g., for printing).
+   */
+  public String toString() {
+    StringBuilder result = new StringBuilder("[");
+    for (int i = 0; i < this.count; i++) {
+      if (i > 0) {
+        result.append(", ");
+      } // if
+      result.append(get(i));
+    } // for
+    return result.append(']').toString();
+  } // toString()
+
+  /**
+   * Compare to another object.
+   */
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    } else if (!(other instanceof PersistentJSONArray)) {
+      return false;
+    } // if...else
+    PersistentJSONArray arr = (PersistentJSONArray) other;
+    if (this.count != arr.count) {
+      return false;
+    } // if
+    for (int i = 0; i < this.count; i++) {
+      if (!get(i).equals(arr.get(i))) {
+        return false;
+      } // if
+    } // for
+    return true;
+  } // equals(Object)
+
+  /**
+   * Compute the hash code, the same way a list of the elements would.
+   */
+  public int hashCode() {
+    int code = 1;
+    for (int i = 0; i < this.count; i++) {
+      code = 31 * code + get(i).hashCode();
+    } // for
+    return code;
+  } // hashCode()
+
+  // +--------------------+------------------------------------------
+  // | Additional methods |
+  // +--------------------+
+
+  /**
+   * Write the value as JSON.
+   */
+  public void writeJSON(PrintWriter pen) {
+    JSONGenerator.write(this, pen);
+  } // writeJSON(PrintWriter)
+
+  /**
+   * Write the value through a generator.
+   */
+  public void writeJSON(JSONGenerator gen) throws IOException {
+    gen.writeStartArray();
+    Iterator<JSONValue> it = this.iterator();
+    while (it.hasNext()) {
+      it.next().writeJSON(gen);
+    } // while
+    gen.writeEndArray();
+  } // writeJSON(JSONGenerator)
+
+  /**
+   * Get the underlying value.
+   */
+  public Iterator<JSONValue> getValue() {
+    return this.iterator();
+  } // getValue()
+
+  // +---------------+-----------------------------------------------
+  // | Array methods |
+  // +---------------+
+
+  /**
+   * Get the value at a particular index.
+   */
+  public JSONValue get(int index) throws IndexOutOfBoundsException {
+    return (JSONValue) leafFor(index)[index & (WIDTH - 1)];
+  } // get(int)
+
+  /**
+   * Get a version of this array with value at index. An index just past
+   * the end appends.
+   */
+  public PersistentJSONArray withIndex(int index, JSONValue value)
+      throws IndexOutOfBoundsException {
+    if (index == this.count) {
+      return append(value);
+    } // if
+    checkIndex(index);
+    if (index >= tailOffset()) {
+      Object[] newTail = this.tail.clone();
+      newTail[index & (WIDTH - 1)] = value;
+      return new PersistentJSONArray(this.count, this.shift, this.root, newTail);
+    } // if
+    return new PersistentJSONArray(this.count, this.shift,
+        withIndex(this.shift, this.root, index, value), this.tail);
+  } // withIndex(int, JSONValue)
+
+  /**
+   * Get a version of this array with value added to the end.
+   */
+  public PersistentJSONArray append(JSONValue value) {
+    // Room in the tail
+    if (this.count - tailOffset() < WIDTH) {
+      Object[] newTail = Arrays.copyOf(this.tail, this.tail.length + 1);
+      newTail[this.tail.length] = value;
+      return new PersistentJSONArray(this.count + 1, this.shift, this.root, newTail);
+    } // if
+
+    // The tail is full, so it goes into the trie
+    Object[] newRoot;
+    int newShift = this.shift;
+    if ((this.count >>> BITS) > (1 << this.shift)) {
+      // No room below the root: add a level
+      newRoot = new Object[WIDTH];
+      newRoot[0] = this.root;
+      newRoot[1] = path(this.shift, this.tail);
+      newShift += BITS;
+    } else {
+      newRoot = pushTail(this.shift, this.root, this.tail);
+    } // if/else
+    return new PersistentJSONArray(this.count + 1, newShift, newRoot, new Object[] { value });
+  } // append(JSONValue)
+
+  /**
+   * Get the iterator for the elements.
+   */
+  public Iterator<JSONValue> iterator() {
+    return new Iterator<JSONValue>() {
+      // The index of the next element, and the leaf it is in
+      int i = 0;
+      Object[] leaf = null;
+
+      public boolean hasNext() {
+        return this.i < count;
+      } // hasNext()
+
+      public JSONValue next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        } // if
+        if ((this.i & (WIDTH - 1)) == 0 || this.leaf == null) {
+          this.leaf = leafFor(this.i);
+        } // if
+        return (JSONValue) this.leaf[this.i++ & (WIDTH - 1)];
+      } // next()
+    }; // new Iterator
+  } // iterator()
+
+  /**
+   * Determine how many values are in the array.
+   */
+  public int size() {
+    return this.count;
+  } // size()
+
+  /**
+   * Get a builder that starts with the elements of this array.
+   */
+  public Builder toBuilder() {
+    Builder builder = new Builder();
+    for (int i = 0; i < this.count; i++) {
+      builder.add(get(i));
+    } // for
+    return builder;
+  } // toBuilder()
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Find the index of the first element in the tail.
+   */
+  int tailOffset() {
+    return (this.count < WIDTH) ? 0 : ((this.count - 1) >>> BITS) << BITS;
+  } // tailOffset()
+
+  /**
+   * Find the leaf (or tail) that holds index.
+   */
+  Object[] leafFor(int index) {
+    checkIndex(index);
+    if (index >= tailOffset()) {
+      return this.tail;
+    } // if
+    Object[] node = this.root;
+    for (int level = this.shift; level > 0; level -= BITS) {
+      node = (Object[]) node[(index >>> level) & (WIDTH - 1)];
+    } // for
+    return node;
+  } // leafFor(int)
+
+  /**
+   * Make sure index names an element.
+   */
+  void checkIndex(int index) {
+    if (index < 0 || index >= this.count) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.count);
+    } // if
+  } // checkIndex(int)
+
+  /**
+   * Copy the path to index below node (at level), setting the element.
+   */
+  static Object[] withIndex(int level, Object[] node, int index, JSONValue value) {
+    Object[] copy = node.clone();
+    if (level == 0) {
+      copy[index & (WIDTH - 1)] = value;
+    } else {
+      int sub = (index >>> level) & (WIDTH - 1);
+      copy[sub] = withIndex(level - BITS, (Object[]) node[sub], index, value);
+    } // if/else
+    return copy;
+  } // withIndex(int, Object[], int, JSONValue)
+
+  /**
+   * Copy the path below node (at level) to the next free leaf, putting
+   * the full tail there.
+   */
+  Object[] pushTail(int level, Object[] node, Object[] tailNode) {
+    int sub = ((this.count - 1) >>> level) & (WIDTH - 1);
+    Object[] copy = node.clone();
+    if (level == BITS) {
+      copy[sub] = tailNode;
+    } else {
+      Object[] child = (Object[]) node[sub];
+      copy[sub] = (child == null)
+          ? path(level - BITS, tailNode)
+          : pushTail(level - BITS, child, tailNode);
+    } // if/else
+    return copy;
+  } // pushTail(int, Object[], Object[])
+
+  /**
+   * Make a chain of nodes from level down to leaf.
+   */
+  static Object[] path(int level, Object[] leaf) {
+    if (level == 0) {
+      return leaf;
+    } // if
+    Object[] node = new Object[WIDTH];
+    node[0] = path(level - BITS, leaf);
+    return node;
+  } // path(int, Object[])
+
+  // +----------------+----------------------------------------------
+  // | Nested classes |
+  // +----------------+
+
+  /**
+   * Collects elements for a new array. Once build has been called, the
+   * builder may not be used again.
+   */
+  public static class Builder {
+    /**
+     * The elements so far.
+     */
+    Object[] elements;
+
+    /**
+     * The number of elements so far.
+     */
+    int count;
+
+    /**
+     * Whether build has been called.
+     */
+    boolean built;
+
+    /**
+     * Create an empty builder.
+     */
+    Builder() {
+      this.elements = new Object[WIDTH];
+      this.count = 0;
+      this.built = false;
+    } // Builder()
+
+    /**
+     * Add a value to the end.
+     */
+    public void add(JSONValue value) {
+      if (this.built) {
+        throw new IllegalStateException("Builder already used");
+      } // if
+      if (this.count == this.elements.length) {
+        this.elements = Arrays.copyOf(this.elements, 2 * this.count);
+      } // if
+      this.elements[this.count++] = value;
+    } // add(JSONValue)
+
+    /**
+     * Determine how many values have been added.
+     */
+    public int size() {
+      return this.count;
+    } // size()
+
+    /**
+     * Get the array built so far, making its trie from the bottom up.
+     * The builder is no good afterwards.
+     */
+    public PersistentJSONArray build() {
+      if (this.built) {
+        throw new IllegalStateException("Builder already used");
+      } // if
+      this.built = true;
+      if (this.count == 0) {
+        return EMPTY;
+      } // if
+      int tailStart = (this.count < WIDTH) ? 0 : ((this.count - 1) >>> BITS) << BITS;
+      Object[] tail = Arrays.copyOfRange(this.elements, tailStart, this.count);
+
+      // The leaves, then each level of nodes above them
+      Object[][] level = new Object[tailStart / WIDTH][];
+      for (int i = 0; i < level.length; i++) {
+        level[i] = Arrays.copyOfRange(this.elements, i * WIDTH, (i + 1) * WIDTH);
+      } // for
+      int shift = BITS;
+      while (level.length > WIDTH) {
+        Object[][] parents = new Object[(level.length + WIDTH - 1) / WIDTH][];
+        for (int i = 0; i < parents.length; i++) {
+          parents[i] = new Object[WIDTH];
+          int n = Math.min(WIDTH, level.length - i * WIDTH);
+          System.arraycopy(level, i * WIDTH, parents[i], 0, n);
+        } // for
+        level = parents;
+        shift += BITS;
+      } // while
+      Object[] root = new Object[WIDTH];
+      System.arraycopy(level, 0, root, 0, level.length);
+      return new PersistentJSONArray(this.count, shift, root, tail);
+    } // build()
+  } // class Builder
+} // class PersistentJSONArray
@@ -0,0 +1,629 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * JSON hashes that never change. Instead of setting a key, with makes a
+ * new version that shares everything but the path to that key with the
+ * old one, so old versions stay valid and can be handed to other threads
+ * without copying or locking.
+ *
+ * The pairs are kept in a hash array mapped trie. Each level of the trie
+ * uses five bits of the key's hash to pick one of 32 places, and a node
+ * keeps only the places in use, marked in a bitmap. A change copies the
+ * nodes from the root to the key, which is a handful even for hundreds of
+ * thousands of pairs. Keys whose whole hash codes are the same end up
+ * together in a node of their own below the last level.
+ *
+ * A Builder changes nodes it made itself in place, which makes building a
+ * big hash a pair at a time cheap; once built, the nodes are frozen.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class PersistentJSONHash implements JSONValue {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * How many bits of the hash each level uses.
+   */
+  static final int BITS = 5;
+
+  /**
+   * The hash with no pairs.
+   */
+  static final PersistentJSONHash EMPTY = new PersistentJSONHash(0, null);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of pairs.
+   */
+  final int count;
+
+  /**
+   * The root of the trie (null if there are no pairs).
+   */
+  final Node root;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a hash with count pairs below root.
+   */
+  PersistentJSONHash(int count, Node root) {
+    this.count = count;
+    this.root = root;
+  } // PersistentJSONHash(int, Node)
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Get the hash with no pairs.
+   */
+  public static PersistentJSONHash empty() {
+    return EMPTY;
+  } // empty()
+
+  /**
+   * Get a builder that starts with no pairs.
+   */
+  public static Builder builder() {
+    return EMPTY.toBuilder();
+  } // builder()
+
+  // +-------------------------+-------------------------------------
+  // | Standard object methods |
+  // +-------------------------+
+
+  /**
+   * Convert to a string (e.g., for printing).
+   */
+  public String toString() {
+    StringBuilder result = new StringBuilder("{");
+    Iterator<KVPair<JSONString, JSONValue>> it = iterator();
+    while (it.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = it.next();
+      if (result.length() > 1) {
+        result.append(", ");
+      } // if
+      result.append(pair.key()).append(": ").append(pair.value());
+    } // while
+    return result.append('}').toString();
+  } // toString()
+
+  /**
+   * Compare to another object. Two persistent hashes are equal when they
+   * have the same keys with equal values.
+   */
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    } else if (!(other instanceof PersistentJSONHash)) {
+      return false;
+    } // if...else
+    PersistentJSONHash hash = (PersistentJSONHash) other;
+    if (this.count != hash.count) {
+      return false;
+    } // if
+    Iterator<KVPair<JSONString, JSONValue>> it = iterator();
+    while (it.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = it.next();
+      JSONValue value = hash.find(pair.key());
+      if (value == null || !value.equals(pair.value())) {
+        return false;
+      } // if
+    } // while
+    return true;
+  } // equals(Object)
+
+  /**
+   * Compute the hash code, which does not depend on the order of the keys.
+   */
+  public int hashCode() {
+    int code = 0;
+    Iterator<KVPair<JSONString, JSONValue>> it = iterator();
+    while (it.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = it.next();
+      code += pair.key().hashCode() ^ pair.value().hashCode();
+    } // while
+    return code;
+  } // hashCode()
+
+  // +--------------------+------------------------------------------
+  // | Additional methods |
+  // +--------------------+
+
+  /**
+   * Write the value as JSON.
+   */
+  public void writeJSON(PrintWriter pen) {
+    JSONGenerator.write(this, pen);
+  } // writeJSON(PrintWriter)
+
+  /**
+   * Write the value through a generator.
+   */
+  public void writeJSON(JSONGenerator gen) throws IOException {
+    gen.writeStartObject();
+    Iterator<KVPair<JSONString, JSONValue>> it = this.iterator();
+    while (it.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = it.next();
+      gen.writeFieldName(pair.key().getValue());
+      pair.value().writeJSON(gen);
+    } // while
+    gen.writeEndObject();
+  } // writeJSON(JSONGenerator)
+
+  /**
+   * Get the underlying value.
+   */
+  public Iterator<KVPair<JSONString, JSONValue>> getValue() {
+    return this.iterator();
+  } // getValue()
+
+  // +-------------------+-------------------------------------------
+  // | Hashtable methods |
+  // +-------------------+
+
+  /**
+   * Get the value for a particular key.
+   *
+   * @throws IndexOutOfBoundsException if there is no value for key
+   */
+  public JSONValue get(JSONString key) {
+    JSONValue value = find(key);
+    if (value == null) {
+      throw new IndexOutOfBoundsException("Invalid key: " + key);
+    } // if
+    return value;
+  } // get(JSONString)
+
+  /**
+   * Determine if there is a value for key.
+   */
+  public boolean containsKey(JSONString key) {
+    return find(key) != null;
+  } // containsKey(JSONString)
+
+  /**
+   * Get a version of this hash in which key has value.
+   */
+  public PersistentJSONHash with(JSONString key, JSONValue value) {
+    boolean[] added = new boolean[1];
+    Node start = (this.root == null) ? Node.EMPTY : this.root;
+    Node newRoot = start.with(null, 0, hash(key), key, value, added);
+    if (newRoot == this.root) {
+      return this;
+    } // if
+    return new PersistentJSONHash(added[0] ? this.count + 1 : this.count, newRoot);
+  } // with(JSONString, JSONValue)
+
+  /**
+   * Get a version of this hash without key.
+   */
+  public PersistentJSONHash without(JSONString key) {
+    if (this.root == null) {
+      return this;
+    } // if
+    boolean[] removed = new boolean[1];
+    Node newRoot = this.root.without(null, 0, hash(key), key, removed);
+    if (!removed[0]) {
+      return this;
+    } // if
+    return new PersistentJSONHash(this.count - 1, newRoot);
+  } // without(JSONString)
+
+  /**
+   * Get all of the key/value pairs.
+   */
+  public Iterator<KVPair<JSONString, JSONValue>> iterator() {
+    return new Iterator<KVPair<JSONString, JSONValue>>() {
+      // The nodes on the way down to the next pair, and where we are in each
+      Node[] nodes = new Node[9];
+      int[] positions = new int[9];
+      int depth = (root == null) ? -1 : 0;
+      // The number of pairs handed out
+      int seen = 0;
+
+      {
+        this.nodes[0] = root;
+      }
+
+      public boolean hasNext() {
+        return this.seen < count;
+      } // hasNext()
+
+      public KVPair<JSONString, JSONValue> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        } // if
+        while (true) {
+          Node node = this.nodes[this.depth];
+          int pos = this.positions[this.depth];
+          if (pos >= node.pairs()) {
+            --this.depth;
+            continue;
+          } // if
+          this.positions[this.depth] = pos + 1;
+          Object key = node.array[2 * pos];
+          Object value = node.array[2 * pos + 1];
+          if (key == null) {
+            ++this.depth;
+            this.nodes[this.depth] = (Node) value;
+            this.positions[this.depth] = 0;
+            continue;
+          } // if
+          ++this.seen;
+          return new KVPair<JSONString, JSONValue>((JSONString) key, (JSONValue) value);
+        } // while
+      } // next()
+    }; // new Iterator
+  } // iterator()
+
+  /**
+   * Find out how many key/value pairs are in the hash table.
+   */
+  public int size() {
+    return this.count;
+  } // size()
+
+  /**
+   * Get a builder that starts with the pairs in this hash. This hash is
+   * not changed by the builder.
+   */
+  public Builder toBuilder() {
+    return new Builder(this);
+  } // toBuilder()
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Find the value for key, or null.
+   */
+  JSONValue find(JSONString key) {
+    return (this.root == null) ? null : this.root.find(0, hash(key), key);
+  } // find(JSONString)
+
+  /**
+   * Get the hash of key that picks its places in the trie.
+   */
+  static int hash(JSONString key) {
+    return key.seededHash();
+  } // hash(JSONString)
+
+  // +----------------+----------------------------------------------
+  // | Nested classes |
+  // +----------------+
+
+  /**
+   * A node of the trie. Its array holds a pair for each place in use: a
+   * key and its value, or null and a child node. Below the last level
+   * (shift of 32 or more) the bitmap is unused and the array simply holds
+   * the pairs whose hashes are all the same, and collisions counts them.
+   */
+  static class Node {
+    /**
+     * A node with nothing in it.
+     */
+    static final Node EMPTY = new Node(null, 0, new Object[0]);
+
+    /**
+     * The builder allowed to change this node in place, or null.
+     */
+    Object edit;
+
+    /**
+     * The places in use.
+     */
+    int bitmap;
+
+    /**
+     * The pairs, two slots each. A node that a builder owns may have
+     * spare slots at the end.
+     */
+    Object[] array;
+
+    /**
+     * The number of pairs, below the last level (0 elsewhere).
+     */
+    int collisions;
+
+    /**
+     * Create a node.
+     */
+    Node(Object edit, int bitmap, Object[] array) {
+      this.edit = edit;
+      this.bitmap = bitmap;
+      this.array = array;
+      this.collisions = 0;
+    } // Node(Object, int, Object[])
+
+    /**
+     * Get the number of pairs in array.
+     */
+    int pairs() {
+      // Only one of these is ever in use
+      return this.collisions + Integer.bitCount(this.bitmap);
+    } // pairs()
+
+    /**
+     * Find the value for key, whose hash is hash, below this node.
+     */
+    JSONValue find(int shift, int hash, JSONString key) {
+      if (shift >= 32) {
+        for (int i = 0; i < this.collisions; i++) {
+          if (key.equals(this.array[2 * i])) {
+            return (JSONValue) this.array[2 * i + 1];
+          } // if
+        } // for
+        return null;
+      } // if
+      int bit = 1 << ((hash >>> shift) & 31);
+      if ((this.bitmap & bit) == 0) {
+        return null;
+      } // if
+      int i = 2 * Integer.bitCount(this.bitmap & (bit - 1));
+      Object k = this.array[i];
+      if (k == null) {
+        return ((Node) this.array[i + 1]).find(shift + BITS, hash, key);
+      } // if
+      return key.equals(k) ? (JSONValue) this.array[i + 1] : null;
+    } // find(int, int, JSONString)
+
+    /**
+     * Get this node with key set to value below it. Nodes owned by edit
+     * (if it is not null) are changed in place; others are copied.
+     * added[0] is set if the key is new.
+     */
+    Node with(Object edit, int shift, int hash, JSONString key, JSONValue value,
+        boolean[] added) {
+      if (shift >= 32) {
+        for (int i = 0; i < this.collisions; i++) {
+          if (key.equals(this.array[2 * i])) {
+            return (this.array[2 * i + 1] == value) ? this : set(edit, 2 * i + 1, value);
+          } // if
+        } // for
+        added[0] = true;
+        Node node = insert(edit, this.collisions, key, value);
+        node.collisions = this.collisions + 1;
+        return node;
+      } // if
+
+      int bit = 1 << ((hash >>> shift) & 31);
+      int i = 2 * Integer.bitCount(this.bitmap & (bit - 1));
+      if ((this.bitmap & bit) == 0) {
+        added[0] = true;
+        Node node = insert(edit, i / 2, key, value);
+        node.bitmap = this.bitmap | bit;
+        return node;
+      } // if
+
+      Object k = this.array[i];
+      Object v = this.array[i + 1];
+      if (k == null) {
+        Node child = (Node) v;
+        Node newChild = child.with(edit, shift + BITS, hash, key, value, added);
+        return (newChild == child) ? this : set(edit, i + 1, newChild);
+      } else if (key.equals(k)) {
+        return (v == value) ? this : set(edit, i + 1, value);
+      } // if...else
+
+      // Two keys share this place: push both down a level
+      added[0] = true;
+      JSONString other = (JSONString) k;
+      Node child = pair(edit, shift + BITS, hash(other), other, (JSONValue) v,
+          hash, key, value);
+      Node node = set(edit, i, null);
+      node.array[i + 1] = child;
+      return node;
+    } // with(Object, int, int, JSONString, JSONValue, boolean[])
+
+    /**
+     * Get this node without key below it, or null if nothing would be left.
+     * removed[0] is set if the key was there.
+     */
+    Node without(Object edit, int shift, int hash, JSONString key, boolean[] removed) {
+      if (shift >= 32) {
+        for (int i = 0; i < this.collisions; i++) {
+          if (key.equals(this.array[2 * i])) {
+            removed[0] = true;
+            if (this.collisions == 1) {
+              return null;
+            } // if
+            Node node = remove(edit, i, this.collisions);
+            node.collisions = this.collisions - 1;
+            return node;
+          } // if
+        } // for
+        return this;
+      } // if
+
+      int bit = 1 << ((hash >>> shift) & 31);
+      if ((this.bitmap & bit) == 0) {
+        return this;
+      } // if
+      int i = 2 * Integer.bitCount(this.bitmap & (bit - 1));
+      Object k = this.array[i];
+      if (k == null) {
+        Node child = (Node) this.array[i + 1];
+        Node newChild = child.without(edit, shift + BITS, hash, key, removed);
+        if (!removed[0]) {
+          return this;
+        } else if (newChild == child) {
+          return this;
+        } else if (newChild != null) {
+          return set(edit, i + 1, newChild);
+        } // if...else
+      } else if (!key.equals(k)) {
+        return this;
+      } else {
+        removed[0] = true;
+      } // if...else
+
+      // The place becomes empty
+      if (this.bitmap == bit) {
+        return null;
+      } // if
+      Node node = remove(edit, i / 2, Integer.bitCount(this.bitmap));
+      node.bitmap = this.bitmap & ~bit;
+      return node;
+    } // without(Object, int, int, JSONString, boolean[])
+
+    /**
+     * Get a node that edit may change: this one if edit owns it, or else
+     * a copy with room for extra more pairs.
+     */
+    Node editable(Object edit, int extra) {
+      if (edit != null && this.edit == edit) {
+        return this;
+      } // if
+      int used = 2 * pairs();
+      int room = (edit == null) ? used + 2 * extra : Math.max(4, 2 * (used + 2 * extra));
+      Object[] copy = new Object[room];
+      System.arraycopy(this.array, 0, copy, 0, used);
+      Node node = new Node(edit, this.bitmap, copy);
+      node.collisions = this.collisions;
+      return node;
+    } // editable(Object, int)
+
+    /**
+     * Get this node with array[i] set to x.
+     */
+    Node set(Object edit, int i, Object x) {
+      Node node = editable(edit, 0);
+      node.array[i] = x;
+      return node;
+    } // set(Object, int, Object)
+
+    /**
+     * Get this node with a pair inserted before pair number pos.
+     */
+    Node insert(Object edit, int pos, JSONString key, JSONValue value) {
+      int used = 2 * pairs();
+      Node node = editable(edit, 1);
+      if (node.array.length < used + 2) {
+        Object[] bigger = new Object[Math.max(4, 2 * (used + 2))];
+        System.arraycopy(node.array, 0, bigger, 0, used);
+        node.array = bigger;
+      } // if
+      System.arraycopy(node.array, 2 * pos, node.array, 2 * pos + 2, used - 2 * pos);
+      node.array[2 * pos] = key;
+      node.array[2 * pos + 1] = value;
+      return node;
+    } // insert(Object, int, JSONString, JSONValue)
+
+    /**
+     * Get this node, which has n pairs, with pair number pos taken out.
+     */
+    Node remove(Object edit, int pos, int n) {
+      Node node = editable(edit, 0);
+      System.arraycopy(node.array, 2 * pos + 2, node.array, 2 * pos, 2 * (n - pos - 1));
+      node.array[2 * n - 2] = null;
+      node.array[2 * n - 1] = null;
+      return node;
+    } // remove(Object, int, int)
+
+    /**
+     * Make a node at shift that holds two different keys.
+     */
+    static Node pair(Object edit, int shift, int hash1, JSONString key1, JSONValue value1,
+        int hash2, JSONString key2, JSONValue value2) {
+      boolean[] added = new boolean[1];
+      Node node = new Node(edit, 0, new Object[4]);
+      node = node.with(edit, shift, hash1, key1, value1, added);
+      return node.with(edit, shift, hash2, key2, value2, added);
+    } // pair(...)
+  } // class Node
+
+  /**
+   * Builds a hash a pair at a time, changing its own nodes in place.
+   * Once build has been called, the builder may not be used again.
+   */
+  public static class Builder {
+    /**
+     * The mark on the nodes we may change, or null once built.
+     */
+    Object edit;
+
+    /**
+     * The number of pairs.
+     */
+    int count;
+
+    /**
+     * The root of the trie.
+     */
+    Node root;
+
+    /**
+     * Create a builder that starts with the pairs of start.
+     */
+    Builder(PersistentJSONHash start) {
+      this.edit = new Object();
+      this.count = start.count;
+      this.root = (start.root == null) ? Node.EMPTY : start.root;
+    } // Builder(PersistentJSONHash)
+
+    /**
+     * Set a value associated with a key, replacing any value it had.
+     */
+    public void set(JSONString key, JSONValue value) {
+      check();
+      boolean[] added = new boolean[1];
+      this.root = this.root.with(this.edit, 0, hash(key), key, value, added);
+      if (added[0]) {
+        ++this.count;
+      } // if
+    } // set(JSONString, JSONValue)
+
+    /**
+     * Remove the pair for key, if any.
+     */
+    public void remove(JSONString key) {
+      check();
+      boolean[] removed = new boolean[1];
+      Node newRoot = this.root.without(this.edit, 0, hash(key), key, removed);
+      if (removed[0]) {
+        --this.count;
+        this.root = (newRoot == null) ? Node.EMPTY : newRoot;
+      } // if
+    } // remove(JSONString)
+
+    /**
+     * Find out how many pairs have been set.
+     */
+    public int size() {
+      return this.count;
+    } // size()
+
+    /**
+     * Get the hash built so far. The builder is no good afterwards.
+     */
+    public PersistentJSONHash build() {
+      check();
+      this.edit = null;
+      return (this.count == 0) ? EMPTY : new PersistentJSONHash(this.count, this.root);
+    } // build()
+
+    /**
+     * Make sure build has not been called.
+     */
+    void check() {
+      if (this.edit == null) {
+        throw new IllegalStateException("Builder already used");
+      } // if
+    } // check()
+  } // class Builder
+} // class PersistentJSONHash
@@ -0,0 +1,216 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures reads and writes per second when many threads read a hash
+ * that one thread keeps changing, as request threads read a
+ * configuration tree while a reloader replaces its values. It compares
+ * ConcurrentJSONHash with a JSONHash behind synchronized methods, which
+ * is what sharing a JSONHash safely takes otherwise.
+ *
+ * Usage: java ConcurrentJSONHashBenchmark [readers [seconds]]
+ *
+ * Readers default to twice the number of processors (at least 4).
+ * Every read must find a value, since the writer only ever replaces
+ * values; an AssertionError is thrown if one does not.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class ConcurrentJSONHashBenchmark {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of keys in the hash.
+   */
+  static final int KEYS = 1024;
+
+  /**
+   * How many rounds of each hash we time; the first warms up.
+   */
+  static final int ROUNDS = 3;
+
+  // +---------------+-----------------------------------------------
+  // | Static fields |
+  // +---------------+
+
+  /**
+   * Whether the threads of the current run should stop.
+   */
+  static volatile boolean stopping;
+
+  /**
+   * A key that a reader found no value for, or null.
+   */
+  static volatile JSONString missing;
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Run the benchmark.
+   */
+  public static void main(String[] args) throws Exception {
+    int readers = (args.length > 0)
+        ? Integer.parseInt(args[0])
+        : Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    double seconds = (args.length > 1) ? Double.parseDouble(args[1]) : 1.0;
+    JSONString[] keys = new JSONString[KEYS];
+    JSONHash hash = new JSONHash();
+    for (int i = 0; i < KEYS; i++) {
+      keys[i] = new JSONString("key" + i);
+      hash.set(keys[i], new JSONReal(i));
+    } // for
+
+    System.out.println(readers + " readers, 1 writer, " + KEYS + " keys, "
+        + Runtime.getRuntime().availableProcessors() + " processors");
+    for (int round = 0; round < ROUNDS; round++) {
+      String label = (round == 0) ? " (warm-up)" : "";
+      run("ConcurrentJSONHash" + label, new Concurrent(new ConcurrentJSONHash(hash)), keys,
+          readers, seconds);
+      run("synchronized JSONHash" + label, new Synchronized(hash), keys, readers, seconds);
+    } // for
+  } // main(String[])
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Run readers and one writer against table for a while, then print
+   * how many reads and writes they managed each second.
+   */
+  static void run(String label, Table table, JSONString[] keys, int readers, double seconds)
+      throws InterruptedException {
+    LongAdder reads = new LongAdder();
+    LongAdder writes = new LongAdder();
+    stopping = false;
+    CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[readers + 1];
+    for (int t = 0; t <= readers; t++) {
+      boolean writer = (t == readers);
+      int seed = t;
+      threads[t] = new Thread(() -> {
+        long count = 0;
+        int i = seed * 7919;
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        } // try/catch
+        while (!stopping) {
+          for (int k = 0; k < 256; k++) {
+            i = (i * 1103515245 + 12345) & 0x7fffffff;
+            JSONString key = keys[i % keys.length];
+            if (writer) {
+              table.set(key, new JSONReal(i));
+            } else if (table.get(key) == null) {
+              missing = key;
+            } // if/else
+          } // for
+          count += 256;
+        } // while
+        (writer ? writes : reads).add(count);
+      });
+      threads[t].start();
+    } // for
+
+    long begin = System.nanoTime();
+    start.countDown();
+    Thread.sleep((long) (seconds * 1000));
+    stopping = true;
+    for (Thread thread : threads) {
+      thread.join();
+    } // for
+    double elapsed = (System.nanoTime() - begin) / 1e9;
+    if (missing != null) {
+      throw new AssertionError(label + ": no value for " + missing);
+    } // if
+    System.out.printf("  %-34s %12.0f reads/s %12.0f writes/s%n", label,
+        reads.sum() / elapsed, writes.sum() / elapsed);
+  } // run(String, Table, JSONString[], int, double)
+
+  // +----------------+----------------------------------------------
+  // | Nested classes |
+  // +----------------+
+
+  /**
+   * The two operations we time.
+   */
+  interface Table {
+    /**
+     * Get the value for key.
+     */
+    JSONValue get(JSONString key);
+
+    /**
+     * Set the value for key.
+     */
+    void set(JSONString key, JSONValue value);
+  } // interface Table
+
+  /**
+   * A ConcurrentJSONHash, used as is.
+   */
+  static class Concurrent implements Table {
+    /**
+     * The hash.
+     */
+    ConcurrentJSONHash hash;
+
+    /**
+     * Use hash.
+     */
+    Concurrent(ConcurrentJSONHash hash) {
+      this.hash = hash;
+    } // Concurrent(ConcurrentJSONHash)
+
+    /**
+     * Get the value for key.
+     */
+    public JSONValue get(JSONString key) {
+      return this.hash.get(key);
+    } // get(JSONString)
+
+    /**
+     * Set the value for key.
+     */
+    public void set(JSONString key, JSONValue value) {
+      this.hash.set(key, value);
+    } // set(JSONString, JSONValue)
+  } // class Concurrent
+
+  /**
+   * A JSONHash that one thread at a time may use.
+   */
+  static class Synchronized implements Table {
+    /**
+     * The hash.
+     */
+    JSONHash hash;
+
+    /**
+     * Use hash.
+     */
+    Synchronized(JSONHash hash) {
+      this.hash = hash;
+    } // Synchronized(JSONHash)
+
+    /**
+     * Get the value for key.
+     */
+    public synchronized JSONValue get(JSONString key) {
+      return this.hash.get(key);
+    } // get(JSONString)
+
+    /**
+     * Set the value for key.
+     */
+    public synchronized void set(JSONString key, JSONValue value) {
+      this.hash.set(key, value);
+    } // set(JSONString, JSONValue)
+  } // class Synchronized
+} // class ConcurrentJSONHashBenchmark
@@ -0,0 +1,218 @@
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.ParseException;
+import java.util.Random;
+
+/**
+ * Checks JSONBinary against the text path, and checks that bad input is
+ * rejected with a ParseException and nothing else.
+ *
+ * Each document, fixed or random, is parsed from text, encoded with and
+ * without the key dictionary into heap and direct buffers, and decoded
+ * again; the result must equal the parsed value and print as the same
+ * text. Then hand-made malformed inputs, and every truncation and many
+ * random corruptions of the encodings, are decoded; each must either
+ * decode or throw ParseException.
+ *
+ * Throws AssertionError at the first failure.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONBinaryCheck {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * Documents that cover every tag.
+   */
+  static final String[] DOCUMENTS = {
+    "null", "true", "false", "0", "-1", "9223372036854775807", "-9223372036854775808",
+    "123456789012345678901234567890", "-98765432109876543210", "1.5", "-0.0", "1e300",
+    "2.5e-320", "0.1000000000000000055511151231257827", "1e400", "-1.23456789e-400",
+    "\"\"", "\"plain\"", "\"esc\\\"aped\\\\\\n\\u0001\"", "\"\\u00e9\\u4e2d\\ud83d\\ude00\"",
+    "\"a\\ud800b\"", "\"\\udfff\\ud83d\"", "\"\\ude00\\ud83d\\ude00\\ud83d\"",
+    "[]", "{}", "[1,[2,[3,[]]],{}]", "{\"\\udc00k\":1,\"k\\ud800\":{\"\\udc00k\":2}}",
+    "{\"a\":1,\"b\":[true,false,null],\"c\":{\"a\":2,\"b\":\"x\"}}",
+    "[{\"id\":1,\"name\":\"x\"},{\"id\":2,\"name\":\"y\"},{\"id\":3,\"name\":\"z\"}]"
+  };
+
+  /**
+   * Hand-made bad input, each with what is wrong with it.
+   */
+  static final Object[][] MALFORMED = {
+    { "empty", new int[] {} },
+    { "wrong header", new int[] { 0x7B, 0 } },
+    { "bad tag", new int[] { 0xB0, 99 } },
+    { "no tag", new int[] { 0xB0 } },
+    { "empty big integer", new int[] { 0xB0, 4, 0 } },
+    { "empty big real", new int[] { 0xB0, 6, 2, 0 } },
+    { "big integer length past the end", new int[] { 0xB0, 4, 5, 1 } },
+    { "negative string length",
+      new int[] { 0xB0, 7, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x01 } },
+    { "negative big integer length",
+      new int[] { 0xB0, 4, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01, 1 } },
+    { "negative array count",
+      new int[] { 0xB0, 8, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x01 } },
+    { "negative hash count",
+      new int[] { 0xB0, 9, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x01 } },
+    { "varint too long",
+      new int[] { 0xB0, 3, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x01 } },
+    { "scale past an int", new int[] { 0xB0, 6, 0x80, 0x80, 0x80, 0x80, 0x10, 1, 1 } },
+    { "negative scale past an int", new int[] { 0xB0, 6, 0x81, 0x80, 0x80, 0x80, 0x10, 1, 1 } },
+    { "truncated real", new int[] { 0xB0, 5, 0x3F, 0xF0 } },
+    { "array count past the end", new int[] { 0xB0, 8, 3, 0 } },
+    { "key length past the end", new int[] { 0xB0, 9, 1, 20, 'a' } },
+    { "unknown key number", new int[] { 0xB1, 9, 1, 3, 0 } },
+    { "key number without dictionary", new int[] { 0xB0, 9, 1, 1, 0 } },
+    { "huge key length",
+      new int[] { 0xB0, 9, 1, 0xFE, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01 } },
+  };
+
+  /**
+   * How many random documents to round-trip.
+   */
+  static final int RANDOM_DOCUMENTS = 2000;
+
+  /**
+   * How many random corruptions of each encoding to decode.
+   */
+  static final int CORRUPTIONS = 50;
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Run the checks.
+   */
+  public static void main(String[] args) throws Exception {
+    Random random = new Random(24);
+    int documents = 0;
+    for (String text : DOCUMENTS) {
+      roundTrip(text, random);
+      documents++;
+    } // for
+    for (int i = 0; i < RANDOM_DOCUMENTS; i++) {
+      roundTrip(JSON.toJSON(randomValue(random, 0)), random);
+      documents++;
+    } // for
+
+    for (Object[] bad : MALFORMED) {
+      int[] ints = (int[]) bad[1];
+      byte[] bytes = new byte[ints.length];
+      for (int i = 0; i < ints.length; i++) {
+        bytes[i] = (byte) ints[i];
+      } // for
+      try {
+        JSONValue value = JSONBinary.decode(ByteBuffer.wrap(bytes));
+        throw new AssertionError(bad[0] + " decoded as " + value);
+      } catch (ParseException e) {
+        // What we want
+      } catch (RuntimeException e) {
+        throw new AssertionError(bad[0] + " threw " + e, e);
+      } // try/catch
+    } // for
+    System.out.println("JSONBinaryCheck: " + documents + " documents and "
+        + MALFORMED.length + " malformed inputs");
+  } // main(String[])
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Check that text survives every kind of encoding, and that broken
+   * copies of the encodings fail cleanly.
+   */
+  static void roundTrip(String text, Random random) throws Exception {
+    JSONValue value = JSON.parse(text);
+    String printed = JSON.toJSON(value);
+    for (int kind = 0; kind < 4; kind++) {
+      boolean dictionary = (kind & 1) != 0;
+      ByteBuffer out = ((kind & 2) != 0)
+          ? ByteBuffer.allocateDirect(64 + 16 * text.length())
+          : ByteBuffer.allocate(64 + 16 * text.length());
+      JSONBinary.encode(value, out, dictionary);
+      out.flip();
+      byte[] encoded = new byte[out.remaining()];
+      out.duplicate().get(encoded);
+
+      JSONValue decoded = JSONBinary.decode(out);
+      if (out.hasRemaining()) {
+        throw new AssertionError("bytes left over after " + text);
+      } // if
+      if (!decoded.equals(value) || !JSON.toJSON(decoded).equals(printed)) {
+        throw new AssertionError(text + " came back as " + JSON.toJSON(decoded));
+      } // if
+
+      for (int len = 0; len < encoded.length; len++) {
+        expectCleanFailure(ByteBuffer.wrap(encoded, 0, len), text);
+      } // for
+      for (int i = 0; i < CORRUPTIONS; i++) {
+        byte[] broken = encoded.clone();
+        for (int k = 1 + random.nextInt(3); k > 0; k--) {
+          broken[random.nextInt(broken.length)] = (byte) random.nextInt(256);
+        } // for
+        expectCleanFailure(ByteBuffer.wrap(broken).order(ByteOrder.LITTLE_ENDIAN), text);
+      } // for
+    } // for
+  } // roundTrip(String, Random)
+
+  /**
+   * Decode in, which may or may not be valid, and check that nothing but
+   * a ParseException comes out.
+   */
+  static void expectCleanFailure(ByteBuffer in, String text) {
+    try {
+      JSONBinary.decode(in);
+    } catch (ParseException e) {
+      // Fine
+    } catch (RuntimeException e) {
+      throw new AssertionError("decoding a broken copy of " + text + " threw " + e, e);
+    } // try/catch
+  } // expectCleanFailure(ByteBuffer, String)
+
+  /**
+   * Make a random value, less likely to nest the deeper we are.
+   */
+  static JSONValue randomValue(Random random, int depth) throws Exception {
+    int kind = random.nextInt((depth < 4) ? 9 : 7);
+    switch (kind) {
+      case 0:
+        return JSONConstant.NULL;
+      case 1:
+        return random.nextBoolean() ? JSONConstant.TRUE : JSONConstant.FALSE;
+      case 2:
+        return JSON.parse(Long.toString(random.nextLong() >> random.nextInt(64)));
+      case 3:
+        return JSON.parse(new BigInteger(100, random).toString());
+      case 4:
+        double d = random.nextDouble() * Math.pow(10, random.nextInt(40) - 20);
+        return JSON.parse(Double.toString(d));
+      case 5:
+        return JSON.parse(random.nextInt(99999) + "." + random.nextInt(99999) + "e"
+            + (random.nextInt(1000) - 500));
+      case 6:
+        StringBuilder str = new StringBuilder();
+        for (int i = random.nextInt(12); i > 0; i--) {
+          str.append("ab\"\\\né中\ud800\udc00".charAt(random.nextInt(9)));
+        } // for
+        return new JSONString(str.append(random.nextBoolean() ? "😀" : "").toString());
+      case 7:
+        JSONArray array = new JSONArray();
+        for (int i = random.nextInt(6); i > 0; i--) {
+          array.add(randomValue(random, depth + 1));
+        } // for
+        return array;
+      default:
+        JSONHash hash = new JSONHash();
+        for (int i = random.nextInt(6); i > 0; i--) {
+          hash.set(new JSONString("k" + random.nextInt(8)), randomValue(random, depth + 1));
+        } // for
+        return hash;
+    } // switch
+  } // randomValue(Random, int)
+} // class JSONBinaryCheck
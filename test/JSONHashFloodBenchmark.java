@@ -0,0 +1,193 @@
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times parsing objects whose keys are chosen to collide, to show that
+ * it stays near-linear in the number of keys.
+ *
+ * The first part uses keys with equal String.hashCode, built from "Aa"
+ * and "BB" blocks, which is what an attacker can send without knowing
+ * anything about the process. The seeded hash spreads them out, so they
+ * should cost about what random keys do.
+ *
+ * The second part plays an attacker who knows the seed: it searches for
+ * keys whose seeded hashes agree in all the bits the index uses, so
+ * every key lands in the same run of slots. That must push the hash
+ * over MAX_PROBES into its tree, after which each key costs a tree
+ * insertion rather than a scan of the run.
+ *
+ * Prints the times and throws AssertionError if the fallback is not
+ * reached or if the time per key grows too fast with the number of keys.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONHashFloodBenchmark {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * How many times each parse is timed; we report the fastest.
+   */
+  static final int RUNS = 7;
+
+  /**
+   * How many times we parse before timing anything, so that the times
+   * are for compiled code.
+   */
+  static final int WARMUP = 20;
+
+  /**
+   * How much the time per key may grow from the smallest object to the
+   * largest. Quadratic parsing would grow by the ratio of their sizes
+   * (16 in both parts).
+   */
+  static final double MAX_GROWTH = 4.0;
+
+  /**
+   * The bits of the seeded hash that the colliding keys of the second
+   * part share: enough for the index of the largest object there.
+   */
+  static final int SEEDED_MASK = (1 << 14) - 1;
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Run the benchmark.
+   */
+  public static void main(String[] args) throws Exception {
+    String[] all = sameSeededHash(4096);
+    String warm = object(sameHashCode(16384));
+    String warmSeeded = object(all);
+    for (int i = 0; i < WARMUP; i++) {
+      JSON.parse(warm);
+      JSON.parse(warmSeeded);
+    } // for
+
+    System.out.println("Keys with equal String.hashCode");
+    double[] perKey = new double[3];
+    int[] sizes = { 4096, 16384, 65536 };
+    for (int s = 0; s < sizes.length; s++) {
+      String[] keys = sameHashCode(sizes[s]);
+      perKey[s] = report(keys, randomKeys(sizes[s]));
+    } // for
+    check(perKey, "equal String.hashCode");
+
+    System.out.println("Keys with equal seeded hashes");
+    sizes = new int[] { 256, 1024, 4096 };
+    for (int s = 0; s < sizes.length; s++) {
+      String[] keys = Arrays.copyOf(all, sizes[s]);
+      JSONHash hash = (JSONHash) JSON.parse(object(keys));
+      if (hash.tree == null) {
+        throw new AssertionError(sizes[s] + " colliding keys did not reach the tree");
+      } // if
+      for (String key : keys) {
+        if (hash.get(new JSONString(key)) == null) {
+          throw new AssertionError("lost " + key);
+        } // if
+      } // for
+      perKey[s] = report(keys, randomKeys(sizes[s]));
+    } // for
+    check(perKey, "equal seeded hashes");
+  } // main(String[])
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Time parsing objects with keys and with as many random keys, print
+   * both, and return the nanoseconds per colliding key.
+   */
+  static double report(String[] keys, String[] random) throws ParseException, IOException {
+    double colliding = time(object(keys)) / keys.length;
+    double plain = time(object(random)) / random.length;
+    System.out.printf("  %6d keys: %8.1f ns/key colliding, %8.1f ns/key random%n",
+        keys.length, colliding, plain);
+    return colliding;
+  } // report(String[], String[])
+
+  /**
+   * Check that the time per key did not grow by more than MAX_GROWTH.
+   */
+  static void check(double[] perKey, String what) {
+    double growth = perKey[perKey.length - 1] / perKey[0];
+    System.out.printf("  growth in time per key: %.2f%n", growth);
+    if (growth > MAX_GROWTH) {
+      throw new AssertionError("time per key with " + what + " grew by " + growth);
+    } // if
+  } // check(double[], String)
+
+  /**
+   * Find the fastest of RUNS parses of source, in nanoseconds.
+   */
+  static double time(String source) throws ParseException, IOException {
+    long best = Long.MAX_VALUE;
+    for (int run = 0; run < RUNS; run++) {
+      long start = System.nanoTime();
+      JSON.parse(source);
+      best = Math.min(best, System.nanoTime() - start);
+    } // for
+    return best;
+  } // time(String)
+
+  /**
+   * Make the text of an object with the given keys.
+   */
+  static String object(String[] keys) {
+    StringBuilder text = new StringBuilder("{");
+    for (int i = 0; i < keys.length; i++) {
+      text.append((i == 0) ? "\"" : ",\"").append(keys[i]).append("\":").append(i);
+    } // for
+    return text.append('}').toString();
+  } // object(String[])
+
+  /**
+   * Make n keys with the same String.hashCode, n a power of two.
+   */
+  static String[] sameHashCode(int n) {
+    int blocks = Integer.numberOfTrailingZeros(n);
+    String[] keys = new String[n];
+    for (int i = 0; i < n; i++) {
+      StringBuilder key = new StringBuilder();
+      for (int b = 0; b < blocks; b++) {
+        key.append(((i >>> b) & 1) == 0 ? "Aa" : "BB");
+      } // for
+      keys[i] = key.toString();
+    } // for
+    return keys;
+  } // sameHashCode(int)
+
+  /**
+   * Find n keys whose seeded hashes agree in the bits of SEEDED_MASK.
+   */
+  static String[] sameSeededHash(int n) {
+    String[] keys = new String[n];
+    int found = 0;
+    int target = new JSONString("k").seededHash() & SEEDED_MASK;
+    for (long i = 0; found < n; i++) {
+      String key = "k" + i;
+      if ((new JSONString(key).seededHash() & SEEDED_MASK) == target) {
+        keys[found++] = key;
+      } // if
+    } // for
+    return keys;
+  } // sameSeededHash(int)
+
+  /**
+   * Make n keys of about the same length that do not collide on purpose.
+   */
+  static String[] randomKeys(int n) {
+    Random random = new Random(n);
+    String[] keys = new String[n];
+    for (int i = 0; i < n; i++) {
+      keys[i] = "r" + Long.toString(random.nextLong() & Long.MAX_VALUE, 36) + i;
+    } // for
+    return keys;
+  } // randomKeys(int)
+} // class JSONHashFloodBenchmark
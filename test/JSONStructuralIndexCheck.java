@@ -0,0 +1,175 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Checks that JSONStructuralIndex finds the same bytes a word at a time
+ * as it does a byte at a time. Random inputs are built from the bytes
+ * that matter (quotes, runs of backslashes, brackets, whitespace, control
+ * characters) mixed with multi-byte UTF-8, and runs of backslashes are
+ * placed across 8- and 64-byte boundaries on purpose. Each input is
+ * checked in heap and direct buffers of both byte orders, at every
+ * starting point, and with findEnd cut into pieces at random places.
+ *
+ * Run with the sources on the class path; it prints a count when
+ * everything agrees and throws AssertionError at the first difference.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONStructuralIndexCheck {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The pieces inputs are made of.
+   */
+  static final String[] PIECES = {
+    "\"", "\\", "\\\\", "\\\"", "{", "}", "[", "]", ",", ":", " ", "\n",
+    "\t", "\r", "\u0001", "\u001f", "a", "bc", "1.5e3", "true", "é",
+    "中", "😀", "ÿþ"
+  };
+
+  /**
+   * How many random inputs to try.
+   */
+  static final int ROUNDS = 5000;
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Run the checks.
+   */
+  public static void main(String[] args) {
+    if (!JSONStructuralIndex.ENABLED) {
+      System.out.println("json.scalar is set, so only findEnd is checked a word at a time");
+    } // if
+    Random random = new Random((args.length > 0) ? Long.parseLong(args[0]) : 207);
+    long checks = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      byte[] bytes = input(random, round);
+      for (ByteBuffer buf : buffers(bytes)) {
+        checks += check(buf, random);
+      } // for
+    } // for
+    System.out.println("JSONStructuralIndexCheck: " + checks + " checks agree");
+  } // main(String[])
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Make a random input. Every other one has a run of backslashes (and
+   * then a quote) that straddles a word or block boundary.
+   */
+  static byte[] input(Random random, int round) {
+    StringBuilder text = new StringBuilder();
+    int length = 1 + random.nextInt(300);
+    while (text.length() < length) {
+      text.append(PIECES[random.nextInt(PIECES.length)]);
+    } // while
+    if (round % 2 == 0) {
+      int boundary = (random.nextBoolean() ? 64 : 8) * (1 + random.nextInt(3));
+      int run = 1 + random.nextInt(12);
+      int at = Math.max(0, boundary - random.nextInt(run + 1));
+      while (text.length() < at) {
+        text.append('x');
+      } // while
+      text.insert(at, "\\".repeat(run) + "\"");
+    } // if
+    return text.toString().getBytes(StandardCharsets.UTF_8);
+  } // input(Random, int)
+
+  /**
+   * Copy bytes into heap and direct buffers of both byte orders, at an
+   * offset, so that loads are not all aligned.
+   */
+  static ByteBuffer[] buffers(byte[] bytes) {
+    ByteBuffer[] result = new ByteBuffer[4];
+    for (int i = 0; i < 4; i++) {
+      ByteBuffer buf = (i < 2)
+          ? ByteBuffer.allocate(bytes.length + 3)
+          : ByteBuffer.allocateDirect(bytes.length + 3);
+      buf.order((i % 2 == 0) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+      buf.position(3);
+      buf.put(bytes);
+      result[i] = buf;
+    } // for
+    return result;
+  } // buffers(byte[])
+
+  /**
+   * Compare the two paths on one buffer from every starting point,
+   * returning the number of comparisons.
+   */
+  static int check(ByteBuffer buf, Random random) {
+    int end = buf.capacity();
+    int checks = 0;
+    for (int i = 3; i <= end; i++) {
+      expect(JSONStructuralIndex.nextSpecialScalar(buf, i, end),
+          JSONStructuralIndex.nextSpecial(buf, i, end), "nextSpecial", buf, i);
+      expect(JSONStructuralIndex.nextNonWhitespaceScalar(buf, i, end),
+          JSONStructuralIndex.nextNonWhitespace(buf, i, end), "nextNonWhitespace", buf, i);
+
+      // All at once, and then in two pieces
+      JSONStructuralIndex words = new JSONStructuralIndex();
+      JSONStructuralIndex bytes = new JSONStructuralIndex();
+      words.reset();
+      bytes.reset();
+      expectSame(bytes, bytes.findEndScalar(buf, i, end), words, words.findEnd(buf, i, end),
+          buf, i);
+      int cut = i + random.nextInt(end - i + 1);
+      words.reset();
+      bytes.reset();
+      int expected = bytes.findEndScalar(buf, i, cut);
+      int actual = words.findEnd(buf, i, cut);
+      expectSame(bytes, expected, words, actual, buf, i);
+      if (expected < 0) {
+        expectSame(bytes, bytes.findEndScalar(buf, cut, end), words, words.findEnd(buf, cut, end),
+            buf, cut);
+      } // if
+      checks += 4;
+    } // for
+    return checks;
+  } // check(ByteBuffer, Random)
+
+  /**
+   * Check that two indexes gave the same answer and, if they must go
+   * on, stopped in the same state.
+   */
+  static void expectSame(JSONStructuralIndex bytes, int expected,
+      JSONStructuralIndex words, int actual, ByteBuffer buf, int i) {
+    expect(expected, actual, "findEnd", buf, i);
+    if (expected < 0 && (bytes.depth != words.depth || bytes.inString != words.inString
+        || bytes.escaped != words.escaped)) {
+      throw new AssertionError("findEnd state differs from " + i + " in " + show(buf));
+    } // if
+  } // expectSame(JSONStructuralIndex, int, JSONStructuralIndex, int, ByteBuffer, int)
+
+  /**
+   * Check that two answers are the same.
+   */
+  static void expect(int expected, int actual, String what, ByteBuffer buf, int i) {
+    if (expected != actual) {
+      throw new AssertionError(what + " from " + i + ": expected " + expected + ", got "
+          + actual + " in " + show(buf));
+    } // if
+  } // expect(int, int, String, ByteBuffer, int)
+
+  /**
+   * Describe a buffer for a failure message.
+   */
+  static String show(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.capacity()];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buf.get(i);
+    } // for
+    return (buf.isDirect() ? "direct " : "heap ") + buf.order() + " buffer: "
+        + new String(bytes, StandardCharsets.UTF_8);
+  } // show(ByteBuffer)
+} // class JSONStructuralIndexCheck
@@ -0,0 +1,155 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Checks that output copied from a JSONWriteCache is always what writing
+ * the value afresh gives, after changes to values of every kind nested
+ * inside cached hashes: JSONHash, ConcurrentJSONHash (from this thread
+ * and from another one), persistent values, and arena values, and after
+ * removing elements of cached arrays through their iterators.
+ *
+ * Throws AssertionError at the first difference.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class JSONWriteCacheCheck {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * A string long enough that its output is cached.
+   */
+  static final String LONG = "x".repeat(300);
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Run the checks.
+   */
+  public static void main(String[] args) throws Exception {
+    JSONWriteCache cache = new JSONWriteCache(JSONWriteCache.DEFAULT_BUDGET);
+
+    // A concurrent hash inside a cached hash
+    JSONHash outer = new JSONHash();
+    ConcurrentJSONHash c = new ConcurrentJSONHash();
+    outer.set(new JSONString("long"), new JSONString(LONG));
+    outer.set(new JSONString("c"), c);
+    c.set(new JSONString("k"), new JSONString("v1"));
+    expect(outer, cache, "v1");
+    c.set(new JSONString("k"), new JSONString("v2"));
+    expect(outer, cache, "v2");
+    c.setIfAbsent(new JSONString("new"), new JSONString("v3"));
+    expect(outer, cache, "v3");
+    c.remove(new JSONString("new"));
+    expect(outer, cache, null);
+
+    // A concurrent hash long enough to be cached itself, at the top
+    ConcurrentJSONHash top = new ConcurrentJSONHash();
+    top.set(new JSONString("long"), new JSONString(LONG));
+    expect(top, cache, null);
+    top.set(new JSONString("k"), new JSONString("v4"));
+    expect(top, cache, "v4");
+
+    // A hash inside a concurrent hash inside a hash
+    JSONHash inner = new JSONHash();
+    inner.set(new JSONString("long"), new JSONString(LONG));
+    c.set(new JSONString("inner"), inner);
+    expect(outer, cache, null);
+    inner.set(new JSONString("k"), new JSONString("v5"));
+    expect(outer, cache, "v5");
+
+    // A hash inside a persistent hash inside a hash
+    JSONHash wrapper = new JSONHash();
+    JSONHash leaf = new JSONHash();
+    leaf.set(new JSONString("long"), new JSONString(LONG));
+    wrapper.set(new JSONString("p"),
+        PersistentJSONHash.empty().with(new JSONString("leaf"), leaf));
+    expect(wrapper, cache, null);
+    leaf.set(new JSONString("k"), new JSONString("v6"));
+    expect(wrapper, cache, "v6");
+
+    // An arena value inside a hash keeps the hash from being cached
+    JSONArena arena = JSON.parseArena("{\"a\":\"" + LONG + "\"}");
+    JSONHash holder = new JSONHash();
+    holder.set(new JSONString("arena"), arena.root());
+    holder.set(new JSONString("long"), new JSONString(LONG));
+    expect(holder, cache, null);
+    if (holder.cached != null) {
+      throw new AssertionError("a hash holding an arena value was cached");
+    } // if
+    arena.close();
+
+    // Removing through the iterator of a cached array, of either storage
+    JSONArray mixed = (JSONArray) JSON.parse("[\"" + LONG + "\",{\"k\":1}]");
+    expect(mixed, cache, null);
+    Iterator<JSONValue> it = mixed.iterator();
+    it.next();
+    it.remove();
+    expect(mixed, cache, null);
+    if (!cached(mixed, cache).equals("[{\"k\":1}]")) {
+      throw new AssertionError("removed element still written: " + cached(mixed, cache));
+    } // if
+    JSONArray longs = (JSONArray) JSON.parse("[1,2,3,4,5,6,7,8,9,10]");
+    JSONHash numbered = new JSONHash();
+    numbered.set(new JSONString("long"), new JSONString(LONG));
+    numbered.set(new JSONString("longs"), longs);
+    expect(numbered, cache, null);
+    it = longs.iterator();
+    it.next();
+    it.remove();
+    expect(numbered, cache, null);
+
+    // Another thread changing a concurrent hash while we write
+    ConcurrentJSONHash shared = new ConcurrentJSONHash();
+    JSONHash root = new JSONHash();
+    root.set(new JSONString("long"), new JSONString(LONG));
+    root.set(new JSONString("shared"), shared);
+    Thread writer = new Thread(() -> {
+      for (int i = 0; i < 20000; i++) {
+        shared.set(new JSONString("k" + (i % 50)), new JSONString(LONG + i));
+      } // for
+    });
+    writer.start();
+    while (writer.isAlive()) {
+      cached(root, cache);
+    } // while
+    writer.join();
+    expect(root, cache, LONG + 19999);
+    System.out.println("JSONWriteCacheCheck: cached output always matched");
+  } // main(String[])
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Check that value written through cache, twice, is what writing it
+   * afresh gives, and that it contains the text expected (if not null).
+   */
+  static void expect(JSONValue value, JSONWriteCache cache, String expected) throws Exception {
+    String fresh = JSON.toJSON(value);
+    for (int i = 0; i < 2; i++) {
+      String copied = cached(value, cache);
+      if (!copied.equals(fresh)) {
+        throw new AssertionError("cached output\n  " + copied + "\ndiffers from\n  " + fresh);
+      } // if
+    } // for
+    if (expected != null && !fresh.contains("\"" + expected + "\"")) {
+      throw new AssertionError(fresh + " does not contain " + expected);
+    } // if
+  } // expect(JSONValue, JSONWriteCache, String)
+
+  /**
+   * Write value through cache.
+   */
+  static String cached(JSONValue value, JSONWriteCache cache) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JSON.writeCached(value, out, cache);
+    return out.toString(StandardCharsets.UTF_8);
+  } // cached(JSONValue, JSONWriteCache)
+} // class JSONWriteCacheCheck
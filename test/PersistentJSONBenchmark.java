@@ -0,0 +1,151 @@
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.function.IntFunction;
+
+/**
+ * Measures what it costs to make a new version of a large persistent
+ * hash or array that differs in one place, in time and in bytes
+ * allocated, against copying a JSONHash of the same size. An update
+ * should copy only the path to the changed leaf, so its cost should
+ * grow with log n, not with n.
+ *
+ * Prints the costs for 10,000 and 100,000 entries, and throws
+ * AssertionError if an old version sees a later change, if the bytes
+ * an update allocates more than double from the smaller size to the
+ * larger (copying grows them tenfold), or if an update allocates more
+ * than a hundredth of what a copy does.
+ *
+ * @author Lydia Ye
+ * @author Wenfei Lin
+ */
+public class PersistentJSONBenchmark {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The numbers of entries we try.
+   */
+  static final int[] SIZES = { 10000, 100000 };
+
+  /**
+   * The number of updates we time at each size.
+   */
+  static final int UPDATES = 20000;
+
+  /**
+   * The number of copies we time at each size.
+   */
+  static final int COPIES = 20;
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Run the benchmark.
+   */
+  public static void main(String[] args) {
+    String[] ops = { "hash.with", "hash.without", "array.withIndex", "array.append" };
+    double[][] bytes = new double[SIZES.length][];
+    for (int round = 0; round < 2; round++) {
+      // The first round warms up
+      for (int s = 0; s < SIZES.length; s++) {
+        bytes[s] = measure(SIZES[s], round == 1);
+      } // for
+    } // for
+    for (int op = 0; op < ops.length; op++) {
+      double growth = bytes[1][op] / bytes[0][op];
+      if (growth > 2.0) {
+        throw new AssertionError(ops[op] + " allocation grew by " + growth);
+      } // if
+      if (bytes[1][op] * 100 > bytes[1][ops.length]) {
+        throw new AssertionError(ops[op] + " allocated " + bytes[1][op] + " bytes against "
+            + bytes[1][ops.length] + " for a copy");
+      } // if
+    } // for
+  } // main(String[])
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Time each kind of update, and a copy, at size n. Returns the bytes
+   * allocated per update of each kind, then per copy.
+   */
+  static double[] measure(int n, boolean print) {
+    JSONString[] keys = new JSONString[n];
+    PersistentJSONHash.Builder hashes = PersistentJSONHash.builder();
+    PersistentJSONArray.Builder arrays = PersistentJSONArray.builder();
+    JSONHash plain = new JSONHash();
+    for (int i = 0; i < n; i++) {
+      keys[i] = new JSONString("key" + i);
+      hashes.set(keys[i], new JSONReal(i));
+      arrays.add(new JSONReal(i));
+      plain.set(keys[i], new JSONReal(i));
+    } // for
+    PersistentJSONHash hash = hashes.build();
+    PersistentJSONArray array = arrays.build();
+    JSONReal changed = new JSONReal(-1);
+
+    // Keep every version, so that none of the work can be skipped
+    Object[] versions = new Object[UPDATES];
+    double[] result = new double[5];
+    result[0] = cost("hash.with", n, print, versions,
+        (i) -> hash.with(keys[(i * 7919) % n], changed));
+    result[1] = cost("hash.without", n, print, versions,
+        (i) -> hash.without(keys[(i * 7919) % n]));
+    result[2] = cost("array.withIndex", n, print, versions,
+        (i) -> array.withIndex((i * 7919) % n, changed));
+    // Each append builds on the last, so that every fill of the tail
+    // is counted
+    PersistentJSONArray[] last = { array };
+    result[3] = cost("array.append", n, print, versions,
+        (i) -> last[0] = last[0].append(changed));
+    result[4] = cost("JSONHash copy", n, print, new Object[COPIES], (i) -> {
+      JSONHash copy = new JSONHash();
+      Iterator<KVPair<JSONString, JSONValue>> it = plain.iterator();
+      while (it.hasNext()) {
+        KVPair<JSONString, JSONValue> pair = it.next();
+        copy.set(pair.key(), pair.value());
+      } // while
+      return copy;
+    });
+
+    // The old versions must not see the changes
+    if (hash.size() != n || hash.get(keys[0]) == changed || array.size() != n
+        || array.get(0) == changed) {
+      throw new AssertionError("an update changed the version it started from");
+    } // if
+    return result;
+  } // measure(int, boolean)
+
+  /**
+   * Make versions.length versions with update, print the time and bytes
+   * each took, and return the bytes.
+   */
+  static double cost(String label, int n, boolean print, Object[] versions,
+      IntFunction<Object> update) {
+    long bytes = allocated();
+    long start = System.nanoTime();
+    for (int i = 0; i < versions.length; i++) {
+      versions[i] = update.apply(i);
+    } // for
+    double nanos = (double) (System.nanoTime() - start) / versions.length;
+    double perUpdate = (double) (allocated() - bytes) / versions.length;
+    if (print) {
+      System.out.printf("  %7d entries, %-16s %12.0f ns %12.0f bytes%n", n, label, nanos,
+          perUpdate);
+    } // if
+    return perUpdate;
+  } // cost(String, int, boolean, Object[], IntFunction<Object>)
+
+  /**
+   * Find out how many bytes this thread has allocated so far.
+   */
+  static long allocated() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  } // allocated()
+} // class PersistentJSONBenchmark